@@ -0,0 +1,81 @@
+package com.practical.work.service;
+
+import com.practical.work.dto.FormattingResult;
+import com.practical.work.dto.ParagraphClassification;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк разбора ответов модели: выполняется для каждого чанка документа.
+ * Запуск: mvn -Pbenchmark test-compile exec:exec (профилировщик gc даёт скорость аллокаций)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AiResponseParsingBenchmark {
+
+    private AiFormattingService aiFormattingService;
+    private ParagraphClassifier paragraphClassifier;
+    private String[] paragraphs;
+    private ParagraphClassification[] classifications;
+    private String[] responses;
+    private int cursor;
+
+    @Setup
+    public void setUp() {
+        paragraphClassifier = new ParagraphClassifier();
+        aiFormattingService = new AiFormattingService();
+        ReflectionTestUtils.setField(aiFormattingService, "paragraphClassifier", paragraphClassifier);
+
+        List<String> corpus = BenchmarkCorpus.paragraphs();
+        paragraphs = corpus.toArray(new String[0]);
+        classifications = new ParagraphClassification[paragraphs.length];
+        for (int i = 0; i < paragraphs.length; i++) {
+            classifications[i] = paragraphClassifier.classify(paragraphs[i]);
+        }
+        responses = BenchmarkCorpus.aiResponses(corpus).toArray(new String[0]);
+    }
+
+    private int next() {
+        int index = cursor;
+        cursor = (index + 1) % paragraphs.length;
+        return index;
+    }
+
+    @Benchmark
+    public String extractJsonFromResponse() {
+        return aiFormattingService.extractJsonFromResponse(responses[next()]);
+    }
+
+    @Benchmark
+    public FormattingResult parseAiResponse() {
+        int index = next();
+        return aiFormattingService.parseAiResponse(responses[index], paragraphs[index], classifications[index]);
+    }
+
+    @Benchmark
+    public boolean looksLikeHeading() {
+        return paragraphClassifier.looksLikeHeading(paragraphs[next()]);
+    }
+
+    @Benchmark
+    public FormattingResult createFallbackFormattingResult() {
+        int index = next();
+        return aiFormattingService.createFallbackFormattingResult(paragraphs[index], classifications[index]);
+    }
+}
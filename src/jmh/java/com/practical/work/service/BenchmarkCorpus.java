@@ -0,0 +1,80 @@
+package com.practical.work.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Корпус украинских абзацев и типичных ответов модели для бенчмарков
+ */
+final class BenchmarkCorpus {
+
+    private static final String PARAGRAPHS_RESOURCE = "/corpus/paragraphs-uk.txt";
+
+    private BenchmarkCorpus() {
+    }
+
+    /**
+     * Абзацы корпуса в исходном порядке (включая пустые)
+     */
+    static List<String> paragraphs() {
+        try (InputStream inputStream = BenchmarkCorpus.class.getResourceAsStream(PARAGRAPHS_RESOURCE)) {
+            if (inputStream == null) {
+                throw new IllegalStateException("Корпус не найден: " + PARAGRAPHS_RESOURCE);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+            List<String> paragraphs = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith("#")) {
+                    paragraphs.add(line);
+                }
+            }
+            return paragraphs;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Ответы модели в том виде, в каком их возвращает Ollama: чистый JSON,
+     * JSON с пояснениями вокруг и обрезанный ответ без закрывающей скобки
+     */
+    static List<String> aiResponses(List<String> paragraphs) {
+        ObjectMapper mapper = new ObjectMapper();
+        List<String> responses = new ArrayList<>();
+        for (int i = 0; i < paragraphs.size(); i++) {
+            String json = toJson(mapper, paragraphs.get(i));
+            switch (i % 3) {
+                case 0 -> responses.add(json);
+                case 1 -> responses.add("Ось результат форматування:\n" + json + "\nСподіваюся, це допоможе!");
+                default -> responses.add(" " + json.substring(0, json.length() - 1));
+            }
+        }
+        return responses;
+    }
+
+    private static String toJson(ObjectMapper mapper, String text) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        boolean header = !text.isEmpty() && text.length() < 80 && text.equals(text.toUpperCase());
+        response.put("formatted_text", text.trim());
+        response.put("formatting_type", text.isBlank() ? "empty" : header ? "header" : "paragraph");
+        response.put("font_style", header ? "bold" : "normal");
+        response.put("font_size", header ? 16 : 14);
+        response.put("alignment", header ? "left" : "justify");
+        try {
+            return mapper.writeValueAsString(response);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.practical.work.service;
+
+import com.practical.work.dto.ParagraphClassification;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Бенчмарк классификатора абзацев, который выполняется для каждого абзаца документа
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParagraphClassificationBenchmark {
+
+    private ParagraphClassifier paragraphClassifier;
+    private XWPFDocument document;
+    private XWPFParagraph[] paragraphs;
+    private String[] texts;
+    private String[] styles;
+    private int cursor;
+
+    @Setup
+    public void setUp() {
+        paragraphClassifier = new ParagraphClassifier();
+        document = new XWPFDocument();
+
+        List<String> corpus = BenchmarkCorpus.paragraphs();
+        paragraphs = new XWPFParagraph[corpus.size()];
+        texts = new String[corpus.size()];
+        styles = new String[corpus.size()];
+        for (int i = 0; i < corpus.size(); i++) {
+            XWPFParagraph paragraph = document.createParagraph();
+            paragraph.createRun().setText(corpus.get(i));
+            // Часть заголовков размечена стилем, как в реальных документах
+            if (i % 10 == 0) {
+                paragraph.setStyle("Heading1");
+            }
+            paragraphs[i] = paragraph;
+            texts[i] = paragraph.getText();
+            styles[i] = paragraph.getStyle();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        document.close();
+    }
+
+    private int next() {
+        int index = cursor;
+        cursor = (index + 1) % paragraphs.length;
+        return index;
+    }
+
+    @Benchmark
+    public ParagraphClassification classify() {
+        int index = next();
+        return paragraphClassifier.classify(texts[index], styles[index]);
+    }
+
+    @Benchmark
+    public ParagraphClassification classifyWithStyleLookup() {
+        // Вариант с чтением стиля из XML абзаца, как при разбиении документа на чанки
+        int index = next();
+        XWPFParagraph paragraph = paragraphs[index];
+        return paragraphClassifier.classify(paragraph.getText(), paragraph.getStyle());
+    }
+}
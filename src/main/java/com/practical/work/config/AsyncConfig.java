@@ -1,5 +1,6 @@
 package com.practical.work.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
@@ -13,12 +14,20 @@ import java.util.concurrent.Executor;
 @EnableScheduling
 public class AsyncConfig {
 
+    /**
+     * Пул потоков обработки чанков. Размер совпадает с числом слотов модели в ResourceManager:
+     * обработчик очереди не запускает файлы сверх этих слотов, поэтому лимиты пула и диспетчера не расходятся
+     */
     @Bean(name = "taskExecutor")
-    public Executor taskExecutor() {
+    public Executor taskExecutor(@Value("${app.resources.inference-slots:6}") int inferenceSlots) {
+        int threads = Math.max(1, inferenceSlots);
+
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        // Консервативные настройки для ограничения ресурсов
-        executor.setCorePoolSize(2); // Базовое количество потоков
-        executor.setMaxPoolSize(6); // Максимум 6 потоков (2 документа по 3 потока)
+        // Потоки создаются до постановки задач в очередь: при базовом размере меньше максимума
+        // пул расширялся бы только после заполнения очереди
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setAllowCoreThreadTimeOut(true);
         executor.setQueueCapacity(50); // Ограниченная очередь
         executor.setThreadNamePrefix("DocumentProcessor-");
         executor.setKeepAliveSeconds(30); // Быстрое освобождение неиспользуемых потоков
@@ -29,4 +38,40 @@ public class AsyncConfig {
         executor.initialize();
         return executor;
     }
-} 
\ No newline at end of file
+
+    /**
+     * Поток запуска файлов из очереди. Один проход забирает все файлы, на которые хватает ресурсов,
+     * поэтому достаточно одного ожидающего прохода: остальные запросы, пришедшие за ним, отбрасываются
+     */
+    @Bean(name = "queueDispatchExecutor")
+    public Executor queueDispatchExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(1);
+        executor.setThreadNamePrefix("QueueDispatcher-");
+        executor.setRejectedExecutionHandler(new java.util.concurrent.ThreadPoolExecutor.DiscardPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Пул для параллельного сжатия частей DOCX при сохранении.
+     * Очередь ограничена, при переполнении блок сжимает вызывающий поток
+     */
+    @Bean(name = "compressionExecutor")
+    public Executor compressionExecutor(@Value("${app.docx.compression-threads:0}") int compressionThreads) {
+        int threads = compressionThreads > 0 ? compressionThreads : Runtime.getRuntime().availableProcessors();
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(threads * 16);
+        executor.setThreadNamePrefix("DocxCompressor-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.setRejectedExecutionHandler(new java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+}
@@ -5,6 +5,7 @@ import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 import org.springframework.web.util.ContentCachingRequestWrapper;
@@ -17,15 +18,22 @@ import java.util.Enumeration;
 
 @Slf4j
 @Component
+@ConditionalOnWebApplication
 public class RequestLoggingFilter extends OncePerRequestFilter {
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, 
                                     FilterChain filterChain) throws ServletException, IOException {
         
-        // Создаем wrappers для кеширования содержимого
-        ContentCachingRequestWrapper requestWrapper = new ContentCachingRequestWrapper(request);
-        ContentCachingResponseWrapper responseWrapper = new ContentCachingResponseWrapper(response);
+        // Создаем wrappers для кеширования содержимого; тело потоковой загрузки и частей
+        // файла не кешируется, иначе весь файл копировался бы в память
+        HttpServletRequest requestWrapper = isStreamingUpload(request)
+            ? request
+            : new ContentCachingRequestWrapper(request);
+        // Скачиваемые файлы передаются напрямую в сокет (sendfile) и тоже не кешируются
+        HttpServletResponse responseWrapper = isFileDownload(request)
+            ? response
+            : new ContentCachingResponseWrapper(response);
         
         String requestId = generateRequestId();
         long startTime = System.currentTimeMillis();
@@ -47,7 +55,9 @@ public class RequestLoggingFilter extends OncePerRequestFilter {
             logResponse(responseWrapper, requestId, duration);
             
             // Важно: копируем содержимое обратно в ответ
-            responseWrapper.copyBodyToResponse();
+            if (responseWrapper instanceof ContentCachingResponseWrapper cachingResponse) {
+                cachingResponse.copyBodyToResponse();
+            }
         }
     }
     
@@ -68,7 +78,7 @@ public class RequestLoggingFilter extends OncePerRequestFilter {
         }
     }
     
-    private void logResponse(ContentCachingResponseWrapper response, String requestId, long duration) {
+    private void logResponse(HttpServletResponse response, String requestId, long duration) {
         int status = response.getStatus();
         String statusCategory = getStatusCategory(status);
         
@@ -80,8 +90,8 @@ public class RequestLoggingFilter extends OncePerRequestFilter {
         }
         
         // Логируем ошибки с содержимым ответа
-        if (status >= 400) {
-            byte[] content = response.getContentAsByteArray();
+        if (status >= 400 && response instanceof ContentCachingResponseWrapper cachingResponse) {
+            byte[] content = cachingResponse.getContentAsByteArray();
             if (content.length > 0) {
                 try {
                     String characterEncoding = response.getCharacterEncoding();
@@ -142,6 +152,17 @@ public class RequestLoggingFilter extends OncePerRequestFilter {
         return "INFO";
     }
     
+    private boolean isStreamingUpload(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        return uri.endsWith("/upload/stream")
+            || uri.endsWith("/upload/batch")
+            || ("PUT".equals(request.getMethod()) && uri.contains("/upload/sessions/"));
+    }
+    
+    private boolean isFileDownload(HttpServletRequest request) {
+        return request.getRequestURI().contains("/download/");
+    }
+    
     private String generateRequestId() {
         return "REQ-" + System.currentTimeMillis() + "-" + 
                (int)(Math.random() * 1000);
@@ -1,26 +1,44 @@
 package com.practical.work.controller;
 
+import com.practical.work.dto.BatchUploadResponse;
 import com.practical.work.dto.DocumentUploadResponse;
 import com.practical.work.entity.FileProcessingQueue;
 import com.practical.work.model.ProcessedDocument;
 import com.practical.work.model.User;
 import com.practical.work.service.AuthService;
+import com.practical.work.service.BatchUploadService;
+import com.practical.work.service.BulkDownloadService;
 import com.practical.work.service.DocumentService;
+import com.practical.work.service.DocumentUploadService;
 import com.practical.work.service.FileQueueService;
 import com.practical.work.service.ProcessingMetricsService;
+import com.practical.work.service.ResourceManager;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,9 +50,18 @@ import java.util.Optional;
 @Slf4j
 public class DocumentController {
 
+    // Атрибуты запроса Tomcat для передачи файла через sendfile
+    private static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
     @Autowired
     private DocumentService documentService;
 
+    @Autowired
+    private DocumentUploadService documentUploadService;
+
     @Autowired
     private AuthService authService;
     
@@ -44,9 +71,19 @@ public class DocumentController {
     @Autowired
     private FileQueueService fileQueueService;
 
+    @Autowired
+    private ResourceManager resourceManager;
+
+    @Autowired
+    private BulkDownloadService bulkDownloadService;
+
+    @Autowired
+    private BatchUploadService batchUploadService;
+
     @PostMapping("/upload")
     public ResponseEntity<?> uploadDocument(
             @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "previousFileId", required = false) String previousFileId,
             @RequestHeader(value = "Authorization", required = false) String authHeader) {
         try {
             // Проверка авторизации
@@ -58,8 +95,8 @@ public class DocumentController {
             String token = authHeader.substring(7);
             User user = authService.getUserFromToken(token);
 
-            // Загрузка документа
-            DocumentUploadResponse response = documentService.uploadDocument(file, user);
+            // Загрузка документа (при наличии previousFileId - как новой версии ранее загруженного)
+            DocumentUploadResponse response = documentUploadService.uploadDocument(file, user, previousFileId);
             
             if (response.isSuccess()) {
                 return ResponseEntity.ok(response);
@@ -77,6 +114,147 @@ public class DocumentController {
         }
     }
 
+    /**
+     * Загрузка документа телом запроса без multipart: файл не буферизуется контейнером,
+     * а записывается на диск и проверяется по мере поступления байтов
+     */
+    @PostMapping(value = "/upload/stream", consumes = {
+            MediaType.APPLICATION_OCTET_STREAM_VALUE,
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document"})
+    public ResponseEntity<?> uploadDocumentStream(
+            HttpServletRequest request,
+            @RequestParam("fileName") String fileName,
+            @RequestParam(value = "previousFileId", required = false) String previousFileId,
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        try {
+            // Проверка авторизации
+            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Токен авторизации обязателен"));
+            }
+
+            String token = authHeader.substring(7);
+            User user = authService.getUserFromToken(token);
+
+            DocumentUploadResponse response;
+            try (InputStream body = request.getInputStream()) {
+                response = documentUploadService.uploadDocument(body, fileName, user, previousFileId);
+            }
+
+            if (response.isSuccess()) {
+                return ResponseEntity.ok(response);
+            } else {
+                return ResponseEntity.badRequest().body(response);
+            }
+
+        } catch (Exception e) {
+            log.error("Ошибка потоковой загрузки документа", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(DocumentUploadResponse.builder()
+                    .success(false)
+                    .message("Внутренняя ошибка сервера: " + e.getMessage())
+                    .build());
+        }
+    }
+
+    /**
+     * Загрузка пакета документов одним ZIP архивом (телом запроса).
+     * Документы регистрируются одной транзакцией и обрабатываются как единый пакет
+     */
+    @PostMapping(value = "/upload/batch", consumes = {
+            MediaType.APPLICATION_OCTET_STREAM_VALUE, "application/zip", "application/x-zip-compressed"})
+    public ResponseEntity<?> uploadBatch(
+            HttpServletRequest request,
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        try {
+            // Проверка авторизации
+            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Токен авторизации обязателен"));
+            }
+
+            String token = authHeader.substring(7);
+            User user = authService.getUserFromToken(token);
+
+            BatchUploadResponse response;
+            try (InputStream body = request.getInputStream()) {
+                response = batchUploadService.uploadBatch(body, user);
+            }
+
+            if (response.isSuccess()) {
+                return ResponseEntity.ok(response);
+            } else {
+                return ResponseEntity.badRequest().body(response);
+            }
+
+        } catch (Exception e) {
+            log.error("Ошибка загрузки пакета документов", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", "Внутренняя ошибка сервера: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Сводный прогресс пакета: количество документов по статусам и список документов
+     */
+    @GetMapping("/batch/{batchId}")
+    public ResponseEntity<?> getBatchStatus(
+            @PathVariable String batchId,
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        try {
+            // Проверка авторизации
+            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Токен авторизации обязателен"));
+            }
+
+            String token = authHeader.substring(7);
+            User user = authService.getUserFromToken(token);
+
+            // Выбираются только документы пользователя, поэтому чужой пакет не найдется
+            List<ProcessedDocument> documents = documentService.getBatchDocuments(batchId, user);
+            if (documents.isEmpty()) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "Пакет не найден"));
+            }
+
+            Map<String, Long> statusCounts = new HashMap<>();
+            for (ProcessedDocument.ProcessingStatus status : ProcessedDocument.ProcessingStatus.values()) {
+                statusCounts.put(status.name().toLowerCase(), 0L);
+            }
+            for (ProcessedDocument document : documents) {
+                statusCounts.merge(document.getStatus().name().toLowerCase(), 1L, Long::sum);
+            }
+
+            long finished = documents.stream()
+                .filter(document -> document.getStatus() == ProcessedDocument.ProcessingStatus.COMPLETED
+                    || document.getStatus() == ProcessedDocument.ProcessingStatus.FAILED)
+                .count();
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("batchId", batchId);
+            response.put("total", documents.size());
+            response.put("statusCounts", statusCounts);
+            response.put("progress", (double) finished / documents.size() * 100.0);
+            response.put("finished", finished == documents.size());
+            response.put("documents", documents.stream().map(document -> {
+                Map<String, Object> docMap = new HashMap<>();
+                docMap.put("fileId", document.getFileId());
+                docMap.put("originalFilename", document.getOriginalFilename());
+                docMap.put("status", document.getStatus().name().toLowerCase());
+                docMap.put("errorMessage", document.getErrorMessage());
+                return docMap;
+            }).toList());
+
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            log.error("Ошибка получения статуса пакета {}", batchId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", "Внутренняя ошибка сервера: " + e.getMessage()));
+        }
+    }
+
     @PostMapping("/format-document")
     public ResponseEntity<?> formatDocument(
             @RequestParam("file") MultipartFile file,
@@ -92,21 +270,23 @@ public class DocumentController {
             User user = authService.getUserFromToken(token);
 
             // Загрузка документа
-            DocumentUploadResponse uploadResponse = documentService.uploadDocument(file, user);
+            DocumentUploadResponse uploadResponse = documentUploadService.uploadDocument(file, user);
             
             if (!uploadResponse.isSuccess()) {
                 return ResponseEntity.badRequest().body(uploadResponse);
             }
 
-            // Запуск обработки документа
-            documentService.processDocument(uploadResponse.getFileId(), user)
-                .thenAccept(success -> {
-                    if (success) {
-                        log.info("Документ {} обработан успешно", uploadResponse.getFileId());
-                    } else {
-                        log.error("Ошибка обработки документа {}", uploadResponse.getFileId());
-                    }
-                });
+            // Запуск обработки документа; веб-узел без обработчика очереди только ставит файл в очередь
+            if (fileQueueService.isConsumer()) {
+                documentService.processDocument(uploadResponse.getFileId(), user)
+                    .thenAccept(success -> {
+                        if (success) {
+                            log.info("Документ {} обработан успешно", uploadResponse.getFileId());
+                        } else {
+                            log.error("Ошибка обработки документа {}", uploadResponse.getFileId());
+                        }
+                    });
+            }
 
             return ResponseEntity.ok(Map.of(
                 "success", true,
@@ -121,10 +301,16 @@ public class DocumentController {
         }
     }
 
+    /**
+     * Скачивание результата. Поддерживаются условные запросы (ETag по хешу результата, 304),
+     * диапазоны байтов для докачки и передача файла в сокет без копирования через sendfile
+     */
     @GetMapping("/download/{fileId}")
     public ResponseEntity<?> downloadDocument(
             @PathVariable String fileId,
-            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            HttpServletRequest request,
+            HttpServletResponse response) {
         try {
             // Проверка авторизации
             if (authHeader == null || !authHeader.startsWith("Bearer ")) {
@@ -149,6 +335,12 @@ public class DocumentController {
                     .body(Map.of("error", "Доступ запрещен"));
             }
 
+            // Файлы документа удалены по истечении срока хранения
+            if (document.getStatus() == ProcessedDocument.ProcessingStatus.EXPIRED) {
+                return ResponseEntity.status(HttpStatus.GONE)
+                    .body(Map.of("error", "Срок хранения документа истек, загрузите его повторно"));
+            }
+
             // Проверка статуса обработки
             if (document.getStatus() != ProcessedDocument.ProcessingStatus.COMPLETED) {
                 return ResponseEntity.badRequest()
@@ -157,19 +349,22 @@ public class DocumentController {
 
             // Получение файла
             File file = documentService.getProcessedFile(fileId);
-            FileSystemResource resource = new FileSystemResource(file);
+            String processedHash = documentService.getProcessedHash(document);
+            String eTag = processedHash != null ? "\"" + processedHash + "\"" : null;
+            long lastModified = file.lastModified();
+
+            // Условный запрос: у клиента уже есть эта версия файла (304, тело не передается)
+            if (new ServletWebRequest(request, response).checkNotModified(eTag, lastModified)) {
+                return null;
+            }
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, 
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
                 "attachment; filename=\"formatted-" + document.getOriginalFilename() + "\"");
-            headers.add(HttpHeaders.CONTENT_TYPE, 
-                "application/vnd.openxmlformats-officedocument.wordprocessingml.document");
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "private, no-cache");
+            response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
 
-            return ResponseEntity.ok()
-                .headers(headers)
-                .contentLength(file.length())
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .body(resource);
+            writeFile(file, eTag, request, response);
+            return null;
 
         } catch (Exception e) {
             log.error("Ошибка скачивания документа {}", fileId, e);
@@ -178,6 +373,144 @@ public class DocumentController {
         }
     }
 
+    /**
+     * Скачивание нескольких обработанных документов одним ZIP архивом.
+     * Тело: {"fileIds": [...]} или {"since": "2025-09-01T00:00:00"} для всех документов,
+     * обработанных после указанного момента (без параметров - все обработанные)
+     */
+    @PostMapping("/download/bulk")
+    public ResponseEntity<?> downloadBulk(
+            @RequestBody(required = false) Map<String, Object> payload,
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        try {
+            // Проверка авторизации
+            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Токен авторизации обязателен"));
+            }
+
+            String token = authHeader.substring(7);
+            User user = authService.getUserFromToken(token);
+
+            Object fileIds = payload != null ? payload.get("fileIds") : null;
+            Object since = payload != null ? payload.get("since") : null;
+
+            BulkDownloadService.BulkSelection selection;
+            if (fileIds instanceof List<?> ids) {
+                selection = bulkDownloadService.selectByFileIds(user,
+                    ids.stream().map(String::valueOf).toList());
+            } else {
+                LocalDateTime completedAfter = since != null
+                    ? LocalDateTime.parse(since.toString())
+                    : LocalDateTime.of(1970, 1, 1, 0, 0);
+                selection = bulkDownloadService.selectCompletedSince(user, completedAfter);
+            }
+
+            // Проверка владельца и статуса выполнена одним запросом для всего списка
+            if (!selection.getMissingFileIds().isEmpty()) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "Документы не найдены или еще не обработаны",
+                        "missingFileIds", selection.getMissingFileIds()));
+            }
+            if (selection.getEntries().isEmpty()) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Нет обработанных документов для скачивания"));
+            }
+
+            List<BulkDownloadService.BulkEntry> entries = selection.getEntries();
+            StreamingResponseBody body = outputStream -> bulkDownloadService.writeZip(entries, outputStream);
+
+            return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"formatted-documents.zip\"")
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .body(body);
+
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Ошибка скачивания архива документов", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", "Ошибка скачивания файлов: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Отправка файла целиком или одного диапазона байтов. Несколько диапазонов не поддерживаются,
+     * в этом случае файл отдается целиком, что допускается RFC 9110
+     */
+    private void writeFile(File file, String eTag, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        long length = file.length();
+        long start = 0;
+        long end = length - 1;
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && isIfRangeSatisfied(request.getHeader(HttpHeaders.IF_RANGE), eTag, file.lastModified())) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(rangeHeader);
+            } catch (IllegalArgumentException e) {
+                ranges = List.of();
+            }
+
+            if (ranges.size() == 1) {
+                start = ranges.get(0).getRangeStart(length);
+                end = ranges.get(0).getRangeEnd(length);
+
+                if (start >= length || start > end) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                    response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                    return;
+                }
+
+                response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+
+        long count = end - start + 1;
+        response.setContentLengthLong(count);
+
+        if ("HEAD".equals(request.getMethod()) || count <= 0) {
+            return;
+        }
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+            // Tomcat передаст файл из page cache в сокет сам после завершения обработчика
+            request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.getCanonicalPath());
+            request.setAttribute(SENDFILE_START_ATTRIBUTE, start);
+            request.setAttribute(SENDFILE_END_ATTRIBUTE, end + 1);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (position <= end) {
+                position += channel.transferTo(position, end + 1 - position, target);
+            }
+        }
+    }
+
+    /**
+     * If-Range: диапазон применяется, только если у клиента та же версия файла
+     */
+    private boolean isIfRangeSatisfied(String ifRange, String eTag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(eTag);
+        }
+        try {
+            long date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+            return date == lastModified / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
     @GetMapping("/document/{fileId}/status")
     public ResponseEntity<?> getDocumentStatus(
             @PathVariable String fileId,
@@ -368,6 +701,38 @@ public class DocumentController {
         }
     }
 
+    @GetMapping("/queue/positions")
+    public ResponseEntity<?> getQueuePositions(
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        try {
+            // Проверка авторизации
+            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Токен авторизации обязателен"));
+            }
+
+            String token = authHeader.substring(7);
+            User user = authService.getUserFromToken(token);
+
+            List<FileQueueService.QueuePosition> positions = fileQueueService.getUserQueuePositions(user.getId());
+
+            return ResponseEntity.ok(Map.of(
+                "pendingCount", fileQueueService.getPendingCount(),
+                "files", positions.stream().map(position -> Map.of(
+                    "fileId", position.getFileId(),
+                    "originalFilename", position.getOriginalFilename(),
+                    "priority", position.getPriority().name().toLowerCase(),
+                    "position", position.getPosition()
+                )).toList()
+            ));
+
+        } catch (Exception e) {
+            log.error("Ошибка получения позиций в очереди", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", "Внутренняя ошибка сервера: " + e.getMessage()));
+        }
+    }
+
     @GetMapping("/queue/processing-status")
     public ResponseEntity<?> getProcessingStatus(
             @RequestHeader(value = "Authorization", required = false) String authHeader) {
@@ -389,8 +754,9 @@ public class DocumentController {
                 "eventDrivenMode", true,
                 "isCurrentlyProcessing", queueStats.getProcessingCount() > 0,
                 "activeProcessings", globalMetrics.getActiveProcessings(),
-                "totalUsedThreads", calculateUsedThreads(queueStats.getProcessingCount()),
-                "maxAvailableThreads", 6,
+                "totalUsedThreads", resourceManager.getUsed(ResourceManager.Resource.INFERENCE),
+                "maxAvailableThreads", resourceManager.getCapacity(ResourceManager.Resource.INFERENCE),
+                "resources", globalMetrics.getResources(),
                 "queueStatistics", Map.of(
                     "pendingCount", queueStats.getPendingCount(),
                     "processingCount", queueStats.getProcessingCount(),
@@ -441,9 +807,4 @@ public class DocumentController {
                 .body(Map.of("error", "Внутренняя ошибка сервера: " + e.getMessage()));
         }
     }
-
-    private int calculateUsedThreads(long processingCount) {
-        // Упрощенная оценка: в среднем каждый файл использует 2 потока
-        return (int) (processingCount * 2);
-    }
 } 
\ No newline at end of file
@@ -10,6 +10,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.Map;
+import java.util.Optional;
 
 @RestController
 // Префикс /api добавляется автоматически через context-path в application.yml
@@ -49,21 +50,14 @@ public class SubscriptionController {
 
             // Здесь должна быть логика валидации planId и возможно интеграция с платежной системой
             // Для примера, просто добавляем поинты в зависимости от плана
-            int pointsToAdd;
-            switch (planId) {
-                case "plan_1":
-                    pointsToAdd = 100;
-                    break;
-                case "plan_2":
-                    pointsToAdd = 500;
-                    break;
-                case "plan_3":
-                    pointsToAdd = 1000;
-                    break;
-                default:
-                    return ResponseEntity.badRequest().body(Map.of("error", "Неизвестный план подписки"));
+            Optional<User.SubscriptionPlan> plan = User.SubscriptionPlan.fromPlanId(planId);
+            if (plan.isEmpty()) {
+                return ResponseEntity.badRequest().body(Map.of("error", "Неизвестный план подписки"));
             }
+            int pointsToAdd = plan.get().getPoints();
 
+            // План сохраняется вместе с поинтами; новый вес в очереди действует со следующей загрузки
+            user.setSubscriptionPlan(plan.get());
             User updatedUser = userService.addPoints(user, pointsToAdd);
 
             log.info("Пользователь {} приобрел {} баллов по плану {}", user.getEmail(), pointsToAdd, planId);
@@ -0,0 +1,202 @@
+package com.practical.work.controller;
+
+import com.practical.work.dto.DocumentUploadResponse;
+import com.practical.work.dto.UploadSessionResponse;
+import com.practical.work.entity.UploadSession;
+import com.practical.work.exception.UploadOffsetConflictException;
+import com.practical.work.model.User;
+import com.practical.work.service.AuthService;
+import com.practical.work.service.UploadSessionService;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Возобновляемая загрузка: создание сессии, передача частей со смещением,
+ * запрос принятого смещения после обрыва и завершение загрузки
+ */
+@RestController
+// Префикс /api добавляется автоматически через context-path в application.yml
+@RequestMapping("/upload/sessions")
+@CrossOrigin(origins = "*")
+@Slf4j
+public class UploadSessionController {
+
+    @Autowired
+    private UploadSessionService uploadSessionService;
+
+    @Autowired
+    private AuthService authService;
+
+    @PostMapping
+    public ResponseEntity<?> createSession(
+            @RequestBody Map<String, Object> payload,
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        try {
+            // Проверка авторизации
+            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Токен авторизации обязателен"));
+            }
+
+            String token = authHeader.substring(7);
+            User user = authService.getUserFromToken(token);
+            if (user == null) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("error", "Пользователь не найден"));
+            }
+
+            Object fileName = payload.get("fileName");
+            Object totalSize = payload.get("totalSize");
+            if (fileName == null || !(totalSize instanceof Number)) {
+                return ResponseEntity.badRequest().body(Map.of("error", "fileName и totalSize обязательны"));
+            }
+
+            Object previousFileId = payload.get("previousFileId");
+            UploadSession session = uploadSessionService.createSession(user, fileName.toString(),
+                ((Number) totalSize).longValue(), previousFileId != null ? previousFileId.toString() : null);
+
+            return ResponseEntity.status(HttpStatus.CREATED).body(toResponse(session));
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Ошибка создания сессии загрузки", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", "Внутренняя ошибка сервера: " + e.getMessage()));
+        }
+    }
+
+    @PutMapping(value = "/{sessionId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> uploadChunk(
+            @PathVariable String sessionId,
+            @RequestParam("offset") long offset,
+            @RequestHeader(value = "X-Chunk-Checksum", required = false) String checksum,
+            HttpServletRequest request,
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        try {
+            ResponseEntity<?> accessError = checkAccess(sessionId, authHeader);
+            if (accessError != null) {
+                return accessError;
+            }
+
+            UploadSession session;
+            try (InputStream body = request.getInputStream()) {
+                session = uploadSessionService.appendChunk(sessionId, offset, body, checksum);
+            }
+            return ResponseEntity.ok(toResponse(session));
+
+        } catch (UploadOffsetConflictException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                .body(Map.of("error", e.getMessage(), "committedOffset", e.getCommittedOffset()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Ошибка приема части файла для сессии {}", sessionId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", "Ошибка приема части файла: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/{sessionId}")
+    public ResponseEntity<?> getSession(
+            @PathVariable String sessionId,
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        try {
+            ResponseEntity<?> accessError = checkAccess(sessionId, authHeader);
+            if (accessError != null) {
+                return accessError;
+            }
+
+            return uploadSessionService.getSession(sessionId)
+                .<ResponseEntity<?>>map(session -> ResponseEntity.ok(toResponse(session)))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+
+        } catch (Exception e) {
+            log.error("Ошибка получения сессии загрузки {}", sessionId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", "Внутренняя ошибка сервера: " + e.getMessage()));
+        }
+    }
+
+    @PostMapping("/{sessionId}/complete")
+    public ResponseEntity<?> completeSession(
+            @PathVariable String sessionId,
+            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        try {
+            ResponseEntity<?> accessError = checkAccess(sessionId, authHeader);
+            if (accessError != null) {
+                return accessError;
+            }
+
+            User user = authService.getUserFromToken(authHeader.substring(7));
+            DocumentUploadResponse response = uploadSessionService.complete(sessionId, user);
+
+            if (response.isSuccess()) {
+                return ResponseEntity.ok(response);
+            } else {
+                return ResponseEntity.badRequest().body(response);
+            }
+
+        } catch (UploadOffsetConflictException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                .body(Map.of("error", e.getMessage(), "committedOffset", e.getCommittedOffset()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", e.getMessage()));
+        } catch (Exception e) {
+            log.error("Ошибка завершения сессии загрузки {}", sessionId, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body(Map.of("error", "Внутренняя ошибка сервера: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Проверка токена и того, что сессия принадлежит пользователю; null, если доступ разрешен
+     */
+    private ResponseEntity<?> checkAccess(String sessionId, String authHeader) {
+        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                .body(Map.of("error", "Токен авторизации обязателен"));
+        }
+
+        User user = authService.getUserFromToken(authHeader.substring(7));
+        if (user == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                .body(Map.of("error", "Пользователь не найден"));
+        }
+
+        Optional<UploadSession> session = uploadSessionService.getSession(sessionId);
+        if (session.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .body(Map.of("error", "Сессия загрузки не найдена"));
+        }
+        if (!session.get().getUser().getId().equals(user.getId())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                .body(Map.of("error", "Доступ запрещен"));
+        }
+        return null;
+    }
+
+    private UploadSessionResponse toResponse(UploadSession session) {
+        return UploadSessionResponse.builder()
+            .sessionId(session.getSessionId())
+            .fileName(session.getOriginalFilename())
+            .totalSize(session.getTotalSize())
+            .committedOffset(session.getCommittedOffset())
+            .status(session.getStatus().name().toLowerCase())
+            .fileId(session.getFileId())
+            .build();
+    }
+}
@@ -0,0 +1,27 @@
+package com.practical.work.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+
+import java.util.Map;
+
+/**
+ * Результат загрузки пакета документов одним архивом
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BatchUploadResponse {
+
+    private boolean success;
+    private String batchId;
+    private String message;
+    private int acceptedCount;
+    private int queuedCount;
+    private int cachedCount;
+    // Отклоненные записи архива: имя файла -> причина
+    private Map<String, String> rejectedFiles;
+}
@@ -0,0 +1,62 @@
+package com.practical.work.dto;
+
+import lombok.Getter;
+
+/**
+ * Результат классификации абзаца: тип и уровень заголовка.
+ * Вычисляется один раз на абзац и передается всем этапам обработки
+ */
+@Getter
+public final class ParagraphClassification {
+
+    public static final ParagraphClassification EMPTY = new ParagraphClassification(ParagraphType.EMPTY, 0);
+    public static final ParagraphClassification PARAGRAPH = new ParagraphClassification(ParagraphType.PARAGRAPH, 0);
+    public static final ParagraphClassification NUMBERED_LIST = new ParagraphClassification(ParagraphType.NUMBERED_LIST, 0);
+    public static final ParagraphClassification BULLET_LIST = new ParagraphClassification(ParagraphType.BULLET_LIST, 0);
+
+    private static final int MAX_HEADING_LEVEL = 9;
+    private static final ParagraphClassification[] HEADINGS = new ParagraphClassification[MAX_HEADING_LEVEL + 1];
+
+    static {
+        for (int level = 1; level <= MAX_HEADING_LEVEL; level++) {
+            HEADINGS[level] = new ParagraphClassification(ParagraphType.HEADING, level);
+        }
+    }
+
+    private final ParagraphType type;
+    private final int headingLevel;
+
+    private ParagraphClassification(ParagraphType type, int headingLevel) {
+        this.type = type;
+        this.headingLevel = headingLevel;
+    }
+
+    public static ParagraphClassification heading(int level) {
+        return HEADINGS[Math.max(1, Math.min(MAX_HEADING_LEVEL, level))];
+    }
+
+    public boolean isEmpty() {
+        return type == ParagraphType.EMPTY;
+    }
+
+    public boolean isHeading() {
+        return type == ParagraphType.HEADING;
+    }
+
+    public boolean isListItem() {
+        return type == ParagraphType.NUMBERED_LIST || type == ParagraphType.BULLET_LIST;
+    }
+
+    @Override
+    public String toString() {
+        return isHeading() ? "heading" + headingLevel : type.name().toLowerCase();
+    }
+
+    public enum ParagraphType {
+        EMPTY,          // Пустой абзац
+        HEADING,        // Заголовок (по стилю или содержимому)
+        NUMBERED_LIST,  // Нумерованный список: 1., 2), а), i)
+        BULLET_LIST,    // Маркированный список: •, -, *
+        PARAGRAPH       // Обычный абзац
+    }
+}
@@ -0,0 +1,24 @@
+package com.practical.work.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+
+import java.util.Map;
+
+/**
+ * Результаты форматирования абзацев обработанного документа,
+ * сохраняемые рядом с результатом для повторного использования в следующих версиях
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ParagraphResultsSnapshot {
+
+    private String pipelineVersion;
+
+    // Ключ абзаца (хэш текста и типа) -> результат форматирования
+    private Map<String, FormattingResult> results;
+}
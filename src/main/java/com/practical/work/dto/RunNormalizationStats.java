@@ -0,0 +1,20 @@
+package com.practical.work.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+
+/**
+ * Результат нормализации фрагментов (runs) документа
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class RunNormalizationStats {
+
+    private int runsBefore;
+    private int runsAfter;
+    private int proofingMarksRemoved;
+}
@@ -14,4 +14,5 @@ public class TextChunk {
     private int index;
     private String text;
     private String paragraphId; // Для связи с оригинальным абзацем
+    private ParagraphClassification classification; // Тип абзаца, определенный при разбиении
 } 
\ No newline at end of file
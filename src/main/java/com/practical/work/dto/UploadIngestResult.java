@@ -0,0 +1,22 @@
+package com.practical.work.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+
+/**
+ * Результат приема загружаемого файла: размер, SHA-256 содержимого, число абзацев
+ * и путь файла в хранилище
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UploadIngestResult {
+
+    private long size;
+    private String contentHash;
+    private int paragraphCount;
+    private String filePath;
+}
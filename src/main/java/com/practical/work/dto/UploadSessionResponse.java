@@ -0,0 +1,23 @@
+package com.practical.work.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+
+/**
+ * Состояние сессии возобновляемой загрузки
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UploadSessionResponse {
+
+    private String sessionId;
+    private String fileName;
+    private long totalSize;
+    private long committedOffset;
+    private String status;
+    private String fileId;
+}
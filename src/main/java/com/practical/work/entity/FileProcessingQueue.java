@@ -10,7 +10,14 @@ import java.time.LocalDateTime;
 import com.practical.work.model.User;
 
 @Entity
-@Table(name = "file_processing_queue")
+@Table(name = "file_processing_queue", indexes = {
+    // Захват следующей записи: status + priority, внутри - по id
+    @Index(name = "idx_file_queue_claim", columnList = "status, priority, id"),
+    // Захват следующей записи пользователя при справедливой очереди
+    @Index(name = "idx_file_queue_user_claim", columnList = "user_id, status, priority, id"),
+    // Пользователи с ожидающими файлами и число их файлов (веса и позиции справедливой очереди)
+    @Index(name = "idx_file_queue_status_user", columnList = "status, user_id")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -60,6 +67,18 @@ public class FileProcessingQueue {
     @Column(name = "error_message")
     private String errorMessage;
 
+    // Узел, обрабатывающий файл, и срок его аренды: узел продлевает аренду, пока обработка идет,
+    // а запись с истекшей арендой возвращается в очередь
+    @Column(name = "lease_owner", length = 64)
+    private String leaseOwner;
+
+    @Column(name = "lease_expires_at")
+    private LocalDateTime leaseExpiresAt;
+
+    // Пакет загрузки, к которому относится файл
+    @Column(name = "batch_id", length = 36)
+    private String batchId;
+
     public enum QueueStatus {
         PENDING,     // В очереди, ожидает обработки
         PROCESSING,  // Обрабатывается
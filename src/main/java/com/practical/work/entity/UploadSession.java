@@ -0,0 +1,95 @@
+package com.practical.work.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+
+import java.time.LocalDateTime;
+import com.practical.work.model.User;
+
+/**
+ * Сессия возобновляемой загрузки: файл передается частями,
+ * committedOffset - количество байтов, уже надежно записанных на диск
+ */
+@Entity
+@Table(name = "upload_sessions", indexes = {
+    @Index(name = "idx_upload_sessions_status_updated", columnList = "status, updated_at")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UploadSession {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "session_id", nullable = false, unique = true)
+    private String sessionId;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id", nullable = false)
+    private User user;
+
+    @Column(name = "original_filename", nullable = false)
+    private String originalFilename;
+
+    @Column(name = "previous_file_id")
+    private String previousFileId;
+
+    @Column(name = "part_file_path", nullable = false)
+    private String partFilePath;
+
+    @Column(name = "total_size", nullable = false)
+    private Long totalSize;
+
+    @Column(name = "committed_offset", nullable = false)
+    private Long committedOffset;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false)
+    private SessionStatus status;
+
+    // Последняя начатая попытка передачи части: часть, переданная более ранней попыткой
+    // (например, зависшим после обрыва соединением), не фиксируется
+    @Column(name = "upload_token")
+    private String uploadToken;
+
+    // Документ, зарегистрированный после завершения загрузки
+    @Column(name = "file_id")
+    private String fileId;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    public enum SessionStatus {
+        ACTIVE,      // Прием частей
+        COMPLETING,  // Файл собран и проверяется, части больше не принимаются
+        COMPLETED,   // Файл собран и передан в очередь
+        FAILED,      // Собранный файл не прошел проверку
+        EXPIRED      // Сессия не завершена вовремя, части удалены
+    }
+
+    @PrePersist
+    public void prePersist() {
+        LocalDateTime now = LocalDateTime.now();
+        if (createdAt == null) {
+            createdAt = now;
+        }
+        if (updatedAt == null) {
+            updatedAt = now;
+        }
+        if (status == null) {
+            status = SessionStatus.ACTIVE;
+        }
+        if (committedOffset == null) {
+            committedOffset = 0L;
+        }
+    }
+}
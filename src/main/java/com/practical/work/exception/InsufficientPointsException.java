@@ -0,0 +1,11 @@
+package com.practical.work.exception;
+
+/**
+ * У пользователя не хватает поинтов на обработку всех документов пакета
+ */
+public class InsufficientPointsException extends RuntimeException {
+
+    public InsufficientPointsException(String message) {
+        super(message);
+    }
+}
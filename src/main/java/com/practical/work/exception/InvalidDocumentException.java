@@ -0,0 +1,17 @@
+package com.practical.work.exception;
+
+import java.io.IOException;
+
+/**
+ * Загруженный файл не является корректным DOCX документом
+ */
+public class InvalidDocumentException extends IOException {
+
+    public InvalidDocumentException(String message) {
+        super(message);
+    }
+
+    public InvalidDocumentException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,18 @@
+package com.practical.work.exception;
+
+/**
+ * Смещение части не совпадает с уже принятым объемом сессии загрузки
+ */
+public class UploadOffsetConflictException extends RuntimeException {
+
+    private final long committedOffset;
+
+    public UploadOffsetConflictException(String message, long committedOffset) {
+        super(message);
+        this.committedOffset = committedOffset;
+    }
+
+    public long getCommittedOffset() {
+        return committedOffset;
+    }
+}
@@ -9,7 +9,12 @@ import lombok.Builder;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "processed_documents")
+@Table(name = "processed_documents", indexes = {
+    @Index(name = "idx_processed_documents_content_hash", columnList = "content_hash, pipeline_version, status"),
+    @Index(name = "idx_processed_documents_batch", columnList = "batch_id"),
+    @Index(name = "idx_processed_documents_original_path", columnList = "original_file_path"),
+    @Index(name = "idx_processed_documents_processed_path", columnList = "processed_file_path")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -37,9 +42,29 @@ public class ProcessedDocument {
     
     @Column(name = "processed_size")
     private Long processedSize;
+
+    // SHA-256 результата обработки, используется как ETag при скачивании
+    @Column(name = "processed_hash", length = 64)
+    private String processedHash;
     
     @Column(name = "estimated_chunks")
     private Integer estimatedChunks;
+
+    // SHA-256 исходного файла для поиска уже обработанных копий
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    // Версия конвейера, которой получен результат (см. PipelineVersionService)
+    @Column(name = "pipeline_version", length = 100)
+    private String pipelineVersion;
+
+    // Предыдущая версия этого же документа: ее результаты используются для неизмененных абзацев
+    @Column(name = "previous_file_id")
+    private String previousFileId;
+
+    // Пакет, в составе которого загружен документ (архив с несколькими документами)
+    @Column(name = "batch_id", length = 36)
+    private String batchId;
     
     @Enumerated(EnumType.STRING)
     @Column(nullable = false)
@@ -51,6 +76,14 @@ public class ProcessedDocument {
     @Column(name = "processing_completed_at")
     private LocalDateTime processingCompletedAt;
     
+    // Последнее скачивание результата; по нему RetentionService переносит файлы в архив и удаляет
+    @Column(name = "last_accessed_at")
+    private LocalDateTime lastAccessedAt;
+
+    // Момент переноса файлов документа в холодный архив (null - файлы в основном хранилище)
+    @Column(name = "archived_at")
+    private LocalDateTime archivedAt;
+    
     @Column(name = "error_message", columnDefinition = "TEXT")
     private String errorMessage;
     
@@ -79,6 +112,7 @@ public class ProcessedDocument {
         UPLOADED,
         PROCESSING,
         COMPLETED,
-        FAILED
+        FAILED,
+        EXPIRED     // Срок хранения истек, файлы удалены
     }
 } 
\ No newline at end of file
@@ -8,6 +8,7 @@ import lombok.Builder;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 import jakarta.validation.constraints.Email;
 
 @Entity
@@ -42,6 +43,11 @@ public class User {
 
     @Column(nullable = false)
     private Integer points = 0;
+
+    // Последний приобретенный план подписки; определяет долю пользователя в очереди обработки
+    @Enumerated(EnumType.STRING)
+    @Column(name = "subscription_plan", length = 16)
+    private SubscriptionPlan subscriptionPlan;
     
     @Column(name = "is_active")
     private Boolean isActive = true;
@@ -80,4 +86,49 @@ public class User {
         return value;
     }
 }
+
+    /**
+     * Планы подписки: поинты при покупке и вес пользователя в справедливой очереди обработки.
+     * Пользователь с весом 2 получает вдвое больше ходов очереди, чем пользователь без подписки (вес 1)
+     */
+    public enum SubscriptionPlan {
+        PLAN_1("plan_1", 100, 2),
+        PLAN_2("plan_2", 500, 3),
+        PLAN_3("plan_3", 1000, 4);
+
+        private final String planId;
+        private final int points;
+        private final int queueWeight;
+
+        SubscriptionPlan(String planId, int points, int queueWeight) {
+            this.planId = planId;
+            this.points = points;
+            this.queueWeight = queueWeight;
+        }
+
+        public String getPlanId() {
+            return planId;
+        }
+
+        public int getPoints() {
+            return points;
+        }
+
+        public int getQueueWeight() {
+            return queueWeight;
+        }
+
+        public static Optional<SubscriptionPlan> fromPlanId(String planId) {
+            for (SubscriptionPlan plan : values()) {
+                if (plan.planId.equals(planId)) {
+                    return Optional.of(plan);
+                }
+            }
+            return Optional.empty();
+        }
+
+        public static int queueWeightOf(SubscriptionPlan plan) {
+            return plan != null ? plan.queueWeight : 1;
+        }
+    }
 }
\ No newline at end of file
@@ -10,6 +10,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -22,14 +23,34 @@ public interface FileProcessingQueueRepository extends JpaRepository<FileProcess
     // Получить все файлы в определенном статусе
     List<FileProcessingQueue> findByStatusOrderByCreatedAtAsc(QueueStatus status);
 
-    // Получить следующий файл для обработки с учетом приоритета
-    @Query("SELECT q FROM FileProcessingQueue q WHERE q.status = :status " +
-           "ORDER BY q.priority DESC, q.createdAt ASC")
-    List<FileProcessingQueue> findNextForProcessing(@Param("status") QueueStatus status);
-
     // Получить количество файлов в очереди по статусу
     long countByStatus(QueueStatus status);
 
+    // Позиция в общем порядке (режим distributed): ожидающие записи более приоритетных групп
+    // и записи того же приоритета, поставленные раньше; оба подсчета идут по idx_file_queue_claim
+    long countByStatusAndPriorityIn(QueueStatus status, Collection<Priority> priorities);
+
+    long countByStatusAndPriorityAndIdLessThan(QueueStatus status, Priority priority, Long id);
+
+    // То же среди записей одного пользователя (idx_file_queue_user_claim)
+    long countByUserIdAndStatusAndPriorityIn(Long userId, QueueStatus status, Collection<Priority> priorities);
+
+    long countByUserIdAndStatusAndPriorityAndIdLessThan(Long userId, QueueStatus status, Priority priority, Long id);
+
+    // Число записей в статусе по пользователям вместе с планом подписки (веса справедливой очереди);
+    // записи группируются по индексу (status, user_id), план читается по одной строке users на пользователя
+    @Query("SELECT u.id, u.subscriptionPlan, COUNT(q) FROM FileProcessingQueue q JOIN q.user u " +
+           "WHERE q.status = :status GROUP BY u.id, u.subscriptionPlan")
+    List<Object[]> countByStatusGroupByUser(@Param("status") QueueStatus status);
+
+    // Число и сумма идентификаторов записей в статусе: сверка индекса очереди с таблицей по содержимому
+    @Query("SELECT COUNT(q), COALESCE(SUM(q.id), 0) FROM FileProcessingQueue q WHERE q.status = :status")
+    List<Object[]> summarizeIdsByStatus(@Param("status") QueueStatus status);
+
+    // Идентификаторы записей в статусе без чтения самих строк
+    @Query("SELECT q.id FROM FileProcessingQueue q WHERE q.status = :status")
+    List<Long> findIdsByStatus(@Param("status") QueueStatus status);
+
     // Получить количество активных обработок
     @Query("SELECT COUNT(q) FROM FileProcessingQueue q WHERE q.status = :status")
     long countActiveProcessing(@Param("status") QueueStatus status);
@@ -38,13 +59,47 @@ public interface FileProcessingQueueRepository extends JpaRepository<FileProcess
     List<FileProcessingQueue> findByUserIdAndStatusInOrderByCreatedAtDesc(
         Long userId, List<QueueStatus> statuses);
 
-    // Получить файлы, которые обрабатываются дольше определенного времени (для мониторинга зависших)
+    // Получить файлы, аренда которых истекла к timeThreshold (узел остановился или завис).
+    // Записи без аренды, взятые до ее появления, считаются по времени начала обработки
     @Query("SELECT q FROM FileProcessingQueue q WHERE q.status = :status " +
-           "AND q.startedAt < :timeThreshold")
+           "AND COALESCE(q.leaseExpiresAt, q.startedAt) < :timeThreshold")
     List<FileProcessingQueue> findStuckProcessing(
         @Param("status") QueueStatus status, 
         @Param("timeThreshold") LocalDateTime timeThreshold);
 
+    // Захват старейшей ожидающей записи приоритета. Строки, заблокированные другими узлами,
+    // пропускаются, поэтому узлы не ждут друг друга и не берут одну запись дважды (MySQL 8+)
+    @Query(value = "SELECT * FROM file_processing_queue WHERE status = 'PENDING' AND priority = :priority " +
+                   "ORDER BY id LIMIT 1 FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    Optional<FileProcessingQueue> lockNextPending(@Param("priority") String priority);
+
+    // Захват следующей ожидающей записи пользователя: сначала более приоритетные, затем старейшие
+    @Query(value = "SELECT * FROM file_processing_queue WHERE status = 'PENDING' AND user_id = :userId " +
+                   "ORDER BY FIELD(priority, 'HIGH', 'NORMAL', 'LOW'), id LIMIT 1 FOR UPDATE SKIP LOCKED",
+           nativeQuery = true)
+    Optional<FileProcessingQueue> lockNextPendingForUser(@Param("userId") Long userId);
+
+    // Продление аренды файлов, которые обрабатывает узел
+    @Modifying
+    @Query("UPDATE FileProcessingQueue q SET q.leaseExpiresAt = :expiresAt " +
+           "WHERE q.leaseOwner = :owner AND q.status = :status AND q.fileId IN :fileIds")
+    int renewLeases(
+        @Param("owner") String owner,
+        @Param("status") QueueStatus status,
+        @Param("fileIds") Collection<String> fileIds,
+        @Param("expiresAt") LocalDateTime expiresAt);
+
+    // Возврат записи с истекшей арендой в очередь; 0, если ее уже вернул другой узел или аренда продлена
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE FileProcessingQueue q SET q.status = :pending, q.leaseOwner = NULL, q.leaseExpiresAt = NULL, " +
+           "q.startedAt = NULL, q.retryCount = q.retryCount + 1 " +
+           "WHERE q.id = :id AND q.status = :processing AND COALESCE(q.leaseExpiresAt, q.startedAt) < :now")
+    int reclaimExpiredLease(
+        @Param("id") Long id,
+        @Param("pending") QueueStatus pending,
+        @Param("processing") QueueStatus processing,
+        @Param("now") LocalDateTime now);
+
     // Очистить старые завершенные/ошибочные записи
     @Modifying
     @Query("DELETE FROM FileProcessingQueue q WHERE q.status IN :statuses " +
@@ -2,9 +2,14 @@ package com.practical.work.repository;
 
 import com.practical.work.model.ProcessedDocument;
 import com.practical.work.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -16,4 +21,44 @@ public interface ProcessedDocumentRepository extends JpaRepository<ProcessedDocu
     List<ProcessedDocument> findByUserOrderByCreatedAtDesc(User user);
     
     List<ProcessedDocument> findByStatus(ProcessedDocument.ProcessingStatus status);
+
+    Optional<ProcessedDocument> findFirstByContentHashAndPipelineVersionAndStatusOrderByProcessingCompletedAtDesc(
+        String contentHash, String pipelineVersion, ProcessedDocument.ProcessingStatus status);
+
+    // Готовые результаты для набора отпечатков (регистрация пакета одним запросом)
+    List<ProcessedDocument> findByContentHashInAndPipelineVersionAndStatus(
+        Collection<String> contentHashes, String pipelineVersion, ProcessedDocument.ProcessingStatus status);
+
+    // Документы пользователя из списка: проверка владельца одним запросом
+    List<ProcessedDocument> findByUserIdAndFileIdIn(Long userId, Collection<String> fileIds);
+
+    List<ProcessedDocument> findByUserIdAndStatusAndProcessingCompletedAtAfterOrderByProcessingCompletedAtAsc(
+        Long userId, ProcessedDocument.ProcessingStatus status, LocalDateTime completedAfter);
+
+    // Исходные файлы хранятся по отпечатку: есть ли документы, ссылающиеся на файл
+    boolean existsByContentHash(String contentHash);
+
+    // Документы пакета в порядке постановки в очередь
+    List<ProcessedDocument> findByBatchIdAndUserIdOrderByIdAsc(String batchId, Long userId);
+
+    // Документы без обращений с момента cutoff, файлы которых еще в основном хранилище
+    @Query("SELECT d FROM ProcessedDocument d WHERE d.status IN :statuses AND d.archivedAt IS NULL " +
+           "AND COALESCE(d.lastAccessedAt, d.createdAt) < :cutoff AND d.id > :afterId ORDER BY d.id ASC")
+    List<ProcessedDocument> findArchiveCandidates(@Param("statuses") Collection<ProcessedDocument.ProcessingStatus> statuses,
+                                                  @Param("cutoff") LocalDateTime cutoff,
+                                                  @Param("afterId") Long afterId,
+                                                  Pageable pageable);
+
+    // Документы без обращений с момента cutoff, подлежащие удалению
+    @Query("SELECT d FROM ProcessedDocument d WHERE d.status IN :statuses " +
+           "AND COALESCE(d.lastAccessedAt, d.createdAt) < :cutoff AND d.id > :afterId ORDER BY d.id ASC")
+    List<ProcessedDocument> findPurgeCandidates(@Param("statuses") Collection<ProcessedDocument.ProcessingStatus> statuses,
+                                                @Param("cutoff") LocalDateTime cutoff,
+                                                @Param("afterId") Long afterId,
+                                                Pageable pageable);
+
+    // Одинаковые файлы общие для нескольких документов: удаляются, когда ссылок не осталось
+    long countByOriginalFilePathAndStatusNot(String originalFilePath, ProcessedDocument.ProcessingStatus status);
+
+    long countByProcessedFilePathAndStatusNot(String processedFilePath, ProcessedDocument.ProcessingStatus status);
 } 
\ No newline at end of file
@@ -0,0 +1,70 @@
+package com.practical.work.repository;
+
+import com.practical.work.entity.UploadSession;
+import com.practical.work.entity.UploadSession.SessionStatus;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, Long> {
+
+    // Найти сессию загрузки по публичному идентификатору
+    Optional<UploadSession> findBySessionId(String sessionId);
+
+    // Блокировка строки сессии до конца короткой транзакции фиксации части (SELECT ... FOR UPDATE):
+    // дозапись части в файл сессии и новое смещение видны всем узлам одновременно
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM UploadSession s WHERE s.sessionId = :sessionId")
+    Optional<UploadSession> lockBySessionId(@Param("sessionId") String sessionId);
+
+    // Начало передачи части со смещения offset: попытка запоминается как последняя; 0, если сессия
+    // не активна или смещение не совпадает с принятым объемом
+    @Transactional
+    @Modifying
+    @Query("UPDATE UploadSession s SET s.uploadToken = :token, s.updatedAt = :now " +
+           "WHERE s.sessionId = :sessionId AND s.status = :active AND s.committedOffset = :offset")
+    int claimForUpload(
+        @Param("sessionId") String sessionId,
+        @Param("token") String token,
+        @Param("offset") Long offset,
+        @Param("active") SessionStatus active,
+        @Param("now") LocalDateTime now);
+
+    // Перевод полностью принятой сессии в статус завершения до переноса файла; 0, если сессия
+    // не активна или принята не полностью
+    @Transactional
+    @Modifying
+    @Query("UPDATE UploadSession s SET s.status = :completing, s.uploadToken = NULL, s.updatedAt = :now " +
+           "WHERE s.sessionId = :sessionId AND s.status = :active AND s.committedOffset = s.totalSize")
+    int startCompleting(
+        @Param("sessionId") String sessionId,
+        @Param("active") SessionStatus active,
+        @Param("completing") SessionStatus completing,
+        @Param("now") LocalDateTime now);
+
+    // Перевод брошенной сессии в статус EXPIRED; 0, если за это время сессия получила часть или сменила статус
+    @Transactional
+    @Modifying
+    @Query("UPDATE UploadSession s SET s.status = :expired, s.updatedAt = :now " +
+           "WHERE s.id = :id AND s.status = :status AND s.updatedAt < :threshold")
+    int expireIfIdle(
+        @Param("id") Long id,
+        @Param("status") SessionStatus status,
+        @Param("expired") SessionStatus expired,
+        @Param("threshold") LocalDateTime threshold,
+        @Param("now") LocalDateTime now);
+
+    // Сессии, которые не обновлялись с указанного момента (для очистки брошенных загрузок)
+    List<UploadSession> findByStatusInAndUpdatedAtBefore(Collection<SessionStatus> statuses, LocalDateTime threshold);
+}
@@ -0,0 +1,25 @@
+package com.practical.work.service;
+
+import com.practical.work.dto.ParagraphClassification;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+
+/**
+ * Правило академического форматирования абзаца.
+ * Все правила применяются к абзацу за один проход по документу в порядке @Order,
+ * поэтому новое требование стандарта добавляется отдельным правилом без нового прохода
+ */
+public interface AcademicFormattingRule {
+
+    /**
+     * Применимо ли правило к абзацу
+     *
+     * @param classification классификация абзаца
+     * @param inTable        абзац находится в ячейке таблицы
+     */
+    boolean supports(ParagraphClassification classification, boolean inTable);
+
+    /**
+     * Применение правила к абзацу
+     */
+    void apply(XWPFParagraph paragraph, ParagraphClassification classification);
+}
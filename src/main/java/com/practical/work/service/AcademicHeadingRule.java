@@ -0,0 +1,33 @@
+package com.practical.work.service;
+
+import com.practical.work.dto.ParagraphClassification;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTPPr;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Заголовки основного текста оформляются стилями Heading1-3:
+ * без красной строки, отступы до и после, жирный шрифт для 1-2 уровня
+ */
+@Component
+@Order(200)
+public class AcademicHeadingRule implements AcademicFormattingRule {
+
+    @Override
+    public boolean supports(ParagraphClassification classification, boolean inTable) {
+        // Строки таблиц заголовками документа не считаются
+        return !inTable && classification.isHeading();
+    }
+
+    @Override
+    public void apply(XWPFParagraph paragraph, ParagraphClassification classification) {
+        paragraph.setStyle(AcademicStyles.headingStyleId(classification.getHeadingLevel()));
+
+        // Отступы задает стиль заголовка
+        CTPPr pPr = paragraph.getCTP().getPPr();
+        if (pPr.isSetInd()) {
+            pPr.unsetInd();
+        }
+    }
+}
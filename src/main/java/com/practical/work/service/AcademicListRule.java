@@ -0,0 +1,35 @@
+package com.practical.work.service;
+
+import com.practical.work.dto.ParagraphClassification;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTPPr;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Элементы нумерованных и маркированных списков основного текста
+ * оформляются стилем List Paragraph (по ширине, висячий отступ)
+ */
+@Component
+@Order(300)
+public class AcademicListRule implements AcademicFormattingRule {
+
+    @Override
+    public boolean supports(ParagraphClassification classification, boolean inTable) {
+        return !inTable && classification.isListItem();
+    }
+
+    @Override
+    public void apply(XWPFParagraph paragraph, ParagraphClassification classification) {
+        paragraph.setStyle(AcademicStyles.LIST);
+
+        // Выравнивание и отступы списка задает стиль
+        CTPPr pPr = paragraph.getCTP().getPPr();
+        if (pPr.isSetInd()) {
+            pPr.unsetInd();
+        }
+        if (pPr.isSetJc()) {
+            pPr.unsetJc();
+        }
+    }
+}
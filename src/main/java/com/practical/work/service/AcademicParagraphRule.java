@@ -0,0 +1,177 @@
+package com.practical.work.service;
+
+import com.practical.work.dto.ParagraphClassification;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.poi.xwpf.usermodel.XWPFStyle;
+import org.apache.poi.xwpf.usermodel.XWPFStyles;
+import org.apache.xmlbeans.XmlCursor;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTFonts;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTPPr;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTRPr;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Базовое форматирование любого абзаца, включая абзацы в таблицах.
+ * Абзац основного текста, заголовка или списка получает стиль Normal, а прямые свойства, которые
+ * задает стиль (интервалы, отступы, шрифт, цвет, подчеркивание), удаляются из абзаца и фрагментов.
+ * Абзацы со своими стилями (название рисунка, оглавление, титул) сохраняют стиль и отступы.
+ * Шрифт фрагментов символьных шрифтов (Symbol, Wingdings) сохраняется - без него символ
+ * отображается другим знаком. Выравнивание, размер, жирный и курсив от AI сохраняются
+ */
+@Component
+@Order(100)
+public class AcademicParagraphRule implements AcademicFormattingRule {
+
+    // Шрифты, в которых коды символов означают значки, а не буквы
+    private static final List<String> SYMBOL_FONTS = List.of(
+        "symbol", "wingdings", "webdings", "marlett", "mt extra", "zapf dingbats");
+
+    // Символы символьных шрифтов Word хранит в области U+F020-U+F0FF
+    private static final char SYMBOL_CHAR_FIRST = '\uF020';
+    private static final char SYMBOL_CHAR_LAST = '\uF0FF';
+
+    @Override
+    public boolean supports(ParagraphClassification classification, boolean inTable) {
+        return true;
+    }
+
+    @Override
+    public void apply(XWPFParagraph paragraph, ParagraphClassification classification) {
+        if (isResettableStyle(paragraph)) {
+            paragraph.setStyle(AcademicStyles.NORMAL);
+
+            // Интервал 1.5 и отступы берутся из стиля
+            CTPPr pPr = paragraph.getCTP().getPPr();
+            if (pPr.isSetSpacing()) {
+                pPr.unsetSpacing();
+            }
+            if (pPr.isSetInd()) {
+                pPr.unsetInd();
+            }
+        }
+
+        // Без красной строки для заголовков и списков (в основном тексте ее убирает их стиль)
+        if (classification.isHeading() || classification.isListItem()) {
+            paragraph.setIndentationFirstLine(0);
+        }
+
+        for (XWPFRun run : paragraph.getRuns()) {
+            clearDirectRunProperties(run);
+        }
+    }
+
+    /**
+     * Стиль заменяется на Normal, только если он не задан или это основной текст, заголовок или список.
+     * Встроенные стили сравниваются по имени (Word хранит его по-английски), а не по идентификатору,
+     * который в локализованных документах отличается
+     */
+    private boolean isResettableStyle(XWPFParagraph paragraph) {
+        String styleId = paragraph.getStyleID();
+        if (styleId == null || styleId.isBlank()) {
+            return true;
+        }
+
+        String name = styleId;
+        XWPFStyles styles = paragraph.getDocument().getStyles();
+        XWPFStyle style = styles != null ? styles.getStyle(styleId) : null;
+        if (style != null && style.getName() != null) {
+            name = style.getName();
+        }
+
+        String normalized = name.toLowerCase(Locale.ROOT).replace(" ", "");
+        return normalized.equals("normal")
+            || normalized.startsWith("heading")
+            || normalized.startsWith("list");
+    }
+
+    private void clearDirectRunProperties(XWPFRun run) {
+        CTRPr rPr = run.getCTR().getRPr();
+        if (rPr == null) {
+            return;
+        }
+
+        // Шрифт и цвет задаются стилем, подчеркивание в академическом тексте не используется
+        if (!isSymbolRun(run, rPr)) {
+            while (rPr.sizeOfRFontsArray() > 0) {
+                rPr.removeRFonts(0);
+            }
+        }
+        while (rPr.sizeOfColorArray() > 0) {
+            rPr.removeColor(0);
+        }
+        while (rPr.sizeOfUArray() > 0) {
+            rPr.removeU(0);
+        }
+
+        // Размер, совпадающий с размером стиля, избыточен
+        if (run.getFontSize() == AcademicStyles.FONT_SIZE) {
+            while (rPr.sizeOfSzArray() > 0) {
+                rPr.removeSz(0);
+            }
+            while (rPr.sizeOfSzCsArray() > 0) {
+                rPr.removeSzCs(0);
+            }
+        }
+
+        // Явно выключенные жирный и курсив не должны перекрывать стиль заголовка
+        if (!run.isBold()) {
+            while (rPr.sizeOfBArray() > 0) {
+                rPr.removeB(0);
+            }
+        }
+        if (!run.isItalic()) {
+            while (rPr.sizeOfIArray() > 0) {
+                rPr.removeI(0);
+            }
+        }
+
+        try (XmlCursor cursor = rPr.newCursor()) {
+            if (!cursor.toFirstChild()) {
+                run.getCTR().unsetRPr();
+            }
+        }
+    }
+
+    /**
+     * Фрагмент символьного шрифта: шрифт из списка SYMBOL_FONTS, символ w:sym
+     * или знаки из области, в которой Word хранит символы таких шрифтов
+     */
+    private boolean isSymbolRun(XWPFRun run, CTRPr rPr) {
+        for (CTFonts fonts : rPr.getRFontsList()) {
+            if (isSymbolFont(fonts.getAscii()) || isSymbolFont(fonts.getHAnsi())
+                    || isSymbolFont(fonts.getCs()) || isSymbolFont(fonts.getEastAsia())) {
+                return true;
+            }
+        }
+
+        try (XmlCursor cursor = run.getCTR().newCursor()) {
+            for (boolean found = cursor.toFirstChild(); found; found = cursor.toNextSibling()) {
+                if ("sym".equals(cursor.getName().getLocalPart())) {
+                    return true;
+                }
+            }
+        }
+
+        String text = run.text();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= SYMBOL_CHAR_FIRST && c <= SYMBOL_CHAR_LAST) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSymbolFont(String fontName) {
+        if (fontName == null) {
+            return false;
+        }
+        String normalized = fontName.toLowerCase(Locale.ROOT);
+        return SYMBOL_FONTS.stream().anyMatch(normalized::startsWith);
+    }
+}
@@ -0,0 +1,148 @@
+package com.practical.work.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFStyle;
+import org.apache.poi.xwpf.usermodel.XWPFStyles;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.*;
+import org.springframework.stereotype.Component;
+
+import java.math.BigInteger;
+
+/**
+ * Стили академического оформления (Normal, Heading 1-3, List Paragraph).
+ * Стили один раз регистрируются в styles.xml, а абзацы ссылаются на них по идентификатору,
+ * поэтому шрифт, размер и интервалы не дублируются в каждом абзаце и фрагменте текста
+ */
+@Component
+@Slf4j
+public class AcademicStyles {
+
+    public static final String NORMAL = "Normal";
+    public static final String LIST = "ListParagraph";
+
+    // Заголовки глубже третьего уровня оформляются стилем Heading3
+    public static final int MAX_HEADING_LEVEL = 3;
+
+    // Размер шрифта основного текста в пунктах
+    public static final int FONT_SIZE = 14;
+
+    private static final String FONT_FAMILY = "Times New Roman";
+
+    // Красная строка 1.25 см, в твипах
+    private static final int FIRST_LINE_INDENT = 708;
+
+    /**
+     * Идентификатор стиля заголовка для уровня (Heading1, Heading2, Heading3)
+     */
+    public static String headingStyleId(int level) {
+        return "Heading" + Math.max(1, Math.min(level, MAX_HEADING_LEVEL));
+    }
+
+    /**
+     * Регистрация академических стилей в документе.
+     * Существующие стили с теми же идентификаторами заменяются
+     */
+    public void register(XWPFDocument document) {
+        XWPFStyles styles = document.createStyles();
+
+        putStyle(styles, createNormalStyle());
+        for (int level = 1; level <= MAX_HEADING_LEVEL; level++) {
+            putStyle(styles, createHeadingStyle(level));
+        }
+        putStyle(styles, createListStyle());
+
+        log.debug("Зарегистрированы академические стили: {}, 14pt, украинская локаль", FONT_FAMILY);
+    }
+
+    private void putStyle(XWPFStyles styles, CTStyle ctStyle) {
+        if (styles.styleExist(ctStyle.getStyleId())) {
+            XWPFStyle existing = styles.getStyle(ctStyle.getStyleId());
+            existing.getCTStyle().set(ctStyle);
+        } else {
+            styles.addStyle(new XWPFStyle(ctStyle, styles));
+        }
+    }
+
+    /**
+     * Основной текст: Times New Roman 14pt, интервал 1.5, по ширине, красная строка
+     */
+    private CTStyle createNormalStyle() {
+        CTStyle style = newParagraphStyle(NORMAL, "Normal");
+
+        CTPPrGeneral pPr = style.addNewPPr();
+        setSpacing(pPr.addNewSpacing(), 0, 0);
+        pPr.addNewInd().setFirstLine(BigInteger.valueOf(FIRST_LINE_INDENT));
+        pPr.addNewJc().setVal(STJc.BOTH);
+
+        CTRPr rPr = style.addNewRPr();
+        CTFonts fonts = rPr.addNewRFonts();
+        fonts.setAscii(FONT_FAMILY);
+        fonts.setHAnsi(FONT_FAMILY);
+        fonts.setCs(FONT_FAMILY);
+        fonts.setEastAsia(FONT_FAMILY);
+        rPr.addNewColor().setVal("000000");
+        rPr.addNewSz().setVal(BigInteger.valueOf(FONT_SIZE * 2L)); // в полупунктах
+        rPr.addNewSzCs().setVal(BigInteger.valueOf(FONT_SIZE * 2L));
+        rPr.addNewLang().setVal("uk-UA");
+
+        return style;
+    }
+
+    /**
+     * Заголовок: без красной строки, слева, отступы 20/10 пт, жирный для 1-2 уровня
+     */
+    private CTStyle createHeadingStyle(int level) {
+        CTStyle style = newParagraphStyle(headingStyleId(level), "heading " + level);
+        style.addNewBasedOn().setVal(NORMAL);
+        style.addNewNext().setVal(NORMAL);
+
+        CTPPrGeneral pPr = style.addNewPPr();
+        pPr.addNewKeepNext();
+        setSpacing(pPr.addNewSpacing(), 400, 200);
+        pPr.addNewInd().setFirstLine(BigInteger.ZERO);
+        pPr.addNewJc().setVal(STJc.LEFT);
+        // Уровень структуры для навигации и оглавления
+        pPr.addNewOutlineLvl().setVal(BigInteger.valueOf(level - 1));
+
+        if (level <= 2) {
+            style.addNewRPr().addNewB();
+        }
+
+        return style;
+    }
+
+    /**
+     * Элемент списка: отступ слева 1.25 см с висячим отступом
+     */
+    private CTStyle createListStyle() {
+        CTStyle style = newParagraphStyle(LIST, "List Paragraph");
+        style.addNewBasedOn().setVal(NORMAL);
+
+        CTPPrGeneral pPr = style.addNewPPr();
+        CTInd ind = pPr.addNewInd();
+        ind.setLeft(BigInteger.valueOf(FIRST_LINE_INDENT));
+        ind.setHanging(BigInteger.valueOf(354));
+
+        return style;
+    }
+
+    private CTStyle newParagraphStyle(String styleId, String name) {
+        CTStyle style = CTStyle.Factory.newInstance();
+        style.setType(STStyleType.PARAGRAPH);
+        style.setStyleId(styleId);
+        style.addNewName().setVal(name);
+        style.addNewQFormat();
+        return style;
+    }
+
+    /**
+     * Межстрочный интервал 1.5 (360 из 240) и отступы до/после абзаца в твипах
+     */
+    private void setSpacing(CTSpacing spacing, int before, int after) {
+        spacing.setLine(BigInteger.valueOf(360));
+        spacing.setLineRule(STLineSpacingRule.AUTO);
+        spacing.setBefore(BigInteger.valueOf(before));
+        spacing.setAfter(BigInteger.valueOf(after));
+    }
+}
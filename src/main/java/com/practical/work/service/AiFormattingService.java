@@ -4,6 +4,7 @@ import com.practical.work.dto.FormattingResult;
 import com.practical.work.dto.TextChunk;
 import com.practical.work.dto.IndexedFormattingResult;
 import com.practical.work.dto.ChunkQueue;
+import com.practical.work.dto.ParagraphClassification;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -46,6 +47,9 @@ public class AiFormattingService {
     @Value("${app.ai.model-path:src/main/resources/model/mistral-7b-instruct-v0.2.Q6_K.gguf}")
     private String modelPath;
 
+    @Value("${app.ai.model-name:mistral}")
+    private String modelName;
+
     private Map<String, Object> promptConfig;
     private final ObjectMapper objectMapper = new ObjectMapper();
     
@@ -55,6 +59,9 @@ public class AiFormattingService {
     
     @Autowired
     private ProcessingMetricsService metricsService;
+
+    @Autowired
+    private ParagraphClassifier paragraphClassifier;
     
     private final WebClient webClient = WebClient.builder()
         .baseUrl("http://localhost:11434")
@@ -151,6 +158,13 @@ public class AiFormattingService {
     }
 
     public CompletableFuture<FormattingResult> formatText(String text) {
+        return formatText(text, paragraphClassifier.classify(text));
+    }
+
+    /**
+     * Форматирование текста с уже известным типом абзаца (используется fallback логикой)
+     */
+    public CompletableFuture<FormattingResult> formatText(String text, ParagraphClassification classification) {
         return CompletableFuture.supplyAsync(() -> {
             try {
                 log.info("=== AI ОБРАБОТКА ===");
@@ -166,7 +180,7 @@ public class AiFormattingService {
                 log.info("СФОРМИРОВАННЫЙ ПРОМПТ: '{}'", userPrompt);
                 
                 // Вызов реальной модели через Ollama API
-                FormattingResult result = callOllamaApi(systemPrompt, userPrompt, text);
+                FormattingResult result = callOllamaApi(systemPrompt, userPrompt, text, classification);
                 
                 log.info("ИТОГОВЫЙ РЕЗУЛЬТАТ: type={}, formatted_text='{}'", 
                     result.getFormattingType(), result.getFormattedText());
@@ -206,7 +220,7 @@ public class AiFormattingService {
                         queueId, chunk.getParagraphId(), chunk.getIndex(), fileId);
                     
                     // Реальная обработка через AI
-                    FormattingResult formattingResult = formatText(chunk.getText()).get();
+                    FormattingResult formattingResult = formatText(chunk.getText(), classificationOf(chunk)).get();
                     
                     // Уведомляем метрики об обработке блока
                     if (metricsService != null) {
@@ -255,7 +269,7 @@ public class AiFormattingService {
                     chunk.getParagraphId(), chunk.getIndex(), fileId);
                 
                 // Реальная обработка через AI
-                FormattingResult result = formatText(chunk.getText()).get();
+                FormattingResult result = formatText(chunk.getText(), classificationOf(chunk)).get();
                 
                 // Уведомляем метрики об обработке блока
                 if (metricsService != null) {
@@ -325,11 +339,12 @@ public class AiFormattingService {
     /**
      * Вызывает Ollama API для форматирования текста
      */
-    private FormattingResult callOllamaApi(String systemPrompt, String userPrompt, String text) {
+    private FormattingResult callOllamaApi(String systemPrompt, String userPrompt, String text,
+                                           ParagraphClassification classification) {
         try {
             // Формируем запрос для Ollama API
             Map<String, Object> request = Map.of(
-                "model", "mistral",
+                "model", modelName,
                 "prompt", systemPrompt + "\n\n" + userPrompt,
                 "stream", false
             );
@@ -348,7 +363,7 @@ public class AiFormattingService {
                 String aiResponse = (String) response.get("response");
                 log.info("Ответ от Ollama API для текста '{}': {}", 
                     text.length() > 50 ? text.substring(0, 50) + "..." : text, aiResponse);
-                return parseAiResponse(aiResponse, text);
+                return parseAiResponse(aiResponse, text, classification);
             } else {
                 log.warn("Пустой ответ от Ollama API, используем исходный текст");
                 return FormattingResult.builder()
@@ -366,14 +381,14 @@ public class AiFormattingService {
                 text.length() > 100 ? text.substring(0, 100) + "..." : text);
             
             // В случае ошибки API используем fallback логику
-            return createFallbackFormattingResult(text);
+            return createFallbackFormattingResult(text, classification);
         }
     }
     
     /**
      * Парсит ответ от AI и создает FormattingResult
      */
-    private FormattingResult parseAiResponse(String aiResponse, String originalText) {
+    FormattingResult parseAiResponse(String aiResponse, String originalText, ParagraphClassification classification) {
         try {
             // Очищаем ответ от лишних символов и ищем JSON
             String cleanedResponse = extractJsonFromResponse(aiResponse);
@@ -419,14 +434,14 @@ public class AiFormattingService {
             log.error("Проблемный ответ AI: '{}'", aiResponse);
             
             // FALLBACK: используем простую логику форматирования
-            return createFallbackFormattingResult(originalText);
+            return createFallbackFormattingResult(originalText, classification);
         }
     }
     
     /**
      * Создает результат форматирования с использованием простой логики (fallback)
      */
-    private FormattingResult createFallbackFormattingResult(String text) {
+    FormattingResult createFallbackFormattingResult(String text, ParagraphClassification classification) {
         log.info("FALLBACK: Используем локальную логику для текста: '{}'", 
             text != null && text.length() > 50 ? text.substring(0, 50) + "..." : text);
             
@@ -443,7 +458,7 @@ public class AiFormattingService {
         String trimmed = text.trim();
         
         // Простая логика определения типа
-        if (isLikelyHeader(trimmed)) {
+        if (paragraphClassifier.looksLikeHeading(trimmed)) {
             log.info("FALLBACK: Определен как ЗАГОЛОВОК: '{}'", trimmed);
             return FormattingResult.builder()
                 .formattedText(trimmed)
@@ -452,7 +467,7 @@ public class AiFormattingService {
                 .fontSize(16)
                 .alignment("left")
                 .build();
-        } else if (trimmed.matches("^[\\d\\-\\*•].*") || trimmed.matches("^\\d+\\..*")) {
+        } else if (classification.isListItem()) {
             log.info("FALLBACK: Определен как СПИСОК: '{}'", trimmed);
             return FormattingResult.builder()
                 .formattedText(trimmed)
@@ -476,7 +491,7 @@ public class AiFormattingService {
     /**
      * Извлекает JSON из ответа AI, убирая лишний текст
      */
-    private String extractJsonFromResponse(String response) {
+    String extractJsonFromResponse(String response) {
         if (response == null || response.trim().isEmpty()) {
             return "{}";
         }
@@ -504,46 +519,10 @@ public class AiFormattingService {
         return jsonPart;
     }
     
-    /**
-     * Более умная логика определения заголовков для fallback
-     */
-    private boolean isLikelyHeader(String text) {
-        if (text == null || text.trim().isEmpty()) {
-            return false;
-        }
-        
-        String trimmed = text.trim();
-        
-        // Слишком длинные строки не заголовки  
-        if (trimmed.length() > 80) {
-            return false;
-        }
-        
-        // Заголовки обычно:
-        // 1. Начинаются с заглавной буквы
-        // 2. Короткие (< 80 символов)
-        // 3. НЕ заканчиваются точкой
-        // 4. НЕ содержат много знаков препинания
-        // 5. НЕ начинаются с цифр (это могут быть списки)
-        
-        boolean startsWithCapital = Character.isUpperCase(trimmed.charAt(0));
-        boolean noEndingPeriod = !trimmed.endsWith(".");
-        boolean shortText = trimmed.length() < 50;
-        boolean fewPunctuation = (trimmed.length() - trimmed.replaceAll("[,.;!?:]", "").length()) < 3;
-        boolean notStartsWithDigit = !Character.isDigit(trimmed.charAt(0));
-        boolean notListItem = !trimmed.matches("^[\\-\\*•].*");
-        
-        // Это заголовок если выполняются большинство условий
-        int score = 0;
-        if (startsWithCapital) score++;
-        if (noEndingPeriod) score++;
-        if (shortText) score++;
-        if (fewPunctuation) score++;
-        if (notStartsWithDigit) score++;
-        if (notListItem) score++;
-        
-        // Заголовок если score >= 4 из 6
-        return score >= 4;
+    private ParagraphClassification classificationOf(TextChunk chunk) {
+        return chunk.getClassification() != null
+            ? chunk.getClassification()
+            : paragraphClassifier.classify(chunk.getText());
     }
 
 } 
\ No newline at end of file
@@ -0,0 +1,286 @@
+package com.practical.work.service;
+
+import com.practical.work.dto.BatchUploadResponse;
+import com.practical.work.dto.UploadIngestResult;
+import com.practical.work.event.FileQueuedEvent;
+import com.practical.work.exception.InsufficientPointsException;
+import com.practical.work.exception.InvalidDocumentException;
+import com.practical.work.model.ProcessedDocument;
+import com.practical.work.model.User;
+import com.practical.work.repository.ProcessedDocumentRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FilenameUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Загрузка пакета документов одним ZIP архивом.
+ * Записи архива читаются из тела запроса по очереди и сразу сохраняются в хранилище
+ * через DocumentIngestService (проверка DOCX, отпечаток, подсчет абзацев за один проход).
+ * Все документы регистрируются одной транзакцией с общим идентификатором пакета и ставятся
+ * в очередь от меньшего к большему, чтобы первые результаты пакета были готовы раньше.
+ * Пакет, на обработку которого у пользователя не хватает поинтов, отклоняется целиком
+ */
+@Service
+@Slf4j
+public class BatchUploadService {
+
+    private static final long MB = 1024 * 1024;
+
+    // Максимальное число файлов в одном пакете, включая отклоненные
+    @Value("${app.upload.batch-max-files:500}")
+    private int maxFiles;
+
+    // Максимальный размер архива пакета
+    @Value("${app.upload.batch-max-size-mb:500}")
+    private long maxSizeMb;
+
+    @Autowired
+    private DocumentIngestService documentIngestService;
+
+    @Autowired
+    private DocumentService documentService;
+
+    @Autowired
+    private DocumentProcessingService documentProcessingService;
+
+    @Autowired
+    private ProcessedDocumentRepository documentRepository;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    public BatchUploadResponse uploadBatch(InputStream archive, User user) {
+        long startTime = System.currentTimeMillis();
+
+        if (user == null) {
+            return failure("Пользователь не авторизован. Пожалуйста, войдите в систему.");
+        }
+        if (user.getPoints() < 1) {
+            return failure("Недостаточно поинтов для обработки документа");
+        }
+
+        String batchId = UUID.randomUUID().toString();
+        List<ProcessedDocument> documents = new ArrayList<>();
+        Map<String, String> rejected = new LinkedHashMap<>();
+
+        SizeLimitedInputStream limitedArchive = new SizeLimitedInputStream(archive, maxSizeMb * MB);
+        try {
+            ZipInputStream zipStream = new ZipInputStream(limitedArchive);
+            ZipEntry entry;
+            int files = 0;
+            while ((entry = zipStream.getNextEntry()) != null) {
+                String fileName = FilenameUtils.getName(entry.getName());
+                if (entry.isDirectory() || isSystemEntry(entry.getName(), fileName)) {
+                    continue;
+                }
+
+                // Отклоненные файлы тоже считаются, чтобы список отклоненных не рос без ограничения
+                if (++files > maxFiles) {
+                    throw new InvalidDocumentException("Слишком много файлов в пакете, максимум: " + maxFiles);
+                }
+                if (!"docx".equalsIgnoreCase(FilenameUtils.getExtension(fileName))) {
+                    rejected.put(entry.getName(), "Неподдерживаемый тип файла");
+                    continue;
+                }
+
+                String fileId = UUID.randomUUID().toString();
+                try {
+                    // Запись архива читается сразу в хранилище, без отдельной распаковки
+                    UploadIngestResult ingestResult = documentIngestService.ingest(zipStream);
+                    documents.add(newDocument(fileId, fileName, ingestResult, user));
+                } catch (InvalidDocumentException e) {
+                    // Превышение размера архива прерывает весь пакет, а не только текущий документ
+                    if (limitedArchive.isLimitExceeded()) {
+                        throw limitedArchive.limitError();
+                    }
+                    rejected.put(entry.getName(), e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            // Поврежденный архив пакета: ранее сохраненные файлы удаляются
+            deleteFiles(documents);
+            log.warn("Пакет пользователя {} отклонен: {}", user.getEmail(), e.getMessage());
+            String message = e instanceof InvalidDocumentException || e instanceof ZipException
+                ? e.getMessage()
+                : "Ошибка чтения архива: " + e.getMessage();
+            return failure(message);
+        }
+
+        if (documents.isEmpty()) {
+            return BatchUploadResponse.builder()
+                .success(false)
+                .message("Архив не содержит документов DOCX")
+                .rejectedFiles(rejected)
+                .build();
+        }
+
+        // Короткие документы первыми: среднее время ожидания результатов пакета меньше
+        documents.sort(Comparator.comparing(ProcessedDocument::getOriginalSize));
+
+        List<ProcessedDocument> registered;
+        try {
+            registered = documentService.registerBatch(batchId, documents, user);
+        } catch (InsufficientPointsException e) {
+            deleteFiles(documents);
+            log.warn("Пакет пользователя {} отклонен: {}", user.getEmail(), e.getMessage());
+            return BatchUploadResponse.builder()
+                .success(false)
+                .message(e.getMessage())
+                .rejectedFiles(rejected)
+                .build();
+        } catch (RuntimeException e) {
+            deleteFiles(documents);
+            throw e;
+        }
+
+        int queued = (int) registered.stream()
+            .filter(document -> document.getStatus() != ProcessedDocument.ProcessingStatus.COMPLETED)
+            .count();
+
+        // Одно событие на пакет: обработчик очереди забирает столько файлов, сколько позволяют ресурсы
+        if (queued > 0) {
+            eventPublisher.publishEvent(new FileQueuedEvent(this, registered.get(0).getFileId(), null));
+        }
+
+        log.info("Пакет {} загружен пользователем {}: {} документов, отклонено {} ({}ms)",
+            batchId, user.getEmail(), registered.size(), rejected.size(), System.currentTimeMillis() - startTime);
+
+        return BatchUploadResponse.builder()
+            .success(true)
+            .batchId(batchId)
+            .message("Пакет загружен и добавлен в очередь обработки")
+            .acceptedCount(registered.size())
+            .queuedCount(queued)
+            .cachedCount(registered.size() - queued)
+            .rejectedFiles(rejected)
+            .build();
+    }
+
+    private ProcessedDocument newDocument(String fileId, String fileName, UploadIngestResult ingestResult,
+                                          User user) {
+        String filePath = ingestResult.getFilePath();
+        return ProcessedDocument.builder()
+            .fileId(fileId)
+            .originalFilename(fileName)
+            .originalFilePath(filePath)
+            .originalSize(ingestResult.getSize())
+            .estimatedChunks(documentProcessingService.estimateChunksCount(filePath, ingestResult.getParagraphCount()))
+            .contentHash(ingestResult.getContentHash())
+            .status(ProcessedDocument.ProcessingStatus.UPLOADED)
+            .user(user)
+            .build();
+    }
+
+    /**
+     * Служебные записи архиваторов и временные файлы Word ("~$Диплом.docx")
+     */
+    private boolean isSystemEntry(String entryName, String fileName) {
+        return entryName.startsWith("__MACOSX/") || fileName.startsWith(".") || fileName.startsWith("~$");
+    }
+
+    /**
+     * Удаление файлов несостоявшегося пакета. Одинаковые файлы хранятся один раз,
+     * поэтому файл, на который уже ссылается другой документ, остается на месте
+     */
+    private void deleteFiles(List<ProcessedDocument> documents) {
+        for (ProcessedDocument document : documents) {
+            if (documentRepository.existsByContentHash(document.getContentHash())) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(new File(document.getOriginalFilePath()).toPath());
+            } catch (IOException e) {
+                log.warn("Не удалось удалить файл {}: {}", document.getOriginalFilePath(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Тело запроса с ограничением размера: тело читается потоком без Content-Length,
+     * поэтому размер архива проверяется по мере чтения
+     */
+    private static final class SizeLimitedInputStream extends FilterInputStream {
+
+        private final long limit;
+        private long count;
+        private boolean limitExceeded;
+
+        private SizeLimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = in.read();
+            if (value >= 0) {
+                counted(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = in.read(buffer, offset, length);
+            if (read > 0) {
+                counted(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            if (skipped > 0) {
+                counted(skipped);
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private boolean isLimitExceeded() {
+            return limitExceeded;
+        }
+
+        private InvalidDocumentException limitError() {
+            return new InvalidDocumentException("Архив пакета слишком большой, максимальный размер: " + limit / MB + "MB");
+        }
+
+        private void counted(long bytes) throws InvalidDocumentException {
+            count += bytes;
+            if (count > limit) {
+                limitExceeded = true;
+                throw limitError();
+            }
+        }
+    }
+
+    private BatchUploadResponse failure(String message) {
+        return BatchUploadResponse.builder()
+            .success(false)
+            .message(message)
+            .build();
+    }
+}
@@ -0,0 +1,214 @@
+package com.practical.work.service;
+
+import com.practical.work.model.ProcessedDocument;
+import com.practical.work.model.User;
+import com.practical.work.repository.ProcessedDocumentRepository;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Скачивание многих обработанных документов одним ZIP архивом.
+ * Архив формируется прямо в поток ответа без временного файла: DOCX уже сжат,
+ * поэтому записи сохраняются без сжатия (STORED), а CRC каждой записи считается
+ * отдельным проходом по файлу перед ее записью. Память не зависит от числа документов
+ */
+@Service
+@Slf4j
+public class BulkDownloadService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Максимальное число документов в одном архиве
+    @Value("${app.download.bulk-max-files:200}")
+    private int maxFiles;
+
+    @Autowired
+    private ProcessedDocumentRepository documentRepository;
+
+    @Autowired
+    private DocumentStorage documentStorage;
+
+    @Autowired
+    private RetentionService retentionService;
+
+    /**
+     * Документы по списку идентификаторов. Чужие, отсутствующие и еще не обработанные
+     * документы возвращаются в missingFileIds
+     */
+    public BulkSelection selectByFileIds(User user, Collection<String> fileIds) {
+        Set<String> requested = new LinkedHashSet<>(fileIds);
+        checkLimit(requested.size());
+
+        Map<String, ProcessedDocument> owned = documentRepository.findByUserIdAndFileIdIn(user.getId(), requested)
+            .stream()
+            .filter(document -> document.getStatus() == ProcessedDocument.ProcessingStatus.COMPLETED)
+            .collect(Collectors.toMap(ProcessedDocument::getFileId, Function.identity()));
+
+        retentionService.markAccessed(owned.values());
+
+        List<BulkEntry> entries = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        for (String fileId : requested) {
+            ProcessedDocument document = owned.get(fileId);
+            if (document == null) {
+                missing.add(fileId);
+            } else {
+                entries.add(toEntry(document));
+            }
+        }
+        return new BulkSelection(entries, missing);
+    }
+
+    /**
+     * Все обработанные документы пользователя, завершенные после указанного момента
+     */
+    public BulkSelection selectCompletedSince(User user, LocalDateTime since) {
+        List<ProcessedDocument> documents = documentRepository
+            .findByUserIdAndStatusAndProcessingCompletedAtAfterOrderByProcessingCompletedAtAsc(
+                user.getId(), ProcessedDocument.ProcessingStatus.COMPLETED, since);
+        checkLimit(documents.size());
+        retentionService.markAccessed(documents);
+
+        List<BulkEntry> entries = new ArrayList<>(documents.size());
+        for (ProcessedDocument document : documents) {
+            entries.add(toEntry(document));
+        }
+        return new BulkSelection(entries, List.of());
+    }
+
+    /**
+     * Запись архива в поток ответа
+     */
+    public void writeZip(List<BulkEntry> entries, OutputStream outputStream) throws IOException {
+        long startTime = System.currentTimeMillis();
+        Set<String> usedNames = new HashSet<>();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int written = 0;
+
+        ZipOutputStream zipStream = new ZipOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+        zipStream.setMethod(ZipOutputStream.STORED);
+
+        for (BulkEntry bulkEntry : entries) {
+            File file = bulkEntry.getFile();
+            if (!file.exists()) {
+                log.warn("Файл результата {} не найден на диске, пропущен в архиве", file.getName());
+                continue;
+            }
+
+            ZipEntry entry = new ZipEntry(uniqueName(bulkEntry.getName(), usedNames));
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(file.length());
+            entry.setCompressedSize(file.length());
+            entry.setCrc(crc(file, buffer));
+            entry.setTime(file.lastModified());
+
+            zipStream.putNextEntry(entry);
+            try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    zipStream.write(buffer, 0, read);
+                }
+            }
+            zipStream.closeEntry();
+            written++;
+        }
+
+        // finish(), а не close(): поток ответа закрывает контейнер
+        zipStream.finish();
+        zipStream.flush();
+
+        log.info("Архив из {} документов отправлен ({}ms)", written, System.currentTimeMillis() - startTime);
+    }
+
+    private long crc(File file, byte[] buffer) throws IOException {
+        CRC32 crc32 = new CRC32();
+        try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                crc32.update(buffer, 0, read);
+            }
+        }
+        return crc32.getValue();
+    }
+
+    /**
+     * Одинаковые имена файлов в архиве получают суффикс: "formatted-Диплом (2).docx"
+     */
+    private String uniqueName(String name, Set<String> usedNames) {
+        String candidate = name;
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+
+        for (int i = 2; !usedNames.add(candidate.toLowerCase()); i++) {
+            candidate = base + " (" + i + ")" + extension;
+        }
+        return candidate;
+    }
+
+    /**
+     * Файл из холодного архива восстанавливается до начала передачи архива
+     */
+    private BulkEntry toEntry(ProcessedDocument document) {
+        Path path = Paths.get(document.getProcessedFilePath());
+        try {
+            path = documentStorage.restore(StorageArea.OUTPUTS, path);
+        } catch (IOException e) {
+            // Отсутствующий файл пропускается при записи архива
+            log.warn("Не удалось восстановить файл результата {}: {}", document.getFileId(), e.getMessage());
+        }
+        return new BulkEntry(path.toFile(), "formatted-" + document.getOriginalFilename());
+    }
+
+    private void checkLimit(int count) {
+        if (count > maxFiles) {
+            throw new IllegalArgumentException("Слишком много документов в одном архиве, максимум: " + maxFiles);
+        }
+    }
+
+    /**
+     * Файл результата и его имя в архиве
+     */
+    @Getter
+    @AllArgsConstructor
+    public static final class BulkEntry {
+        private final File file;
+        private final String name;
+    }
+
+    /**
+     * Выбранные для архива документы и идентификаторы, которые выдать нельзя
+     */
+    @Getter
+    @AllArgsConstructor
+    public static final class BulkSelection {
+        private final List<BulkEntry> entries;
+        private final List<String> missingFileIds;
+    }
+}
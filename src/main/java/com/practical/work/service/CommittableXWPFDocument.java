@@ -0,0 +1,32 @@
+package com.practical.work.service;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+
+/**
+ * XWPFDocument, который умеет записать изменения своих частей в пакет без упаковки в zip.
+ * Нужен DocxPackageWriter: после commitParts() измененные части пакета становятся
+ * частями в памяти, а нетронутые остаются ссылками на записи исходного архива
+ */
+public class CommittableXWPFDocument extends XWPFDocument {
+
+    public CommittableXWPFDocument(OPCPackage opcPackage) throws IOException {
+        super(opcPackage);
+    }
+
+    public CommittableXWPFDocument(InputStream inputStream) throws IOException {
+        super(inputStream);
+    }
+
+    /**
+     * То же, что делает write() перед сохранением пакета: фиксация всех частей и свойств документа
+     */
+    public void commitParts() throws IOException {
+        onSave(new HashSet<>());
+        getProperties().commit();
+    }
+}
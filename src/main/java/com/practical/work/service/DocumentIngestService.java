@@ -0,0 +1,224 @@
+package com.practical.work.service;
+
+import com.practical.work.dto.UploadIngestResult;
+import com.practical.work.exception.InvalidDocumentException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Прием загружаемого файла за один проход по телу запроса.
+ * Байты пишутся во временный файл хранилища через один буферизованный канал, считается SHA-256,
+ * а поток разбирается как ZIP: проверяется структура DOCX и считаются абзацы document.xml.
+ * Поврежденные и не-DOCX файлы отклоняются до POI и очереди, файл не читается повторно
+ */
+@Service
+@Slf4j
+public class DocumentIngestService {
+
+    private static final String CONTENT_TYPES_ENTRY = "[Content_Types].xml";
+    private static final String DOCUMENT_PART = "word/document.xml";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MB = 1024 * 1024;
+
+    @Value("${app.upload.max-size-mb:50}")
+    private long maxSizeMb;
+
+    @Autowired
+    private DocxStreamingReader docxStreamingReader;
+
+    @Autowired
+    private DocumentStorage documentStorage;
+
+    /**
+     * Сохранение потока в хранилище исходных документов с проверкой DOCX.
+     * Поток пишется во временный файл и по завершении переносится под ключом SHA-256;
+     * при ошибке временный файл удаляется
+     */
+    public UploadIngestResult ingest(InputStream body) throws IOException {
+        Path tempFile = documentStorage.createTempFile(StorageArea.ORIGINALS);
+        boolean stored = false;
+        try {
+            UploadIngestResult result;
+            try (OutputStream fileOutput = new BufferedOutputStream(Channels.newOutputStream(
+                    FileChannel.open(tempFile, StandardOpenOption.WRITE)), BUFFER_SIZE)) {
+                result = read(body, fileOutput);
+            }
+            Path storedFile = documentStorage.commit(StorageArea.ORIGINALS, tempFile, result.getContentHash());
+            result.setFilePath(storedFile.toString());
+            stored = true;
+            return result;
+        } finally {
+            if (!stored) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    /**
+     * Прием уже записанного на диск файла (например, собранного из частей): проверка на месте
+     * и перенос в хранилище переименованием, без копирования. Некорректный файл удаляется
+     */
+    public UploadIngestResult ingestFile(File file) throws IOException {
+        UploadIngestResult result;
+        try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(file.toPath()), BUFFER_SIZE)) {
+            result = read(inputStream, OutputStream.nullOutputStream());
+        } catch (InvalidDocumentException e) {
+            Files.deleteIfExists(file.toPath());
+            throw e;
+        }
+        Path storedFile = documentStorage.commit(StorageArea.ORIGINALS, file.toPath(), result.getContentHash());
+        result.setFilePath(storedFile.toString());
+        return result;
+    }
+
+    private UploadIngestResult read(InputStream inputStream, OutputStream copy) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+
+        TeeInputStream tee = new TeeInputStream(new DigestInputStream(inputStream, digest), copy, maxSizeMb * MB);
+        int paragraphCount = readArchive(tee);
+
+        // Центральный каталог архива ZipInputStream не читает - дочитываем остаток потока
+        tee.transferTo(OutputStream.nullOutputStream());
+
+        return UploadIngestResult.builder()
+            .size(tee.getCount())
+            .contentHash(HexFormat.of().formatHex(digest.digest()))
+            .paragraphCount(paragraphCount)
+            .build();
+    }
+
+    /**
+     * Разбор ZIP потока: обязательные части DOCX и число абзацев верхнего уровня
+     */
+    private int readArchive(InputStream inputStream) throws IOException {
+        ZipInputStream zipStream = new ZipInputStream(inputStream);
+        boolean hasContentTypes = false;
+        int paragraphCount = -1;
+        int entries = 0;
+
+        try {
+            ZipEntry entry;
+            while ((entry = zipStream.getNextEntry()) != null) {
+                entries++;
+                String name = entry.getName();
+
+                if (CONTENT_TYPES_ENTRY.equals(name)) {
+                    hasContentTypes = true;
+                } else if (DOCUMENT_PART.equals(name)) {
+                    try {
+                        paragraphCount = docxStreamingReader.countParagraphs(zipStream);
+                    } catch (IOException e) {
+                        throw new InvalidDocumentException("Поврежденное содержимое документа: " + e.getMessage(), e);
+                    }
+                }
+            }
+        } catch (ZipException e) {
+            throw new InvalidDocumentException("Файл поврежден: " + e.getMessage(), e);
+        } catch (EOFException e) {
+            throw new InvalidDocumentException("Файл поврежден или передан не полностью", e);
+        }
+
+        if (entries == 0) {
+            // Сюда же попадают документы старого формата .doc (OLE2), которые не являются ZIP архивом
+            throw new InvalidDocumentException("Файл не является документом DOCX");
+        }
+        if (!hasContentTypes || paragraphCount < 0) {
+            throw new InvalidDocumentException("Архив не содержит документ Word");
+        }
+        return paragraphCount;
+    }
+
+    /**
+     * Поток, который копирует все прочитанные байты в выходной поток и ограничивает их количество
+     */
+    private static final class TeeInputStream extends FilterInputStream {
+
+        private final OutputStream copy;
+        private final long limit;
+        private long count;
+
+        private TeeInputStream(InputStream in, OutputStream copy, long limit) {
+            super(in);
+            this.copy = copy;
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = in.read();
+            if (value >= 0) {
+                written(1);
+                copy.write(value);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = in.read(buffer, offset, length);
+            if (read > 0) {
+                written(read);
+                copy.write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Пропущенные байты тоже должны попасть в файл
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            int read = read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // Закрытие тела запроса и файла остается за вызывающим кодом
+        }
+
+        private long getCount() {
+            return count;
+        }
+
+        private void written(int bytes) throws InvalidDocumentException {
+            count += bytes;
+            if (count > limit) {
+                throw new InvalidDocumentException("Файл слишком большой, максимальный размер: " + limit / MB + "MB");
+            }
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package com.practical.work.service;
 
 import com.practical.work.dto.FormattingResult;
+import com.practical.work.dto.ParagraphClassification;
 import com.practical.work.dto.TextChunk;
 import com.practical.work.dto.IndexedFormattingResult;
+import com.practical.work.event.DocumentChunksCountUpdatedEvent;
 import com.practical.work.model.ProcessedDocument;
 import com.practical.work.repository.ProcessedDocumentRepository;
 import lombok.extern.slf4j.Slf4j;
@@ -11,19 +13,23 @@ import org.apache.poi.xwpf.usermodel.*;
 import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTPageSz;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Collections;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.Optional;
 
 @Service
@@ -33,9 +39,6 @@ public class DocumentProcessingService {
     @Value("${app.file.upload-dir:uploads}")
     private String uploadDir;
 
-    @Value("${app.file.processed-dir:processed}")
-    private String processedDir;
-
     @Autowired
     private AiFormattingService aiFormattingService;
     
@@ -48,15 +51,40 @@ public class DocumentProcessingService {
     @Autowired
     private ProcessedDocumentRepository documentRepository;
 
+    @Autowired
+    private ParagraphClassifier paragraphClassifier;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private DocxStreamingReader docxStreamingReader;
+
+    @Autowired
+    private RunNormalizer runNormalizer;
+
+    @Autowired
+    private DocxPackageLoader docxPackageLoader;
+
+    @Autowired
+    private DocxPackageWriter docxPackageWriter;
+
+    @Autowired
+    private RevisionResultStore revisionResultStore;
+
+    @Autowired
+    private DocumentStorage documentStorage;
+
     public CompletableFuture<String> processDocument(String inputFilePath, String fileId) {
         return CompletableFuture.supplyAsync(() -> {
-            try {
-                log.info("Начало обработки документа: {}", inputFilePath);
-                
-                // Загрузка документа
-                XWPFDocument document = new XWPFDocument(new FileInputStream(inputFilePath));
+            log.info("Начало обработки документа: {}", inputFilePath);
+
+            // Загрузка документа - единственный разбор DOCX за всю обработку.
+            // Память под документ резервируется на все время обработки (в счет резерва работы очереди, если он есть)
+            try (DocxPackageLoader.LoadedDocument loaded = docxPackageLoader.open(restoreOriginal(inputFilePath), fileId)) {
+                XWPFDocument document = loaded.getDocument();
                 List<XWPFParagraph> paragraphs = document.getParagraphs();
-                
+
                 log.info("Документ загружен, найдено {} абзацев", paragraphs.size());
                 
                 // Получаем размер файла для оценки сложности обработки
@@ -67,28 +95,46 @@ public class DocumentProcessingService {
                 
                 if (textChunks.isEmpty()) {
                     log.warn("Документ не содержит текста для обработки");
-                    return saveDocument(document, fileId);
+                    runNormalizer.normalize(document);
+                    return saveDocument(loaded, fileId);
                 }
                 
-                int actualChunksCount = textChunks.size();
+                // Абзацы, не изменившиеся с предыдущей версии документа, берутся из ее результатов
+                List<IndexedFormattingResult> formattingResults = new ArrayList<>();
+                List<TextChunk> chunksToFormat = reusePreviousResults(fileId, textChunks, formattingResults);
+
+                int actualChunksCount = chunksToFormat.size();
                 log.info("Создано {} блоков для обработки", actualChunksCount);
-                
-                // Начинаем мониторинг обработки с точным количеством чанков
-                metricsService.startProcessing(fileId, actualChunksCount);
 
-                // Параллельная обработка всех блоков с ограниченным количеством потоков
-                List<IndexedFormattingResult> formattingResults = 
-                    aiFormattingService.formatTextChunks(textChunks, fileId, fileSizeBytes).get();
+                if (!chunksToFormat.isEmpty()) {
+                    // Сообщаем точное количество чанков для отображения прогресса
+                    eventPublisher.publishEvent(new DocumentChunksCountUpdatedEvent(this, fileId, actualChunksCount));
+
+                    // Начинаем мониторинг обработки с точным количеством чанков
+                    metricsService.startProcessing(fileId, actualChunksCount);
+
+                    // Параллельная обработка блоков с ограниченным количеством потоков
+                    formattingResults.addAll(
+                        aiFormattingService.formatTextChunks(chunksToFormat, fileId, fileSizeBytes).get());
+                }
 
                 // Применение результатов форматирования в правильном порядке
-                applyFormattingResults(paragraphs, formattingResults);
+                Set<XWPFParagraph> replaced = applyFormattingResults(paragraphs, formattingResults);
 
-                // Сохранение промежуточного документа после AI форматирования
-                String aiFormattedFilePath = saveDocument(document, fileId + "_ai_formatted");
-                
-                // Применение украинских академических стандартов форматирования
-                String outputFilePath = applyUkrainianAcademicFormatting(aiFormattedFilePath, fileId);
+                // Объединение фрагментов до этапов, работающих с отдельными фрагментами. Фрагменты абзацев
+                // с примененным результатом модели уже заменены одним фрагментом - такие абзацы пропускаются
+                runNormalizer.normalize(document, paragraph -> !replaced.contains(paragraph));
+
+                // Применение украинских академических стандартов к документу в памяти,
+                // с уже вычисленной классификацией абзацев
+                academicFormattingService.formatDocument(document, collectClassifications(paragraphs, textChunks));
                 
+                // Единственная запись результата на диск
+                String outputFilePath = saveDocument(loaded, fileId);
+
+                // Результаты по абзацам для инкрементальной обработки следующих версий
+                revisionResultStore.save(outputFilePath, textChunks, formattingResults);
+
                 // Завершаем мониторинг обработки
                 metricsService.finishProcessing(fileId);
                 
@@ -102,6 +148,57 @@ public class DocumentProcessingService {
         });
     }
 
+    /**
+     * Повторное использование результатов предыдущей версии документа.
+     * Модель форматирует каждый абзац независимо от соседних, поэтому абзацы сопоставляются
+     * по ключу из текста и типа: так находятся и неизмененные, и перемещенные абзацы.
+     * Возвращает чанки, которые нужно отправить в модель
+     */
+    private List<TextChunk> reusePreviousResults(String fileId, List<TextChunk> textChunks,
+                                                 List<IndexedFormattingResult> reusedResults) {
+        Map<String, FormattingResult> previousResults = documentRepository.findByFileId(fileId)
+            .map(ProcessedDocument::getPreviousFileId)
+            .flatMap(documentRepository::findByFileId)
+            .filter(previous -> previous.getStatus() == ProcessedDocument.ProcessingStatus.COMPLETED)
+            .map(previous -> revisionResultStore.load(previous.getProcessedFilePath()))
+            .orElse(Map.of());
+
+        if (previousResults.isEmpty()) {
+            return textChunks;
+        }
+
+        List<TextChunk> chunksToFormat = new ArrayList<>();
+        for (TextChunk chunk : textChunks) {
+            FormattingResult previous = previousResults.get(revisionResultStore.paragraphKey(chunk));
+            if (previous != null) {
+                reusedResults.add(IndexedFormattingResult.builder()
+                    .index(chunk.getIndex())
+                    .paragraphId(chunk.getParagraphId())
+                    .formattingResult(previous)
+                    .success(true)
+                    .build());
+            } else {
+                chunksToFormat.add(chunk);
+            }
+        }
+
+        log.info("Инкрементальная обработка {}: {} абзацев взято из предыдущей версии, {} отправлено в модель",
+            fileId, reusedResults.size(), chunksToFormat.size());
+        return chunksToFormat;
+    }
+
+    /**
+     * Сопоставление абзацев документа с классификацией, определенной при разбиении на чанки
+     */
+    private Map<XWPFParagraph, ParagraphClassification> collectClassifications(List<XWPFParagraph> paragraphs,
+                                                                             List<TextChunk> textChunks) {
+        Map<XWPFParagraph, ParagraphClassification> classifications = new IdentityHashMap<>();
+        for (int i = 0; i < paragraphs.size() && i < textChunks.size(); i++) {
+            classifications.put(paragraphs.get(i), textChunks.get(i).getClassification());
+        }
+        return classifications;
+    }
+
     private List<TextChunk> createTextChunks(List<XWPFParagraph> paragraphs) {
         List<TextChunk> chunks = new ArrayList<>();
         int index = 0;
@@ -115,84 +212,27 @@ public class DocumentProcessingService {
                 text = "";
             }
             
-            String paragraphType = detectParagraphType(text, paragraph);
+            // Тип абзаца определяется один раз и передается всем этапам обработки
+            ParagraphClassification classification = paragraphClassifier.classify(text, paragraph.getStyle());
             
             // Создаем чанк для каждого абзаца (включая пустые для сохранения структуры)
-                chunks.add(TextChunk.builder()
-                    .index(index++)
-                    .text(text)
-                    .paragraphId("paragraph_" + i)
-                    .build());
+            chunks.add(TextChunk.builder()
+                .index(index++)
+                .text(text)
+                .paragraphId("paragraph_" + i)
+                .classification(classification)
+                .build());
         }
         
         return chunks;
     }
-    
-    /**
-     * Определение типа абзаца для лучшего форматирования
-     */
-    private String detectParagraphType(String text, XWPFParagraph paragraph) {
-        if (text == null || text.trim().isEmpty()) {
-            return "empty";
-        }
-        
-        String trimmed = text.trim();
-        
-        // Заголовки
-        if (isHeading(trimmed, paragraph)) {
-            return "heading";
-        }
-        
-        // Нумерованные списки (1., 2., а), б), i), ii))
-        if (trimmed.matches("^\\d+[.)]\\s+.*") || 
-            trimmed.matches("^[а-яієїёЁ][.)]\\s+.*") ||
-            trimmed.matches("^[ivxlcdm]+[.)]\\s+.*")) {
-            return "numbered_list";
-        }
-        
-        // Маркированные списки
-        if (trimmed.startsWith("•") || 
-            trimmed.startsWith("-") || 
-            trimmed.startsWith("*") ||
-            trimmed.matches("^[•▪▫▬►◆○●]\\s+.*")) {
-            return "bullet_list";
-        }
-        
-        // Обычный абзац
-        return "paragraph";
-    }
-    
+
     /**
-     * Улучшенное определение заголовков
+     * Применение результатов модели к абзацам; возвращает абзацы, фрагменты которых заменены результатом
      */
-    private boolean isHeading(String text, XWPFParagraph paragraph) {
-        if (text == null || text.trim().isEmpty()) return false;
-        
-        // Проверяем по стилю
-        String style = paragraph.getStyle();
-        if (style != null && style.toLowerCase().contains("heading")) {
-            return true;
-        }
-        
-        String trimmed = text.trim();
-        
-        // Короткие строки в верхнем регистре
-        if (trimmed.length() < 100 && trimmed.equals(trimmed.toUpperCase()) && 
-            trimmed.matches(".*[А-ЯІЄЇЁA-Z].*")) {
-            return true;
-        }
-        
-        // Нумерованные заголовки
-        if (trimmed.matches("^\\d+\\.\\s*[А-ЯІЄЇЁA-Z].*") ||
-            trimmed.matches("^[IVXLCDM]+\\.\\s*[А-ЯІЄЇЁA-Z].*")) {
-            return true;
-        }
-        
-        return false;
-    }
-
-    private void applyFormattingResults(List<XWPFParagraph> paragraphs, 
-                                       List<IndexedFormattingResult> formattingResults) {
+    private Set<XWPFParagraph> applyFormattingResults(List<XWPFParagraph> paragraphs,
+                                                      List<IndexedFormattingResult> formattingResults) {
+        Set<XWPFParagraph> replaced = Collections.newSetFromMap(new IdentityHashMap<>());
         
         // Создаем карту соответствия paragraphId -> результат форматирования
         Map<String, IndexedFormattingResult> resultMap = new HashMap<>();
@@ -211,6 +251,7 @@ public class DocumentProcessingService {
                 log.debug("Применение форматирования к абзацу {} (индекс {})", 
                     paragraphId, result.getIndex());
                 applyFormatting(paragraph, result.getFormattingResult());
+                replaced.add(paragraph);
             } else if (result != null && !result.isSuccess()) {
                 log.warn("Ошибка форматирования абзаца {}: {}", 
                     paragraphId, result.getErrorMessage());
@@ -220,38 +261,34 @@ public class DocumentProcessingService {
                 clearParagraphFormatting(paragraph);
             }
         }
+        return replaced;
     }
 
-    private String applyUkrainianAcademicFormatting(String aiFormattedFilePath, String fileId) throws IOException {
-        log.info("Применение украинских академических стандартов к документу: {}", fileId);
-        
-        String outputFileName = "formatted_" + fileId + ".docx";
-        String outputFilePath = Paths.get(processedDir, outputFileName).toString();
-        
-        // Применяем академическое форматирование поверх AI форматирования
-        academicFormattingService.formatDocumentToUkrainianStandards(aiFormattedFilePath, outputFilePath);
-        
-        // Удаляем промежуточный файл
-        try {
-            Files.deleteIfExists(Paths.get(aiFormattedFilePath));
-        } catch (Exception e) {
-            log.warn("Не удалось удалить промежуточный файл: {}", aiFormattedFilePath);
-        }
-        
-        log.info("Документ отформатирован по украинским академическим стандартам: {}", outputFilePath);
-        return outputFilePath;
+    /**
+     * Исходный файл, перенесенный в холодный архив (например, при повторной обработке), восстанавливается
+     */
+    private String restoreOriginal(String inputFilePath) throws IOException {
+        return documentStorage.restore(StorageArea.ORIGINALS, Paths.get(inputFilePath)).toString();
     }
 
-    private String saveDocument(XWPFDocument document, String fileId) throws IOException {
-        String outputFileName = "formatted_" + fileId + ".docx";
-        String outputFilePath = Paths.get(processedDir, outputFileName).toString();
-        
-        try (FileOutputStream outputStream = new FileOutputStream(outputFilePath)) {
-            document.write(outputStream);
+    /**
+     * Запись результата во временный файл хранилища и перенос под ключом SHA-256.
+     * Совпадающие результаты разных документов хранятся один раз
+     */
+    private String saveDocument(DocxPackageLoader.LoadedDocument loaded, String fileId) throws IOException {
+        Path tempFile = documentStorage.createTempFile(StorageArea.OUTPUTS);
+        try {
+            // Нетронутые части (изображения, шрифты) переносятся из исходного архива без перепаковки
+            docxPackageWriter.write(loaded, tempFile.toFile());
+
+            String outputHash = getFileHash(tempFile.toString());
+            if (outputHash == null) {
+                throw new IOException("Не удалось вычислить отпечаток результата документа " + fileId);
+            }
+            return documentStorage.commit(StorageArea.OUTPUTS, tempFile, outputHash).toString();
+        } finally {
+            Files.deleteIfExists(tempFile);
         }
-        
-        document.close();
-        return outputFilePath;
     }
 
     /**
@@ -346,31 +383,19 @@ public class DocumentProcessingService {
 
     public String extractTextFromDocument(String filePath) {
         try {
-            File file = new File(filePath);
-            XWPFDocument document = new XWPFDocument(new FileInputStream(file));
-            
-            StringBuilder textBuilder = new StringBuilder();
-            List<XWPFParagraph> paragraphs = document.getParagraphs();
-            
-            for (XWPFParagraph paragraph : paragraphs) {
-                String text = paragraph.getText();
-                if (text != null && !text.trim().isEmpty()) {
-                    textBuilder.append(text).append("\n");
-                }
-            }
-            
-            document.close();
-            return textBuilder.toString();
-            
+            return docxStreamingReader.extractText(filePath);
         } catch (Exception e) {
             log.error("Ошибка извлечения текста из документа: {}", filePath, e);
             throw new RuntimeException("Ошибка извлечения текста из документа", e);
         }
     }
 
+    /**
+     * Принимаются только документы DOCX: формат .doc (OLE2) не читается ни проверкой при загрузке,
+     * ни обработкой, поэтому такие файлы отклоняются по расширению до сохранения
+     */
     public boolean isValidWordDocument(String fileName) {
-        String extension = FilenameUtils.getExtension(fileName).toLowerCase();
-        return "doc".equals(extension) || "docx".equals(extension);
+        return "docx".equals(FilenameUtils.getExtension(fileName).toLowerCase());
     }
 
     public long getFileSize(String filePath) {
@@ -382,6 +407,24 @@ public class DocumentProcessingService {
         }
     }
 
+    /**
+     * SHA-256 содержимого файла в hex, null при ошибке чтения
+     */
+    public String getFileHash(String filePath) {
+        try (InputStream inputStream = Files.newInputStream(Paths.get(filePath))) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (Exception e) {
+            log.error("Ошибка вычисления хеша файла: {}", filePath, e);
+            return null;
+        }
+    }
+
     /**
      * Обновляет оценочное количество чанков в документе
      */
@@ -400,48 +443,11 @@ public class DocumentProcessingService {
     }
 
     /**
-     * Оценивает количество чанков на основе размера файла и количества абзацев
+     * Количество чанков: каждый абзац обрабатывается отдельным чанком, а число абзацев
+     * известно из проверки документа при загрузке (непрочитанный документ там отклоняется)
      */
     public int estimateChunksCount(String filePath, int paragraphCount) {
-        try {
-            // Получаем размер файла
-            long fileSizeBytes = new File(filePath).length();
-            
-            // Базовая оценка на основе размера файла
-            int estimatedChunks;
-            
-            if (fileSizeBytes < 50 * 1024) { // < 50 KB
-                estimatedChunks = Math.max(5, paragraphCount);
-            } else if (fileSizeBytes < 200 * 1024) { // < 200 KB
-                estimatedChunks = Math.max(10, paragraphCount);
-            } else if (fileSizeBytes < 500 * 1024) { // < 500 KB
-                estimatedChunks = Math.max(15, paragraphCount);
-            } else if (fileSizeBytes < 1024 * 1024) { // < 1 MB
-                estimatedChunks = Math.max(20, paragraphCount);
-            } else if (fileSizeBytes < 3 * 1024 * 1024) { // < 3 MB
-                estimatedChunks = Math.max(30, paragraphCount);
-            } else {
-                // Для больших файлов используем формулу на основе размера
-                estimatedChunks = Math.max(40, (int)(fileSizeBytes / (30 * 1024)));
-            }
-            
-            log.info("Оценка количества чанков для файла {} (размер: {} KB): {}", 
-                filePath, fileSizeBytes/1024, estimatedChunks);
-            
-            return estimatedChunks;
-            
-        } catch (Exception e) {
-            log.error("Ошибка оценки количества чанков для файла {}", filePath, e);
-            return 22; // Возвращаем среднее значение по умолчанию
-        }
-    }
-
-    /**
-     * Метод для предварительного анализа документа и создания чанков
-     * Используется для оценки прогресса до начала обработки
-     */
-    public List<TextChunk> createTextChunksPreview(List<XWPFParagraph> paragraphs) {
-        log.info("Предварительное разделение документа на чанки, найдено {} абзацев", paragraphs.size());
-        return createTextChunks(paragraphs);
+        log.info("Количество чанков для файла {}: {} (по числу абзацев)", filePath, paragraphCount);
+        return paragraphCount;
     }
-} 
\ No newline at end of file
+}
@@ -1,43 +1,41 @@
 package com.practical.work.service;
 
 import com.practical.work.dto.DocumentUploadResponse;
-import com.practical.work.dto.TextChunk;
+import com.practical.work.dto.UploadIngestResult;
 import com.practical.work.entity.FileProcessingQueue;
 import com.practical.work.model.ProcessedDocument;
 import com.practical.work.model.User;
 import com.practical.work.repository.ProcessedDocumentRepository;
 import com.practical.work.event.FileQueuedEvent;
-import com.practical.work.event.DocumentChunksCountUpdatedEvent;
+import com.practical.work.exception.InsufficientPointsException;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.poi.xwpf.usermodel.XWPFDocument;
-import org.apache.poi.xwpf.usermodel.XWPFParagraph;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.multipart.MultipartFile;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 @Transactional
 public class DocumentService {
 
-    @Value("${app.file.upload-dir:uploads}")
-    private String uploadDir;
-
     @Autowired
     private ProcessedDocumentRepository documentRepository;
 
@@ -56,139 +54,199 @@ public class DocumentService {
     @Autowired
     private ApplicationEventPublisher eventPublisher;
 
-    public DocumentUploadResponse uploadDocument(MultipartFile file, User user) {
-        long startTime = System.currentTimeMillis();
+    @Autowired
+    private PipelineVersionService pipelineVersionService;
+
+    @Autowired
+    private DocumentStorage documentStorage;
 
-        if (user == null) {
-            log.error("Попытка загрузки файла неавторизованным пользователем");
-            return DocumentUploadResponse.builder()
-                .success(false)
-                .message("Пользователь не авторизован. Пожалуйста, войдите в систему.")
-                .build();
+    @Autowired
+    private RetentionService retentionService;
+
+    /**
+     * Регистрация принятого файла: документ сохраняется и ставится в очередь одной короткой транзакцией.
+     * Файл к этому моменту уже в хранилище и проверен (DocumentUploadService), поэтому соединение
+     * с базой не занято на время передачи тела запроса
+     */
+    public DocumentUploadResponse registerUpload(String fileName, UploadIngestResult ingestResult, User user,
+                                                 String previousFileId, long startTime) {
+        // Генерация уникального идентификатора файла
+        String fileId = UUID.randomUUID().toString();
+
+        long fileSize = ingestResult.getSize();
+        String contentHash = ingestResult.getContentHash();
+        String filePath = ingestResult.getFilePath();
+
+        // Тот же файл уже обработан текущей версией конвейера - результат выдается сразу
+        Optional<ProcessedDocument> cachedResult = findCachedResult(contentHash);
+        if (cachedResult.isPresent()) {
+            return registerCachedResult(cachedResult.get(), fileId, fileName, fileSize, filePath,
+                contentHash, user, startTime);
         }
 
-        String fileName = file.getOriginalFilename();
-        long fileSize = file.getSize();
-        
-        try {
-            log.info("Загрузка документа {} пользователем {} (размер: {} байт)", 
-                    fileName, user.getEmail(), fileSize);
-
-            // Проверка файла
-            if (file.isEmpty()) {
-                log.warn("Попытка загрузки пустого файла пользователем {}", user.getEmail());
-                return DocumentUploadResponse.builder()
-                    .success(false)
-                    .message("Файл пустой")
-                    .build();
-            }
+        // Оцениваем количество чанков по абзацам, посчитанным при приеме файла
+        int estimatedChunks = documentProcessingService.estimateChunksCount(filePath,
+            ingestResult.getParagraphCount());
+
+        // Создание записи в базе данных
+        ProcessedDocument document = ProcessedDocument.builder()
+            .fileId(fileId)
+            .originalFilename(fileName)
+            .originalFilePath(filePath)
+            .originalSize(fileSize)
+            .estimatedChunks(estimatedChunks)
+            .contentHash(contentHash)
+            .previousFileId(previousFileId)
+            .status(ProcessedDocument.ProcessingStatus.UPLOADED)
+            .user(user)
+            .build();
+
+        documentRepository.save(document);
+
+        // Добавляем файл в очередь обработки
+        FileProcessingQueue queueItem = fileQueueService.addToQueue(
+            fileId, 
+            fileName, 
+            filePath, 
+            fileSize, 
+            user
+        );
+
+        // Публикуем событие, что файл добавлен в очередь
+        eventPublisher.publishEvent(new FileQueuedEvent(this, fileId, queueItem.getId()));
+
+        // Получаем позицию в очереди
+        int queuePosition = fileQueueService.getQueuePosition(queueItem);
+        String queueMessage = queuePosition > 0 ? 
+            String.format(" Позиция в очереди: %d", queuePosition) : "";
+
+        long duration = System.currentTimeMillis() - startTime;
+        log.info("Документ загружен успешно и добавлен в очередь: {} ({} байт, {}ms)", fileId, fileSize, duration);
+
+        return DocumentUploadResponse.builder()
+            .success(true)
+            .fileId(fileId)
+            .originalName(fileName)
+            .size(fileSize)
+            .message("Файл загружен успешно и добавлен в очередь обработки." + queueMessage)
+            .queuePosition(queuePosition > 0 ? queuePosition : null)
+            .build();
+    }
 
-            if (!documentProcessingService.isValidWordDocument(file.getOriginalFilename())) {
-                return DocumentUploadResponse.builder()
-                    .success(false)
-                    .message("Неподдерживаемый тип файла. Поддерживаются только .doc и .docx")
-                    .build();
-            }
+    /**
+     * Поиск готового результата обработки такого же файла той же версией конвейера
+     */
+    private Optional<ProcessedDocument> findCachedResult(String contentHash) {
+        return documentRepository
+            .findFirstByContentHashAndPipelineVersionAndStatusOrderByProcessingCompletedAtDesc(
+                contentHash, pipelineVersionService.getCurrentVersion(), ProcessedDocument.ProcessingStatus.COMPLETED)
+            .filter(this::hasProcessedFile);
+    }
 
-            // Проверка поинтов пользователя
-            if (user.getPoints() < 1) {
-                return DocumentUploadResponse.builder()
-                    .success(false)
-                    .message("Недостаточно поинтов для обработки документа")
-                    .build();
-            }
+    /**
+     * Файл результата на месте или в холодном архиве
+     */
+    private boolean hasProcessedFile(ProcessedDocument document) {
+        return document.getProcessedFilePath() != null
+            && documentStorage.isAvailable(StorageArea.OUTPUTS, Paths.get(document.getProcessedFilePath()));
+    }
 
-            // Убираем проверку загрузки системы - теперь файлы идут в очередь
+    /**
+     * Регистрация документа, результат которого уже есть: без очереди, обработки и списания поинтов
+     */
+    private DocumentUploadResponse registerCachedResult(ProcessedDocument cached, String fileId, String fileName,
+                                                        long fileSize, String filePath, String contentHash,
+                                                        User user, long startTime) {
+        ProcessedDocument document = ProcessedDocument.builder()
+            .fileId(fileId)
+            .originalFilename(fileName)
+            .originalFilePath(filePath)
+            .originalSize(fileSize)
+            .contentHash(contentHash)
+            .user(user)
+            .build();
+        applyCachedResult(document, cached);
+
+        documentRepository.save(document);
+
+        long duration = System.currentTimeMillis() - startTime;
+        log.info("Документ {} совпадает с уже обработанным {}, результат выдан без обработки ({}ms)",
+            fileId, cached.getFileId(), duration);
+
+        return DocumentUploadResponse.builder()
+            .success(true)
+            .fileId(fileId)
+            .originalName(fileName)
+            .size(fileSize)
+            .message("Этот файл уже обрабатывался ранее, результат готов к скачиванию.")
+            .build();
+    }
 
-            // Создание директории для загрузок если она не существует
-            File uploadDirectory = new File(uploadDir);
-            if (!uploadDirectory.exists()) {
-                boolean created = uploadDirectory.mkdirs();
-                log.info("Создание папки uploads: {} - {}", uploadDirectory.getAbsolutePath(), created);
+    /**
+     * Перенос готового результата совпадающего документа: обработка не нужна
+     */
+    private void applyCachedResult(ProcessedDocument document, ProcessedDocument cached) {
+        LocalDateTime now = LocalDateTime.now();
+        document.setEstimatedChunks(cached.getEstimatedChunks());
+        document.setPipelineVersion(cached.getPipelineVersion());
+        document.setProcessedFilePath(cached.getProcessedFilePath());
+        document.setProcessedSize(cached.getProcessedSize());
+        document.setProcessedHash(cached.getProcessedHash());
+        document.setStatus(ProcessedDocument.ProcessingStatus.COMPLETED);
+        document.setProcessingStartedAt(now);
+        document.setProcessingCompletedAt(now);
+    }
+
+    /**
+     * Регистрация документов пакета одной транзакцией. Готовые результаты для всех отпечатков
+     * ищутся одним запросом; совпавшие документы сразу завершены, остальные ставятся в очередь
+     * в переданном порядке. Если поинтов пользователя не хватает на все документы, которым нужна
+     * обработка, пакет отклоняется целиком до постановки в очередь (InsufficientPointsException)
+     */
+    public List<ProcessedDocument> registerBatch(String batchId, List<ProcessedDocument> documents, User user) {
+        Set<String> hashes = documents.stream()
+            .map(ProcessedDocument::getContentHash)
+            .collect(Collectors.toSet());
+
+        Map<String, ProcessedDocument> cachedByHash = new HashMap<>();
+        for (ProcessedDocument cached : documentRepository.findByContentHashInAndPipelineVersionAndStatus(
+                hashes, pipelineVersionService.getCurrentVersion(), ProcessedDocument.ProcessingStatus.COMPLETED)) {
+            if (hasProcessedFile(cached)) {
+                cachedByHash.putIfAbsent(cached.getContentHash(), cached);
             }
+        }
 
-            // Генерация уникального идентификатора файла
-            String fileId = UUID.randomUUID().toString();
-            String storedFileName = fileId + "_" + file.getOriginalFilename();
-            File uploadFile = new File(uploadDirectory, storedFileName);
-            String filePath = uploadFile.getAbsolutePath();
-
-            // Сохранение файла на диск
-            file.transferTo(uploadFile);
-            
-            // Предварительная оценка количества чанков на основе размера файла
-            int paragraphCount = 0;
-            try {
-                // Пытаемся быстро посчитать абзацы для более точной оценки
-                XWPFDocument doc = new XWPFDocument(new FileInputStream(uploadFile));
-                paragraphCount = doc.getParagraphs().size();
-                doc.close();
-            } catch (Exception e) {
-                log.warn("Не удалось посчитать абзацы для предварительной оценки: {}", e.getMessage());
+        List<ProcessedDocument> toQueue = new ArrayList<>();
+        for (ProcessedDocument document : documents) {
+            document.setBatchId(batchId);
+            ProcessedDocument cached = cachedByHash.get(document.getContentHash());
+            if (cached != null) {
+                applyCachedResult(document, cached);
+            } else {
+                toQueue.add(document);
             }
-            
-            // Оцениваем количество чанков
-            int estimatedChunks = documentProcessingService.estimateChunksCount(filePath, paragraphCount);
-
-            // Создание записи в базе данных
-            ProcessedDocument document = ProcessedDocument.builder()
-                .fileId(fileId)
-                .originalFilename(file.getOriginalFilename())
-                .originalFilePath(filePath)
-                .originalSize(file.getSize())
-                .estimatedChunks(estimatedChunks)
-                .status(ProcessedDocument.ProcessingStatus.UPLOADED)
-                .user(user)
-                .build();
+        }
 
-            documentRepository.save(document);
+        // Готовые результаты бесплатны; остальные документы должны быть обеспечены поинтами сразу,
+        // иначе хвост пакета после ожидания в очереди завершился бы ошибкой нехватки поинтов
+        int availablePoints = userService.findById(user.getId()).getPoints();
+        if (toQueue.size() > availablePoints) {
+            throw new InsufficientPointsException(String.format(
+                "Недостаточно поинтов для обработки пакета: нужно %d, доступно %d", toQueue.size(), availablePoints));
+        }
 
-            // Добавляем файл в очередь обработки
-            FileProcessingQueue queueItem = fileQueueService.addToQueue(
-                fileId, 
-                file.getOriginalFilename(), 
-                filePath, 
-                file.getSize(), 
-                user
-            );
-
-            // Публикуем событие, что файл добавлен в очередь
-            eventPublisher.publishEvent(new FileQueuedEvent(this, fileId, queueItem.getId()));
-
-            // Получаем позицию в очереди
-            int queuePosition = fileQueueService.getQueuePosition(queueItem.getId());
-            String queueMessage = queuePosition > 0 ? 
-                String.format(" Позиция в очереди: %d", queuePosition) : "";
-
-            long duration = System.currentTimeMillis() - startTime;
-            log.info("Документ загружен успешно и добавлен в очередь: {} ({}ms)", fileId, duration);
-
-            return DocumentUploadResponse.builder()
-                .success(true)
-                .fileId(fileId)
-                .originalName(file.getOriginalFilename())
-                .size(file.getSize())
-                .message("Файл загружен успешно и добавлен в очередь обработки." + queueMessage)
-                .queuePosition(queuePosition > 0 ? queuePosition : null)
-                .build();
-
-        } catch (IOException e) {
-            long duration = System.currentTimeMillis() - startTime;
-            log.error("Ошибка загрузки файла {} пользователем {} ({}ms): {}", 
-                    fileName, user.getEmail(), duration, e.getMessage(), e);
-            return DocumentUploadResponse.builder()
-                .success(false)
-                .message("Ошибка сохранения файла: " + e.getMessage())
-                .build();
-        } catch (Exception e) {
-            long duration = System.currentTimeMillis() - startTime;
-            log.error("Неожиданная ошибка при загрузке файла {} пользователем {} ({}ms): {}", 
-                    fileName, user.getEmail(), duration, e.getMessage(), e);
-            return DocumentUploadResponse.builder()
-                .success(false)
-                .message("Внутренняя ошибка сервера")
-                .build();
+        documentRepository.saveAll(documents);
+        if (!toQueue.isEmpty()) {
+            fileQueueService.addBatchToQueue(batchId, toQueue);
         }
+
+        log.info("Пакет {} зарегистрирован: {} документов, {} в очереди, {} с готовым результатом",
+            batchId, documents.size(), toQueue.size(), documents.size() - toQueue.size());
+        return documents;
+    }
+
+    public List<ProcessedDocument> getBatchDocuments(String batchId, User user) {
+        return documentRepository.findByBatchIdAndUserIdOrderByIdAsc(batchId, user.getId());
     }
 
     public CompletableFuture<Boolean> processDocument(String fileId, User user) {
@@ -210,6 +268,12 @@ public class DocumentService {
                     return false;
                 }
 
+                // Готовый результат (в том числе найденный по отпечатку) повторно не обрабатывается
+                if (document.getStatus() == ProcessedDocument.ProcessingStatus.COMPLETED) {
+                    log.info("Документ {} уже обработан", fileId);
+                    return true;
+                }
+
                 // Проверка и списание поинтов
                 if (!userService.usePoints(user, 1)) {
                     log.error("У пользователя {} недостаточно поинтов для обработки документа {}", user.getEmail(), fileId);
@@ -221,46 +285,13 @@ public class DocumentService {
                 document.setProcessingStartedAt(LocalDateTime.now());
                 documentRepository.save(document);
                 
-                // Предварительное разделение на чанки для точного определения прогресса
-                String inputFilePath = document.getOriginalFilePath();
-                int chunksCount = 0;
-                
-                try {
-                    // Загрузка документа для анализа
-                    XWPFDocument docFile = new XWPFDocument(new FileInputStream(inputFilePath));
-                    List<XWPFParagraph> paragraphs = docFile.getParagraphs();
-                    
-                    // Создаем текстовые чанки для обработки
-                    List<TextChunk> textChunks = documentProcessingService.createTextChunksPreview(paragraphs);
-                    
-                    // Закрываем документ
-                    docFile.close();
-                    
-                    chunksCount = textChunks.size();
-                    log.info("Предварительный анализ документа {}: найдено {} чанков", fileId, chunksCount);
-                    
-                    // Обновляем количество чанков в базе данных
-                    document.setEstimatedChunks(chunksCount);
-                    documentRepository.save(document);
-                    
-                    // Публикуем событие об обновлении количества чанков
-                    eventPublisher.publishEvent(new DocumentChunksCountUpdatedEvent(this, fileId, chunksCount));
-                    
-                } catch (Exception e) {
-                    log.warn("Ошибка предварительного анализа документа {}: {}", fileId, e.getMessage());
-                    // Продолжаем обработку даже при ошибке анализа
-                }
-
-                // Обработка документа (теперь с точным количеством чанков)
+                // Обработка документа: один разбор DOCX, количество чанков
+                // публикуется самим конвейером обработки
                 String processedFilePath = documentProcessingService
                     .processDocument(document.getOriginalFilePath(), fileId).get();
 
                 // Обновление информации о документе
-                document.setProcessedFilePath(processedFilePath);
-                document.setProcessedSize(documentProcessingService.getFileSize(processedFilePath));
-                document.setStatus(ProcessedDocument.ProcessingStatus.COMPLETED);
-                document.setProcessingCompletedAt(LocalDateTime.now());
-                documentRepository.save(document);
+                completeProcessing(document, processedFilePath);
 
                 log.info("Документ {} обработан успешно", fileId);
                 return true;
@@ -289,6 +320,47 @@ public class DocumentService {
         });
     }
 
+    /**
+     * Отмечает начало обработки документа из очереди
+     */
+    public void markProcessingStarted(String fileId) {
+        documentRepository.findByFileId(fileId).ifPresent(document -> {
+            document.setStatus(ProcessedDocument.ProcessingStatus.PROCESSING);
+            document.setProcessingStartedAt(LocalDateTime.now());
+            documentRepository.save(document);
+        });
+    }
+
+    /**
+     * Сохраняет результат успешной обработки документа
+     */
+    public void completeProcessing(String fileId, String processedFilePath) {
+        documentRepository.findByFileId(fileId)
+            .ifPresent(document -> completeProcessing(document, processedFilePath));
+    }
+
+    /**
+     * Отмечает документ как обработанный с ошибкой
+     */
+    public void failProcessing(String fileId, String errorMessage) {
+        documentRepository.findByFileId(fileId).ifPresent(document -> {
+            document.setStatus(ProcessedDocument.ProcessingStatus.FAILED);
+            document.setErrorMessage(errorMessage);
+            documentRepository.save(document);
+        });
+    }
+
+    private void completeProcessing(ProcessedDocument document, String processedFilePath) {
+        document.setProcessedFilePath(processedFilePath);
+        document.setProcessedSize(documentProcessingService.getFileSize(processedFilePath));
+        document.setProcessedHash(documentProcessingService.getFileHash(processedFilePath));
+        document.setPipelineVersion(pipelineVersionService.getCurrentVersion());
+        document.setStatus(ProcessedDocument.ProcessingStatus.COMPLETED);
+        document.setProcessingCompletedAt(LocalDateTime.now());
+        document.setErrorMessage(null);
+        documentRepository.save(document);
+    }
+
     public Optional<ProcessedDocument> getDocument(String fileId) {
         return documentRepository.findByFileId(fileId);
     }
@@ -297,6 +369,18 @@ public class DocumentService {
         return documentRepository.findByUserOrderByCreatedAtDesc(user);
     }
 
+    /**
+     * Хеш обработанного файла для ETag; для документов, обработанных до его появления,
+     * вычисляется при первом скачивании и сохраняется
+     */
+    public String getProcessedHash(ProcessedDocument document) {
+        if (document.getProcessedHash() == null && document.getProcessedFilePath() != null) {
+            document.setProcessedHash(documentProcessingService.getFileHash(document.getProcessedFilePath()));
+            documentRepository.save(document);
+        }
+        return document.getProcessedHash();
+    }
+
     public File getProcessedFile(String fileId) throws IOException {
         Optional<ProcessedDocument> docOpt = documentRepository.findByFileId(fileId);
         if (docOpt.isEmpty()) {
@@ -308,11 +392,11 @@ public class DocumentService {
             throw new RuntimeException("Документ еще не обработан");
         }
 
-        File file = new File(document.getProcessedFilePath());
-        if (!file.exists()) {
+        try {
+            // Файл из холодного архива восстанавливается при обращении
+            return retentionService.openProcessedFile(document);
+        } catch (NoSuchFileException e) {
             throw new RuntimeException("Обработанный файл не найден на диске");
         }
-
-        return file;
     }
 } 
\ No newline at end of file
@@ -0,0 +1,63 @@
+package com.practical.work.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Хранилище документов с адресацией по содержимому: ключ объекта - SHA-256 его байтов.
+ * Одинаковые файлы хранятся один раз, а поиск объекта по ключу не зависит от их количества.
+ * Запись идет во временный файл и завершается commit(), поэтому читатели
+ * никогда не видят недописанный объект
+ */
+public interface DocumentStorage {
+
+    /**
+     * Временный файл для записи нового объекта в указанную область
+     */
+    Path createTempFile(StorageArea area) throws IOException;
+
+    /**
+     * Перенос записанного временного файла в хранилище под ключом contentHash.
+     * Если такой объект уже есть, временный файл удаляется. Возвращает путь объекта
+     */
+    Path commit(StorageArea area, Path tempFile, String contentHash) throws IOException;
+
+    /**
+     * Локальный путь объекта. Реализации с удаленным хранением (S3-совместимое хранилище)
+     * должны предоставлять здесь локальную копию
+     */
+    Path resolve(StorageArea area, String contentHash);
+
+    /**
+     * Есть ли объект в хранилище, в том числе в холодном архиве
+     */
+    boolean exists(StorageArea area, String contentHash);
+
+    /**
+     * Ключ объекта по его пути; пустой, если файл лежит вне хранилища (например, в старой раскладке)
+     */
+    Optional<String> keyOf(StorageArea area, Path path);
+
+    /**
+     * Доступен ли файл: лежит по пути или может быть восстановлен из холодного архива
+     */
+    boolean isAvailable(StorageArea area, Path path);
+
+    /**
+     * Перенос объекта в холодный архив со сжатием. false, если объекта нет в основном хранилище
+     */
+    boolean archive(StorageArea area, String contentHash) throws IOException;
+
+    /**
+     * Гарантирует наличие файла по пути: объект из холодного архива распаковывается обратно.
+     * Если файла нет ни там, ни там, выбрасывается NoSuchFileException
+     */
+    Path restore(StorageArea area, Path path) throws IOException;
+
+    /**
+     * Удаление объекта из всех уровней хранения. Вызывающий код отвечает за то,
+     * что на объект больше нет ссылок
+     */
+    boolean delete(StorageArea area, String contentHash) throws IOException;
+}
@@ -0,0 +1,178 @@
+package com.practical.work.service;
+
+import com.practical.work.dto.DocumentUploadResponse;
+import com.practical.work.dto.UploadIngestResult;
+import com.practical.work.exception.InvalidDocumentException;
+import com.practical.work.model.ProcessedDocument;
+import com.practical.work.model.User;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FilenameUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+
+/**
+ * Прием загружаемых документов. Сервис намеренно не транзакционный: тело запроса (до десятков MB
+ * от медленного клиента) пишется в хранилище, хешируется и проверяется без открытой транзакции
+ * и без занятого соединения с базой. В базе документ регистрируется и ставится в очередь
+ * одной короткой транзакцией DocumentService.registerUpload уже после приема файла
+ */
+@Service
+@Slf4j
+public class DocumentUploadService {
+
+    @Autowired
+    private DocumentService documentService;
+
+    @Autowired
+    private DocumentIngestService documentIngestService;
+
+    @Autowired
+    private DocumentProcessingService documentProcessingService;
+
+    public DocumentUploadResponse uploadDocument(MultipartFile file, User user) {
+        return uploadDocument(file, user, null);
+    }
+
+    /**
+     * Загрузка документа; previousFileId связывает его с предыдущей версией
+     * для инкрементальной обработки только измененных абзацев
+     */
+    public DocumentUploadResponse uploadDocument(MultipartFile file, User user, String previousFileId) {
+        if (user == null) {
+            return unauthorizedResponse();
+        }
+
+        // Проверка файла
+        if (file.isEmpty()) {
+            log.warn("Попытка загрузки пустого файла пользователем {}", user.getEmail());
+            return DocumentUploadResponse.builder()
+                .success(false)
+                .message("Файл пустой")
+                .build();
+        }
+
+        try (InputStream inputStream = file.getInputStream()) {
+            return uploadDocument(inputStream, file.getOriginalFilename(), user, previousFileId);
+        } catch (IOException e) {
+            log.error("Ошибка чтения загруженного файла {}: {}", file.getOriginalFilename(), e.getMessage(), e);
+            return DocumentUploadResponse.builder()
+                .success(false)
+                .message("Ошибка сохранения файла: " + e.getMessage())
+                .build();
+        }
+    }
+
+    /**
+     * Загрузка документа из потока (тела запроса или части multipart).
+     * Поток читается один раз: запись на диск, SHA-256 и проверка структуры DOCX
+     * выполняются в одном проходе, некорректный файл не попадает в очередь
+     */
+    public DocumentUploadResponse uploadDocument(InputStream body, String originalFilename, User user,
+                                                 String previousFileId) {
+        return upload(originalFilename, user, previousFileId, () -> documentIngestService.ingest(body));
+    }
+
+    /**
+     * Регистрация файла, собранного из частей сессии возобновляемой загрузки.
+     * Файл проверяется на месте и переносится в хранилище переименованием, без копирования
+     */
+    public DocumentUploadResponse uploadAssembledFile(File assembledFile, String originalFilename, User user,
+                                                      String previousFileId) {
+        return upload(originalFilename, user, previousFileId, () -> documentIngestService.ingestFile(assembledFile));
+    }
+
+    private DocumentUploadResponse upload(String originalFilename, User user, String previousFileId,
+                                          UploadStorage storage) {
+        long startTime = System.currentTimeMillis();
+
+        if (user == null) {
+            return unauthorizedResponse();
+        }
+
+        // Путь из имени файла в запросе отбрасывается
+        String fileName = FilenameUtils.getName(originalFilename);
+
+        try {
+            log.info("Загрузка документа {} пользователем {}", fileName, user.getEmail());
+
+            if (fileName == null || !documentProcessingService.isValidWordDocument(fileName)) {
+                return DocumentUploadResponse.builder()
+                    .success(false)
+                    .message("Неподдерживаемый тип файла. Поддерживаются только документы .docx")
+                    .build();
+            }
+
+            // Проверка поинтов пользователя
+            if (user.getPoints() < 1) {
+                return DocumentUploadResponse.builder()
+                    .success(false)
+                    .message("Недостаточно поинтов для обработки документа")
+                    .build();
+            }
+
+            // Предыдущая версия должна принадлежать тому же пользователю
+            if (previousFileId != null && !previousFileId.isBlank()) {
+                Optional<ProcessedDocument> previous = documentService.getDocument(previousFileId);
+                if (previous.isEmpty() || !previous.get().getUser().getId().equals(user.getId())) {
+                    return DocumentUploadResponse.builder()
+                        .success(false)
+                        .message("Предыдущая версия документа не найдена")
+                        .build();
+                }
+            } else {
+                previousFileId = null;
+            }
+
+            // Сохранение в хранилище, SHA-256 и проверка DOCX за один проход по файлу - вне транзакции.
+            // Одинаковые файлы хранятся один раз: путь определяется содержимым
+            UploadIngestResult ingestResult = storage.store();
+
+            return documentService.registerUpload(fileName, ingestResult, user, previousFileId, startTime);
+
+        } catch (InvalidDocumentException e) {
+            log.warn("Файл {} пользователя {} отклонен: {}", fileName, user.getEmail(), e.getMessage());
+            return DocumentUploadResponse.builder()
+                .success(false)
+                .message(e.getMessage())
+                .build();
+        } catch (IOException e) {
+            long duration = System.currentTimeMillis() - startTime;
+            log.error("Ошибка загрузки файла {} пользователем {} ({}ms): {}",
+                    fileName, user.getEmail(), duration, e.getMessage(), e);
+            return DocumentUploadResponse.builder()
+                .success(false)
+                .message("Ошибка сохранения файла: " + e.getMessage())
+                .build();
+        } catch (Exception e) {
+            long duration = System.currentTimeMillis() - startTime;
+            log.error("Неожиданная ошибка при загрузке файла {} пользователем {} ({}ms): {}",
+                    fileName, user.getEmail(), duration, e.getMessage(), e);
+            return DocumentUploadResponse.builder()
+                .success(false)
+                .message("Внутренняя ошибка сервера")
+                .build();
+        }
+    }
+
+    /**
+     * Способ размещения файла в хранилище с проверкой его содержимого
+     */
+    @FunctionalInterface
+    private interface UploadStorage {
+        UploadIngestResult store() throws IOException;
+    }
+
+    private DocumentUploadResponse unauthorizedResponse() {
+        log.error("Попытка загрузки файла неавторизованным пользователем");
+        return DocumentUploadResponse.builder()
+            .success(false)
+            .message("Пользователь не авторизован. Пожалуйста, войдите в систему.")
+            .build();
+    }
+}
@@ -0,0 +1,250 @@
+package com.practical.work.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.ZipPackage;
+import org.apache.poi.openxml4j.util.ZipInputStreamZipEntrySource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Загрузка DOCX с учетом объема памяти.
+ * Небольшие документы читаются из потока целиком в память, крупные открываются
+ * через OPCPackage.open(File): части архива (в том числе изображения) читаются с диска
+ * по требованию и не занимают кучу. Перед загрузкой для документа резервируется
+ * оценка занимаемой памяти из общего бюджета ResourceManager, поэтому несколько больших работ
+ * обрабатываются одновременно без OutOfMemoryError. Память, зарезервированная работой очереди
+ * при ее запуске, используется без повторного резерва. Слот CPU занимается только на время разбора
+ */
+@Service
+@Slf4j
+public class DocxPackageLoader {
+
+    private static final long MB = 1024 * 1024;
+
+    // Документы от этого размера открываются в файловом режиме
+    @Value("${app.docx.large-document-threshold-mb:10}")
+    private long largeDocumentThresholdMb;
+
+    // Записи архива крупнее порога при чтении из потока сохраняются во временные файлы
+    @Value("${app.docx.temp-file-threshold-mb:5}")
+    private int tempFileThresholdMb;
+
+    // Измененные части пакета хранить во временных файлах вместо памяти
+    @Value("${app.docx.temp-file-package-parts:false}")
+    private boolean tempFilePackageParts;
+
+    // Во сколько раз DOM занимает больше места, чем несжатый XML
+    @Value("${app.docx.xml-memory-factor:8}")
+    private int xmlMemoryFactor;
+
+    @Autowired
+    private ResourceManager resourceManager;
+
+    @PostConstruct
+    public void init() {
+        ZipInputStreamZipEntrySource.setThresholdBeforeUseTempFile((int) (tempFileThresholdMb * MB));
+        ZipPackage.setUseTempFilePackageParts(tempFilePackageParts);
+
+        log.info("Загрузка DOCX: файловый режим от {} MB, бюджет памяти {} MB, временные файлы для записей от {} MB",
+            largeDocumentThresholdMb, resourceManager.getCapacity(ResourceManager.Resource.MEMORY_MB), tempFileThresholdMb);
+    }
+
+    public LoadedDocument open(String filePath) throws IOException {
+        return open(filePath, null);
+    }
+
+    /**
+     * Открытие документа с резервированием памяти в счет резерва работы owner (идентификатор файла
+     * в очереди; null - отдельный резерв). Ожидает, пока в бюджете не освободится недостающая память.
+     * Слот CPU занимается только на время разбора. Документ закрывается вместе с LoadedDocument
+     */
+    public LoadedDocument open(String filePath, String owner) throws IOException {
+        File file = new File(filePath);
+        boolean fileBacked = isFileBacked(file);
+
+        int megabytes = toMegabytes(estimateMemoryBytes(file, fileBacked));
+        if (megabytes > resourceManager.getAvailable(ResourceManager.Resource.MEMORY_MB)) {
+            log.debug("Для документа {} нужно {} MB памяти (свободно {} MB)",
+                filePath, megabytes, resourceManager.getAvailable(ResourceManager.Resource.MEMORY_MB));
+        }
+
+        ResourceManager.Reservation reservation = reserve(owner, ResourceManager.Resource.MEMORY_MB, megabytes, filePath);
+        try {
+            CommittableXWPFDocument document;
+            try (ResourceManager.Reservation cpu = reserve(owner, ResourceManager.Resource.CPU, 1, filePath)) {
+                document = fileBacked ? openFileBacked(file) : openInMemory(file);
+            }
+            log.info("Документ {} открыт ({} режим, зарезервировано {} MB, свободно {} MB)",
+                file.getName(), fileBacked ? "файловый" : "потоковый",
+                reservation.get(ResourceManager.Resource.MEMORY_MB),
+                resourceManager.getAvailable(ResourceManager.Resource.MEMORY_MB));
+            return new LoadedDocument(document, file, fileBacked, reservation, owner);
+        } catch (IOException | RuntimeException e) {
+            reservation.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Оценка памяти документа в мегабайтах для резерва при запуске работы.
+     * Файл должен быть на диске: для файла из холодного архива оценка нулевая
+     */
+    public int estimateMemoryMb(String filePath) {
+        File file = new File(filePath);
+        return toMegabytes(estimateMemoryBytes(file, isFileBacked(file)));
+    }
+
+    private boolean isFileBacked(File file) {
+        return file.length() >= largeDocumentThresholdMb * MB;
+    }
+
+    /**
+     * Оценка памяти документа: DOM всех XML частей, а в потоковом режиме
+     * еще и содержимое записей архива, которые не ушли во временные файлы
+     */
+    long estimateMemoryBytes(File file, boolean fileBacked) {
+        long tempFileThreshold = tempFileThresholdMb * MB;
+        long xmlBytes = 0;
+        long bufferedBytes = 0;
+
+        try (ZipFile zipFile = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                long size = Math.max(entry.getSize(), entry.getCompressedSize());
+                String name = entry.getName();
+
+                if (name.endsWith(".xml") || name.endsWith(".rels")) {
+                    xmlBytes += size;
+                }
+                if (!fileBacked && size < tempFileThreshold) {
+                    bufferedBytes += size;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Не удалось прочитать оглавление архива {}: {}", file.getName(), e.getMessage());
+            return file.length() * xmlMemoryFactor;
+        }
+
+        return xmlBytes * xmlMemoryFactor + bufferedBytes;
+    }
+
+    /**
+     * Резерв ресурса документа в счет резерва работы owner с ожиданием.
+     * Документ больше всего бюджета памяти обрабатывается единолично
+     */
+    private ResourceManager.Reservation reserve(String owner, ResourceManager.Resource resource, int amount, String filePath)
+            throws InterruptedIOException {
+        try {
+            return resourceManager.acquireWithin(owner, resource, amount);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Прервано ожидание ресурса " + resource + " для документа " + filePath);
+        }
+    }
+
+    private static int toMegabytes(long bytes) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, (bytes + MB - 1) / MB));
+    }
+
+    private CommittableXWPFDocument openInMemory(File file) throws IOException {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            return new CommittableXWPFDocument(inputStream);
+        }
+    }
+
+    private CommittableXWPFDocument openFileBacked(File file) throws IOException {
+        OPCPackage opcPackage;
+        try {
+            // READ_WRITE нужен для сохранения в другой файл; исходный файл не изменяется, так как пакет закрывается через revert()
+            opcPackage = OPCPackage.open(file, PackageAccess.READ_WRITE);
+        } catch (InvalidFormatException e) {
+            throw new IOException("Некорректный формат DOCX: " + file.getName(), e);
+        }
+
+        try {
+            return new CommittableXWPFDocument(opcPackage);
+        } catch (IOException | RuntimeException e) {
+            opcPackage.revert();
+            throw e;
+        }
+    }
+
+    /**
+     * Открытый документ с зарезервированной памятью
+     */
+    public final class LoadedDocument implements Closeable {
+
+        private final CommittableXWPFDocument document;
+        private final File sourceFile;
+        private final boolean fileBacked;
+        private final ResourceManager.Reservation reservation;
+        private final String owner;
+        private boolean closed;
+
+        private LoadedDocument(CommittableXWPFDocument document, File sourceFile, boolean fileBacked,
+                               ResourceManager.Reservation reservation, String owner) {
+            this.document = document;
+            this.sourceFile = sourceFile;
+            this.fileBacked = fileBacked;
+            this.reservation = reservation;
+            this.owner = owner;
+        }
+
+        public CommittableXWPFDocument getDocument() {
+            return document;
+        }
+
+        /**
+         * Исходный файл, из которого открыт документ
+         */
+        public File getSourceFile() {
+            return sourceFile;
+        }
+
+        public boolean isFileBacked() {
+            return fileBacked;
+        }
+
+        /**
+         * Работа, в счет резерва которой открыт документ; null - отдельный резерв
+         */
+        public String getOwner() {
+            return owner;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            try {
+                if (fileBacked) {
+                    // close() записал бы изменения обратно в исходный файл
+                    document.getPackage().revert();
+                } else {
+                    document.close();
+                }
+            } finally {
+                reservation.close();
+            }
+        }
+    }
+}
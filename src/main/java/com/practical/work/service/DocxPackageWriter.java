@@ -0,0 +1,299 @@
+package com.practical.work.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackagingURIHelper;
+import org.apache.poi.openxml4j.opc.ZipPackagePart;
+import org.apache.poi.openxml4j.opc.internal.PackagePropertiesPart;
+import org.apache.poi.openxml4j.opc.internal.marshallers.ZipPackagePropertiesMarshaller;
+import org.apache.poi.openxml4j.opc.internal.marshallers.ZipPartMarshaller;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Сохранение DOCX с переносом нетронутых частей без перепаковки.
+ * Изображения, шрифты и вложения копируются из исходного архива как есть, в сжатом виде,
+ * а заново кодируются только измененные XML части. Время сохранения зависит от объема XML,
+ * а не от общего размера файла. Измененные части сжимаются параллельно блоками
+ */
+@Service
+@Slf4j
+public class DocxPackageWriter {
+
+    private static final String CONTENT_TYPES_ENTRY = "[Content_Types].xml";
+
+    // Размер блока для параллельного сжатия и окно словаря DEFLATE
+    static final int BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    @Value("${app.docx.compression-level:6}")
+    private int compressionLevel;
+
+    @Autowired
+    @Qualifier("compressionExecutor")
+    private Executor compressionExecutor;
+
+    @Autowired
+    private ResourceManager resourceManager;
+
+    /**
+     * Сохранение документа; на время записи занимается слот CPU в счет резерва работы документа
+     */
+    public void write(DocxPackageLoader.LoadedDocument loaded, File outputFile) throws IOException {
+        CommittableXWPFDocument document = loaded.getDocument();
+        OPCPackage opcPackage = document.getPackage();
+
+        try (ResourceManager.Reservation cpu = reserveCpu(loaded.getOwner(), outputFile);
+             ZipFile sourceZip = new ZipFile(loaded.getSourceFile())) {
+            List<PackagePart> parts = opcPackage.getParts();
+
+            // Добавленные или удаленные части меняют [Content_Types].xml, который копируется как есть
+            if (!hasSamePartSet(parts, sourceZip)) {
+                log.info("Состав частей пакета изменился, сохранение через POI: {}", outputFile.getName());
+                writeWithPoi(document, outputFile);
+                return;
+            }
+
+            document.commitParts();
+            writePassthrough(opcPackage, sourceZip, outputFile);
+        } catch (OpenXML4JException e) {
+            throw new IOException("Ошибка чтения частей пакета: " + e.getMessage(), e);
+        }
+    }
+
+    private ResourceManager.Reservation reserveCpu(String owner, File outputFile) throws InterruptedIOException {
+        try {
+            return resourceManager.acquireWithin(owner, ResourceManager.Resource.CPU, 1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Прервано ожидание слота CPU для записи " + outputFile.getName());
+        }
+    }
+
+    private void writePassthrough(OPCPackage opcPackage, ZipFile sourceZip, File outputFile)
+            throws IOException, OpenXML4JException {
+        // Части перечитываются после commitParts(): измененные заменены частями в памяти
+        List<PackagePart> parts = opcPackage.getParts();
+
+        // Сжатие всех измененных частей запускается заранее и идет параллельно с записью архива
+        Map<PackagePart, CompletableFuture<CompressedEntry>> compressed = new IdentityHashMap<>();
+        for (PackagePart part : parts) {
+            if (!part.isRelationshipPart() && !(part instanceof PackagePropertiesPart) && !(part instanceof ZipPackagePart)) {
+                byte[] data;
+                try (InputStream inputStream = part.getInputStream()) {
+                    data = inputStream.readAllBytes();
+                }
+                compressed.put(part, compressAsync(data));
+            }
+        }
+
+        int copied = 0;
+
+        try (ZipArchiveOutputStream zos = new ZipArchiveOutputStream(outputFile)) {
+            zos.setLevel(compressionLevel);
+            copyRawEntry(sourceZip, sourceZip.getEntry(CONTENT_TYPES_ENTRY), zos);
+
+            // Связи пакета (_rels/.rels)
+            ZipPartMarshaller.marshallRelationshipPart(opcPackage.getRelationships(),
+                PackagingURIHelper.PACKAGE_RELATIONSHIPS_ROOT_PART_NAME, zos);
+
+            for (PackagePart part : parts) {
+                if (part.isRelationshipPart()) {
+                    continue;
+                }
+
+                if (part instanceof PackagePropertiesPart) {
+                    new ZipPackagePropertiesMarshaller().marshall(part, zos);
+                } else if (part instanceof ZipPackagePart) {
+                    copyRawEntry(sourceZip, sourceZip.getEntry(entryName(part)), zos);
+                    copied++;
+                } else {
+                    writeCompressedEntry(entryName(part), await(compressed.get(part)), zos);
+                }
+
+                // Связи части небольшие и могли измениться, поэтому всегда записываются заново
+                if (part.hasRelationships()) {
+                    ZipPartMarshaller.marshallRelationshipPart(part.getRelationships(),
+                        PackagingURIHelper.getRelationshipPartName(part.getPartName()), zos);
+                }
+            }
+
+            zos.finish();
+        }
+
+        log.debug("Документ сохранен: {} частей скопировано без перепаковки, {} сжато заново",
+            copied, compressed.size());
+    }
+
+    /**
+     * Параллельное сжатие по схеме pigz: данные делятся на блоки, каждый блок сжимается
+     * отдельно со словарем из последних 32 KB предыдущего блока. Промежуточные блоки
+     * завершаются SYNC_FLUSH, последний - FINISH, поэтому их конкатенация является
+     * корректным DEFLATE потоком
+     */
+    CompletableFuture<CompressedEntry> compressAsync(byte[] data) {
+        int blockCount = Math.max(1, (data.length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+
+        List<CompletableFuture<byte[]>> blocks = new ArrayList<>(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            int start = i * BLOCK_SIZE;
+            int end = Math.min(data.length, start + BLOCK_SIZE);
+            boolean last = i == blockCount - 1;
+            blocks.add(CompletableFuture.supplyAsync(() -> deflateBlock(data, start, end, last), compressionExecutor));
+        }
+
+        CompletableFuture<Long> crc = CompletableFuture.supplyAsync(() -> {
+            CRC32 crc32 = new CRC32();
+            crc32.update(data, 0, data.length);
+            return crc32.getValue();
+        }, compressionExecutor);
+
+        return CompletableFuture.allOf(blocks.toArray(new CompletableFuture[0]))
+            .thenCombine(crc, (ignored, crcValue) -> {
+                ByteArrayOutputStream output = new ByteArrayOutputStream(data.length / 4 + 64);
+                for (CompletableFuture<byte[]> block : blocks) {
+                    output.writeBytes(block.join());
+                }
+                return new CompressedEntry(output.toByteArray(), data.length, crcValue);
+            });
+    }
+
+    private byte[] deflateBlock(byte[] data, int start, int end, boolean last) {
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try {
+            if (start > 0) {
+                int dictionaryStart = Math.max(0, start - DICTIONARY_SIZE);
+                deflater.setDictionary(data, dictionaryStart, start - dictionaryStart);
+            }
+            deflater.setInput(data, start, end - start);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream((end - start) / 4 + 64);
+            byte[] buffer = new byte[OUTPUT_BUFFER_SIZE];
+
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int length = deflater.deflate(buffer);
+                    output.write(buffer, 0, length);
+                }
+            } else {
+                // SYNC_FLUSH выравнивает блок по границе байта; заполненный буфер означает, что вывод не закончен
+                int length;
+                do {
+                    length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    output.write(buffer, 0, length);
+                } while (length == buffer.length);
+            }
+
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeCompressedEntry(String name, CompressedEntry compressedEntry, ZipArchiveOutputStream zos)
+            throws IOException {
+        ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setMethod(ZipEntry.DEFLATED);
+        entry.setSize(compressedEntry.getSize());
+        entry.setCompressedSize(compressedEntry.getData().length);
+        entry.setCrc(compressedEntry.getCrc());
+        zos.addRawArchiveEntry(entry, new ByteArrayInputStream(compressedEntry.getData()));
+    }
+
+    private CompressedEntry await(CompletableFuture<CompressedEntry> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw new IOException("Ошибка сжатия части документа", e.getCause());
+        }
+    }
+
+    private void copyRawEntry(ZipFile sourceZip, ZipArchiveEntry entry, ZipArchiveOutputStream zos) throws IOException {
+        try (InputStream rawStream = sourceZip.getRawInputStream(entry)) {
+            zos.addRawArchiveEntry(entry, rawStream);
+        }
+    }
+
+    private void writeWithPoi(CommittableXWPFDocument document, File outputFile) throws IOException {
+        try (FileOutputStream outputStream = new FileOutputStream(outputFile)) {
+            document.write(outputStream);
+        }
+    }
+
+    /**
+     * Совпадает ли набор частей пакета (без связей) с записями исходного архива
+     */
+    private boolean hasSamePartSet(List<PackagePart> parts, ZipFile sourceZip) {
+        if (sourceZip.getEntry(CONTENT_TYPES_ENTRY) == null) {
+            return false;
+        }
+
+        Set<String> partNames = new HashSet<>();
+        for (PackagePart part : parts) {
+            if (!part.isRelationshipPart()) {
+                partNames.add(entryName(part).toLowerCase(Locale.ROOT));
+            }
+        }
+
+        Set<String> entryNames = new HashSet<>();
+        Enumeration<ZipArchiveEntry> entries = sourceZip.getEntries();
+        while (entries.hasMoreElements()) {
+            ZipArchiveEntry entry = entries.nextElement();
+            String name = entry.getName();
+            if (!entry.isDirectory() && !name.equals(CONTENT_TYPES_ENTRY) && !name.endsWith(".rels")) {
+                entryNames.add(name.toLowerCase(Locale.ROOT));
+            }
+        }
+
+        return partNames.equals(entryNames);
+    }
+
+    private String entryName(PackagePart part) {
+        // Имя части в пакете начинается с "/", имя записи в архиве - без него
+        return part.getPartName().getName().substring(1);
+    }
+
+    /**
+     * Сжатая часть: DEFLATE поток без заголовка, исходный размер и CRC-32
+     */
+    @Getter
+    @AllArgsConstructor
+    static final class CompressedEntry {
+        private final byte[] data;
+        private final long size;
+        private final long crc;
+    }
+}
@@ -0,0 +1,174 @@
+package com.practical.work.service;
+
+import org.springframework.stereotype.Service;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Потоковое чтение word/document.xml через StAX без построения XWPFDocument.
+ * Используется на пути загрузки, где нужен только подсчет абзацев или текст,
+ * и работает в постоянной памяти независимо от размера документа
+ */
+@Service
+public class DocxStreamingReader {
+
+    private static final String WORDPROCESSING_NS = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+    private static final String DOCUMENT_PART = "word/document.xml";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+    /**
+     * Количество абзацев верхнего уровня (совпадает с XWPFDocument.getParagraphs().size())
+     */
+    public int countParagraphs(String filePath) throws IOException {
+        ParagraphCollector collector = new ParagraphCollector(false);
+        readDocumentPart(filePath, collector);
+        return collector.paragraphCount;
+    }
+
+    /**
+     * Подсчет абзацев по уже открытому потоку word/document.xml.
+     * Поток не закрывается, что позволяет читать запись прямо из ZipInputStream
+     */
+    public int countParagraphs(InputStream documentXml) throws IOException {
+        ParagraphCollector collector = new ParagraphCollector(false);
+        readPart(documentXml, collector);
+        return collector.paragraphCount;
+    }
+
+    /**
+     * Текст непустых абзацев верхнего уровня, разделенный переводами строк
+     */
+    public String extractText(String filePath) throws IOException {
+        ParagraphCollector collector = new ParagraphCollector(true);
+        readDocumentPart(filePath, collector);
+        return collector.text.toString();
+    }
+
+    private void readDocumentPart(String filePath, ParagraphCollector collector) throws IOException {
+        try (ZipFile zipFile = new ZipFile(filePath)) {
+            ZipEntry entry = zipFile.getEntry(DOCUMENT_PART);
+            if (entry == null) {
+                throw new IOException("В архиве отсутствует " + DOCUMENT_PART + ": " + filePath);
+            }
+
+            try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                readPart(inputStream, collector);
+            }
+        }
+    }
+
+    private void readPart(InputStream inputStream, ParagraphCollector collector) throws IOException {
+        try {
+            // XMLStreamReader.close() не закрывает исходный поток
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(inputStream);
+            try {
+                collector.read(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Ошибка разбора " + DOCUMENT_PART + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // Защита от XXE: документы приходят от пользователей
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        return factory;
+    }
+
+    /**
+     * Обход элементов w:body: абзацы считаются только на верхнем уровне тела документа,
+     * текст собирается из w:t, w:tab и w:br так же, как это делает XWPFParagraph.getText()
+     */
+    private static final class ParagraphCollector {
+
+        private final boolean collectText;
+        private final StringBuilder text = new StringBuilder();
+        private final StringBuilder paragraphText = new StringBuilder();
+        private int paragraphCount;
+
+        private ParagraphCollector(boolean collectText) {
+            this.collectText = collectText;
+        }
+
+        private void read(XMLStreamReader reader) throws XMLStreamException {
+            int depth = 0;
+            int bodyDepth = -1;
+            int paragraphDepth = -1;
+            int nestedParagraphDepth = -1;
+            boolean inText = false;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    if (!WORDPROCESSING_NS.equals(reader.getNamespaceURI())) {
+                        continue;
+                    }
+
+                    String name = reader.getLocalName();
+                    if (bodyDepth < 0) {
+                        if ("body".equals(name)) {
+                            bodyDepth = depth;
+                        }
+                    } else if (paragraphDepth < 0) {
+                        if ("p".equals(name) && depth == bodyDepth + 1) {
+                            paragraphDepth = depth;
+                            paragraphCount++;
+                            paragraphText.setLength(0);
+                        }
+                    } else if ("p".equals(name) && nestedParagraphDepth < 0) {
+                        // Вложенные абзацы (надписи внутри рисунков) в текст абзаца не входят
+                        nestedParagraphDepth = depth;
+                    } else if (collectText && nestedParagraphDepth < 0) {
+                        switch (name) {
+                            case "t" -> inText = true;
+                            case "tab" -> paragraphText.append('\t');
+                            case "br", "cr" -> paragraphText.append('\n');
+                            default -> { }
+                        }
+                    }
+                } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                    if (inText) {
+                        paragraphText.append(reader.getText());
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == nestedParagraphDepth) {
+                        nestedParagraphDepth = -1;
+                    } else if (depth == paragraphDepth) {
+                        paragraphDepth = -1;
+                        if (collectText && !isBlank(paragraphText)) {
+                            text.append(paragraphText).append('\n');
+                        }
+                    } else if (depth == bodyDepth) {
+                        return;
+                    }
+                    inText = false;
+                    depth--;
+                }
+            }
+        }
+
+        private static boolean isBlank(CharSequence value) {
+            for (int i = 0; i < value.length(); i++) {
+                if (!Character.isWhitespace(value.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.practical.work.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Снимок ожидающих файлов по пользователям для оценки позиции при справедливой очереди.
+ * Строится на такте опроса очереди (FileQueueService.refreshFairShareBacklog), а не при каждом запросе позиции.
+ * Оценка: до k-го файла пользователя каждый другой пользователь v успеет получить пропорционально своему весу,
+ * но не больше своих ожидающих файлов: k + сумма min(ожидает у v, ceil(k * вес v / вес пользователя)).
+ * Пользователи сгруппированы по весу (весов всего несколько - по планам подписки), внутри группы
+ * число ожидающих файлов отсортировано с префиксными суммами, поэтому оценка стоит O(W log U), а не O(U)
+ */
+public final class FairShareBacklog {
+
+    private final Map<Long, Integer> weights;
+    private final Map<Long, Long> pending;
+
+    private final int[] groupWeights;
+    private final long[][] groupPending; // По возрастанию
+    private final long[][] groupPrefixSums; // groupPrefixSums[g][i] - сумма первых i элементов
+
+    /**
+     * @param weights вес пользователя; отсутствующий или неположительный считается равным 1
+     * @param pending число ожидающих файлов каждого пользователя с ожидающими файлами
+     */
+    public FairShareBacklog(Map<Long, Integer> weights, Map<Long, Long> pending) {
+        this.weights = new HashMap<>();
+        this.pending = Map.copyOf(pending);
+
+        TreeMap<Integer, List<Long>> groups = new TreeMap<>();
+        pending.forEach((userId, count) -> {
+            int weight = Math.max(1, weights.getOrDefault(userId, 1));
+            this.weights.put(userId, weight);
+            groups.computeIfAbsent(weight, key -> new ArrayList<>()).add(count);
+        });
+
+        groupWeights = new int[groups.size()];
+        groupPending = new long[groups.size()][];
+        groupPrefixSums = new long[groups.size()][];
+        int group = 0;
+        for (Map.Entry<Integer, List<Long>> entry : groups.entrySet()) {
+            long[] counts = entry.getValue().stream().mapToLong(Long::longValue).sorted().toArray();
+            long[] sums = new long[counts.length + 1];
+            for (int i = 0; i < counts.length; i++) {
+                sums[i + 1] = sums[i] + counts[i];
+            }
+            groupWeights[group] = entry.getKey();
+            groupPending[group] = counts;
+            groupPrefixSums[group] = sums;
+            group++;
+        }
+    }
+
+    /**
+     * Оценка позиции файла, который k-й (rank) среди ожидающих файлов пользователя с весом ownWeight
+     */
+    public int position(Long userId, int ownWeight, long rank) {
+        long position = rank;
+        for (int group = 0; group < groupWeights.length; group++) {
+            long share = shareOf(rank, ownWeight, groupWeights[group]);
+            long[] counts = groupPending[group];
+            // Пользователи, у которых ожидает меньше доли, отдают все свои файлы, остальные - долю
+            int below = splitIndex(counts, share);
+            position += groupPrefixSums[group][below] + share * (counts.length - below);
+        }
+
+        // Собственные файлы пользователя уже учтены в rank
+        Long own = pending.get(userId);
+        if (own != null) {
+            position -= fairShareAhead(rank, ownWeight, weights.get(userId), own);
+        }
+        return (int) Math.min(Integer.MAX_VALUE, position);
+    }
+
+    public Set<Long> users() {
+        return pending.keySet();
+    }
+
+    /**
+     * Сколько файлов другого пользователя (вес otherWeight, ожидает pending) пройдет раньше
+     * k-го файла пользователя с весом ownWeight при справедливой очереди
+     */
+    static long fairShareAhead(long rank, int ownWeight, int otherWeight, long pending) {
+        return Math.min(pending, shareOf(rank, ownWeight, otherWeight));
+    }
+
+    private static long shareOf(long rank, int ownWeight, int otherWeight) {
+        long own = Math.max(1, ownWeight);
+        return (rank * otherWeight + own - 1) / own;
+    }
+
+    /**
+     * Граница между значениями меньше value и не меньше; для значения, равного доле, обе стороны
+     * дают одно и то же, поэтому подходит любая позиция среди равных
+     */
+    private static int splitIndex(long[] sorted, long value) {
+        int index = Arrays.binarySearch(sorted, value);
+        return index >= 0 ? index : -index - 1;
+    }
+}
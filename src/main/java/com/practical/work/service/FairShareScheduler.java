@@ -0,0 +1,112 @@
+package com.practical.work.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Справедливое распределение очереди между пользователями (круговой обход с дефицитом).
+ * Пользователи с ожидающими файлами стоят в кольце; в свой ход пользователь получает кредит
+ * QUANTUM x вес и забирает файлы, пока кредит положителен, затем ход переходит к следующему.
+ * Стоимость файла - число его потоков обработки, поэтому доля считается по работе, а не по числу файлов.
+ * Кредит может уйти в минус на стоимость последнего файла и учитывается в следующем ходе;
+ * у пользователя, чья очередь опустела, кредит сбрасывается. Пользователь, загрузивший сотни файлов,
+ * не задерживает остальных дольше, чем на один свой ход
+ */
+@Component
+public class FairShareScheduler {
+
+    // Кредит хода пользователя с весом 1 - стоимость самого крупного файла (3 потока)
+    static final int QUANTUM = 3;
+
+    private final ArrayDeque<Long> ring = new ArrayDeque<>();
+    private final Map<Long, Integer> deficits = new HashMap<>();
+    private final Map<Long, Integer> weights = new ConcurrentHashMap<>();
+
+    // Пользователь, уже получивший кредит за текущий ход
+    private Long creditedUser;
+
+    public void updateWeight(Long userId, int weight) {
+        weights.put(userId, Math.max(1, weight));
+    }
+
+    public int weightOf(Long userId) {
+        return weights.getOrDefault(userId, 1);
+    }
+
+    /**
+     * Пользователь, чей сейчас ход, среди пользователей с ожидающими файлами
+     */
+    public synchronized Optional<Long> currentUser(Collection<Long> backlogged) {
+        List<Long> order = turnOrder(backlogged);
+        return order.isEmpty() ? Optional.empty() : Optional.of(order.get(0));
+    }
+
+    /**
+     * Порядок обхода пользователей начиная с того, чей сейчас ход. В режиме distributed
+     * файлы текущего пользователя могут быть захвачены другими узлами - тогда берется следующий
+     */
+    public synchronized List<Long> turnOrder(Collection<Long> backlogged) {
+        synchronize(backlogged);
+
+        while (!ring.isEmpty()) {
+            Long head = ring.peekFirst();
+            if (!head.equals(creditedUser)) {
+                deficits.merge(head, QUANTUM * weightOf(head), Integer::sum);
+                creditedUser = head;
+            }
+            if (deficits.get(head) > 0) {
+                break;
+            }
+
+            // Кредит исчерпан - ход переходит к следующему пользователю
+            ring.addLast(ring.pollFirst());
+            creditedUser = null;
+        }
+        return new ArrayList<>(ring);
+    }
+
+    /**
+     * Списание стоимости взятого в обработку файла с кредита пользователя
+     */
+    public synchronized void charge(Long userId, int cost) {
+        if (deficits.containsKey(userId)) {
+            deficits.merge(userId, -Math.max(1, cost), Integer::sum);
+        }
+    }
+
+    /**
+     * Кольцо приводится к текущему набору пользователей с ожидающими файлами:
+     * ушедшие удаляются вместе с кредитом, новые встают в конец
+     */
+    private void synchronize(Collection<Long> backlogged) {
+        Set<Long> active = backlogged instanceof Set<Long> set ? set : new HashSet<>(backlogged);
+
+        ring.removeIf(userId -> {
+            if (active.contains(userId)) {
+                return false;
+            }
+            deficits.remove(userId);
+            return true;
+        });
+        if (creditedUser != null && !deficits.containsKey(creditedUser)) {
+            creditedUser = null;
+        }
+
+        for (Long userId : active) {
+            if (!deficits.containsKey(userId)) {
+                deficits.put(userId, 0);
+                ring.addLast(userId);
+            }
+        }
+    }
+}
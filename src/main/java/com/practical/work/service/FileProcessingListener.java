@@ -4,15 +4,33 @@ import com.practical.work.entity.FileProcessingQueue;
 import com.practical.work.event.FileQueuedEvent;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.event.EventListener;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Обработчик очереди: забирает файлы, пока хватает ресурсов, и ведет их аренду.
+ * На веб-узлах (app.queue.consume: false) не создается - там файлы только ставятся в очередь
+ */
 @Service
 @Slf4j
+@ConditionalOnProperty(name = "app.queue.consume", havingValue = "true", matchIfMissing = true)
 public class FileProcessingListener {
 
     @Autowired
@@ -21,63 +39,186 @@ public class FileProcessingListener {
     @Autowired
     private DocumentProcessingService documentProcessingService;
 
-    // Множество для отслеживания активных обработок
-    private final ConcurrentHashMap<String, Integer> activeProcessings = new ConcurrentHashMap<>();
+    @Autowired
+    private DocumentService documentService;
+
+    @Autowired
+    private ResourceManager resourceManager;
+
+    @Autowired
+    private DocxPackageLoader docxPackageLoader;
+
+    @Autowired
+    private DocumentStorage documentStorage;
+
+    @Autowired
+    @Qualifier("queueDispatchExecutor")
+    private Executor queueDispatchExecutor;
+
+    // Наименьшая работа: без свободных ресурсов на нее очередь не опрашивается.
+    // Слот CPU берется только на время разбора и записи документа (DocxPackageLoader, DocxPackageWriter),
+    // а не на всю работу, большую часть которой занимают обращения к модели
+    private static final Map<ResourceManager.Resource, Integer> MIN_DEMAND = Map.of(
+        ResourceManager.Resource.INFERENCE, 1,
+        ResourceManager.Resource.MEMORY_MB, 1
+    );
 
-    @EventListener
+    // Активные обработки и зарезервированные под них ресурсы
+    private final ConcurrentHashMap<String, ResourceManager.Reservation> activeProcessings = new ConcurrentHashMap<>();
+
+    // Исходные файлы, которые не удалось восстановить из холодного архива: такие файлы не задерживают
+    // очередь и запускаются без восстановления, ошибка обработки учитывается в попытках очереди
+    private final Set<String> failedRestores = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Событие обрабатывается после фиксации транзакции постановки, иначе обработчик мог не увидеть запись
+     * или взять файл, постановка которого затем откатится. Запуск идет в отдельном потоке, а не в потоке запроса
+     */
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
     public void handleFileQueuedEvent(FileQueuedEvent event) {
         log.info("📥 Получено событие для файла: {}. Начинаем проверку ресурсов.", event.getFileId());
-        processNextInQueue();
+        requestDispatch();
     }
 
-    private void processNextInQueue() {
-        if (!hasAvailableResources()) {
-            log.info("🚦 Все ресурсы заняты. Новые задачи будут ждать освобождения.");
-            return;
+    /**
+     * В режиме distributed файлы ставят в очередь и другие узлы, поэтому очередь опрашивается.
+     * На этом же такте в обоих режимах обновляется снимок пользователей справедливой очереди
+     */
+    @Scheduled(fixedDelayString = "${app.queue.poll-ms:5000}")
+    public void pollQueue() {
+        fileQueueService.refreshFairShareBacklog();
+        if (fileQueueService.isDistributed()) {
+            processNextInQueue();
         }
+    }
+
+    /**
+     * Продление аренды файлов, которые обрабатывает этот узел
+     */
+    @Scheduled(fixedRateString = "${app.queue.heartbeat-ms:30000}")
+    public void renewLeases() {
+        fileQueueService.renewLeases(List.copyOf(activeProcessings.keySet()));
+    }
+
+    /**
+     * Возврат в очередь файлов узлов, переставших продлевать аренду
+     */
+    @Scheduled(fixedRateString = "${app.queue.reclaim-ms:60000}")
+    public void reclaimExpiredLeases() {
+        for (FileProcessingQueue item : fileQueueService.reclaimExpiredLeases()) {
+            documentService.failProcessing(item.getFileId(), item.getErrorMessage());
+        }
+        processNextInQueue();
+    }
+
+    private void requestDispatch() {
+        queueDispatchExecutor.execute(this::processNextInQueue);
+    }
+
+    /**
+     * Запускает файлы из очереди, пока хватает ресурсов: одно событие пакета
+     * или одно завершение обработки может освободить место для нескольких файлов.
+     * Ресурсы резервируются до того, как запись очереди переходит в PROCESSING,
+     * поэтому файл, на который ресурсов не хватило, остается в очереди
+     */
+    private synchronized void processNextInQueue() {
+        while (true) {
+            if (!resourceManager.canFit(MIN_DEMAND)) {
+                log.info("🚦 Все ресурсы заняты. Новые задачи будут ждать освобождения.");
+                return;
+            }
 
-        Optional<FileProcessingQueue> nextFile = fileQueueService.getNextForProcessing();
+            AtomicReference<ResourceManager.Reservation> reserved = new AtomicReference<>();
+            AtomicReference<String> archivedOriginal = new AtomicReference<>();
+            Optional<FileProcessingQueue> nextFile;
+            try {
+                nextFile = fileQueueService.getNextForProcessing(item -> reserve(item, reserved, archivedOriginal));
+            } catch (RuntimeException e) {
+                releaseIfPresent(reserved);
+                throw e;
+            }
 
-        if (nextFile.isPresent()) {
-            FileProcessingQueue file = nextFile.get();
-            if (canProcessFile(file.getEstimatedThreads())) {
-                processFileAsync(file);
-            } else {
-                log.debug("⏳ Недостаточно ресурсов для файла {} (нужно {} потоков)",
-                        file.getOriginalFilename(), file.getEstimatedThreads());
+            if (nextFile.isEmpty()) {
+                releaseIfPresent(reserved);
+                // Следующий файл в холодном архиве: восстанавливается вне транзакции выбора, затем выбор повторяется
+                if (archivedOriginal.get() != null) {
+                    restoreOriginal(archivedOriginal.get());
+                    continue;
+                }
+                log.debug("📭 Нет файлов, для которых хватает ресурсов - ожидаем новых файлов или освобождения ресурсов");
+                return;
             }
-        } else {
-            log.debug("📭 Очередь пуста - ожидаем новых файлов");
+
+            processFileAsync(nextFile.get(), reserved.get());
         }
     }
 
-    private boolean hasAvailableResources() {
-        int totalUsedThreads = activeProcessings.values().stream().mapToInt(Integer::intValue).sum();
-        // TODO: Перенести в конфигурацию
-        return totalUsedThreads < 6;
+    /**
+     * Резерв ресурсов под файл на всю обработку: слоты модели по числу потоков обработки
+     * и оценка памяти открытого документа. Память оценивается по оглавлению архива, поэтому
+     * файл из холодного архива сначала восстанавливается - иначе оценка была бы нулевой,
+     * а DocxPackageLoader ждал бы всю память при открытии, уже занимая слоты модели
+     */
+    private boolean reserve(FileProcessingQueue item, AtomicReference<ResourceManager.Reservation> reserved,
+                            AtomicReference<String> archivedOriginal) {
+        Path original = Paths.get(item.getFilePath());
+        if (!Files.exists(original) && !failedRestores.remove(item.getFilePath())
+                && documentStorage.isAvailable(StorageArea.ORIGINALS, original)) {
+            archivedOriginal.set(item.getFilePath());
+            return false;
+        }
+
+        Map<ResourceManager.Resource, Integer> demand = Map.of(
+            ResourceManager.Resource.INFERENCE, item.getEstimatedThreads(),
+            ResourceManager.Resource.MEMORY_MB, docxPackageLoader.estimateMemoryMb(item.getFilePath())
+        );
+
+        Optional<ResourceManager.Reservation> reservation = resourceManager.tryAcquire(item.getFileId(), demand);
+        if (reservation.isEmpty()) {
+            log.debug("⏳ Недостаточно ресурсов для файла {} (нужно {})", item.getOriginalFilename(), demand);
+            return false;
+        }
+        reserved.set(reservation.get());
+        return true;
     }
 
-    private boolean canProcessFile(int requiredThreads) {
-        int totalUsedThreads = activeProcessings.values().stream().mapToInt(Integer::intValue).sum();
-        // TODO: Перенести в конфигурацию
-        return (totalUsedThreads + requiredThreads) <= 6;
+    private void restoreOriginal(String filePath) {
+        try {
+            documentStorage.restore(StorageArea.ORIGINALS, Paths.get(filePath));
+        } catch (IOException e) {
+            log.error("Не удалось восстановить исходный файл {} из холодного архива: {}", filePath, e.getMessage());
+            failedRestores.add(filePath);
+        }
     }
 
-    private void processFileAsync(FileProcessingQueue queueItem) {
+    private void releaseIfPresent(AtomicReference<ResourceManager.Reservation> reserved) {
+        ResourceManager.Reservation reservation = reserved.getAndSet(null);
+        if (reservation != null) {
+            reservation.close();
+        }
+    }
+
+    private void processFileAsync(FileProcessingQueue queueItem, ResourceManager.Reservation reservation) {
         String fileId = queueItem.getFileId();
-        int threadsUsed = queueItem.getEstimatedThreads();
+        int threadsUsed = reservation.get(ResourceManager.Resource.INFERENCE);
 
-        activeProcessings.put(fileId, threadsUsed);
+        activeProcessings.put(fileId, reservation);
 
-        log.info("🚀 Начинаем обработку файла: {} (ID: {}, потоков: {}). Активных обработок: {}",
-                queueItem.getOriginalFilename(), fileId, threadsUsed, activeProcessings.size());
+        log.info("🚀 Начинаем обработку файла: {} (ID: {}, потоков: {}, памяти: {} MB). Активных обработок: {}",
+                queueItem.getOriginalFilename(), fileId, threadsUsed,
+                reservation.get(ResourceManager.Resource.MEMORY_MB), activeProcessings.size());
 
         CompletableFuture.runAsync(() -> {
             try {
-                documentProcessingService.processDocument(
+                documentService.markProcessingStarted(fileId);
+
+                // Дожидаемся записи результата, иначе файл отмечался выполненным до окончания обработки
+                String processedFilePath = documentProcessingService.processDocument(
                         queueItem.getFilePath(),
                         fileId
-                );
+                ).get();
+
+                documentService.completeProcessing(fileId, processedFilePath);
                 fileQueueService.markAsCompleted(fileId);
                 log.info("✅ Файл {} успешно обработан", queueItem.getOriginalFilename());
 
@@ -86,13 +227,22 @@ public class FileProcessingListener {
                         queueItem.getOriginalFilename(), e);
                 fileQueueService.markAsFailed(fileId, e.getMessage());
 
+                // Документ считается неуспешным только после исчерпания попыток в очереди
+                boolean retriesExhausted = fileQueueService.getQueueStatus(fileId)
+                        .map(item -> item.getStatus() == FileProcessingQueue.QueueStatus.FAILED)
+                        .orElse(true);
+                if (retriesExhausted) {
+                    documentService.failProcessing(fileId, e.getMessage());
+                }
+
             } finally {
                 activeProcessings.remove(fileId);
+                reservation.close();
                 log.info("🔄 Обработка {} завершена. Активных обработок: {}. Проверяем очередь...",
                         queueItem.getOriginalFilename(), activeProcessings.size());
 
                 // Проверяем, не освободилось ли место для следующего файла
-                processNextInQueue();
+                requestDispatch();
             }
         });
     }
@@ -102,6 +252,6 @@ public class FileProcessingListener {
     }
 
     public int getTotalUsedThreads() {
-        return activeProcessings.values().stream().mapToInt(Integer::intValue).sum();
+        return resourceManager.getUsed(ResourceManager.Resource.INFERENCE);
     }
 } 
\ No newline at end of file
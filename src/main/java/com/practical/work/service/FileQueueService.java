@@ -3,19 +3,40 @@ package com.practical.work.service;
 import com.practical.work.entity.FileProcessingQueue;
 import com.practical.work.entity.FileProcessingQueue.QueueStatus;
 import com.practical.work.entity.FileProcessingQueue.Priority;
+import com.practical.work.event.FileQueuedEvent;
+import com.practical.work.model.ProcessedDocument;
 import com.practical.work.model.User;
 import com.practical.work.repository.FileProcessingQueueRepository;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Scope;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 
 @Service
 @Scope("singleton")
@@ -26,7 +47,41 @@ public class FileQueueService {
     private FileProcessingQueueRepository queueRepository;
 
     @Autowired
-    private ProcessingMetricsService metricsService;
+    private PendingQueueIndex pendingQueueIndex;
+
+    @Autowired
+    private FairShareScheduler fairShareScheduler;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    // Режим очереди: local - один экземпляр приложения выбирает файлы по индексу в памяти,
+    // distributed - несколько узлов захватывают записи в базе через SELECT ... FOR UPDATE SKIP LOCKED
+    @Value("${app.queue.mode:local}")
+    private String queueMode;
+
+    // Идентификатор узла в аренде записей; пусто - случайный при каждом запуске
+    @Value("${app.queue.node-id:}")
+    private String nodeId;
+
+    // Срок аренды взятого файла; узел продлевает ее, пока обработка идет
+    @Value("${app.queue.lease-seconds:120}")
+    private long leaseSeconds;
+
+    // Разбирает ли этот экземпляр очередь; false - веб-узел, который только ставит файлы в очередь
+    @Value("${app.queue.consume:true}")
+    private boolean consumer;
+
+    // Справедливая очередь: пользователи получают ходы по очереди с весом по плану подписки;
+    // false - общий порядок по приоритету и времени постановки
+    @Value("${app.queue.fair-share:true}")
+    private boolean fairShare;
+
+    // Такт опроса очереди: с этим периодом обновляется снимок пользователей справедливой очереди
+    @Value("${app.queue.poll-ms:5000}")
+    private long pollMs;
+
+    private static final int MAX_RETRIES = 3;
 
     // Размеры файлов для определения приоритета
     private static final long SMALL_FILE_THRESHOLD = 1024 * 1024; // 1 MB
@@ -36,6 +91,128 @@ public class FileQueueService {
     private final AtomicReference<QueueStatistics> cachedStats = new AtomicReference<>();
     private final AtomicReference<LocalDateTime> lastStatsUpdate = new AtomicReference<>();
 
+    // Расхождение индекса с таблицей, замеченное при предыдущей проверке
+    private volatile boolean indexMismatchSeen;
+
+    // Пользователи с ожидающими файлами для справедливой очереди в режиме distributed.
+    // Читается из таблицы на такте опроса, а не при каждом захвате файла
+    private final Set<Long> fairShareBacklog = ConcurrentHashMap.newKeySet();
+
+    // Число ожидающих файлов и веса пользователей для оценки позиций при справедливой очереди.
+    // Обновляется на такте опроса, а не при каждом запросе позиции
+    private final AtomicReference<FairShareBacklog> pendingByUser = new AtomicReference<>();
+    private volatile long pendingByUserUpdatedAt;
+
+    @PostConstruct
+    public void init() {
+        if (nodeId == null || nodeId.isBlank()) {
+            nodeId = "node-" + UUID.randomUUID();
+        }
+        log.info("Очередь обработки: режим {}, узел {}, аренда {} с, обработчик: {}, справедливая очередь: {}",
+            queueMode, nodeId, leaseSeconds, consumer ? "да" : "нет", fairShare ? "да" : "нет");
+        if (!consumer && !isDistributed()) {
+            // В режиме local очередь разбирается только по событиям внутри одного экземпляра
+            log.warn("Узел не обрабатывает очередь, а режим очереди local: файлы, поставленные этим узлом, "
+                + "будут обработаны только узлами-обработчиками в режиме distributed");
+        }
+    }
+
+    public boolean isDistributed() {
+        return "distributed".equalsIgnoreCase(queueMode);
+    }
+
+    public boolean isConsumer() {
+        return consumer;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Построение индекса ожидающих файлов из таблицы очереди при старте.
+     * Файлы, ожидавшие до перезапуска, сразу передаются обработчику очереди.
+     * В режиме distributed индекс не строится: файлы ставят и берут и другие узлы
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadPendingIndex() {
+        if (isDistributed()) {
+            log.info("Очередь в режиме distributed: {} файлов ожидают обработки",
+                queueRepository.countByStatus(QueueStatus.PENDING));
+            return;
+        }
+
+        List<FileProcessingQueue> pending = queueRepository.findByStatusOrderByCreatedAtAsc(QueueStatus.PENDING);
+        pendingQueueIndex.rebuild(pending);
+        updatePendingByUser(refreshUserWeights());
+        log.info("Индекс очереди построен: {} файлов ожидают обработки", pending.size());
+
+        if (!pending.isEmpty()) {
+            eventPublisher.publishEvent(new FileQueuedEvent(this, pending.get(0).getFileId(), pending.get(0).getId()));
+        }
+    }
+
+    /**
+     * Сверка индекса с таблицей очереди по числу и сумме идентификаторов ожидающих записей:
+     * так замечается и запись, оставшаяся в индексе вместо пропавшей из него. Кратковременное
+     * расхождение возможно между записью в таблицу и фиксацией транзакции, поэтому индекс
+     * исправляется, только если расхождение видно две проверки подряд
+     */
+    @Scheduled(fixedRate = 60000) // Каждую минуту
+    public void verifyPendingIndex() {
+        if (isDistributed()) {
+            return;
+        }
+
+        Object[] summary = queueRepository.summarizeIdsByStatus(QueueStatus.PENDING).get(0);
+        long pendingInTable = ((Number) summary[0]).longValue();
+        long idSumInTable = ((Number) summary[1]).longValue();
+        if (pendingInTable == pendingQueueIndex.size() && idSumInTable == pendingQueueIndex.idSum()) {
+            indexMismatchSeen = false;
+            return;
+        }
+
+        if (indexMismatchSeen) {
+            log.warn("Индекс очереди расходится с таблицей ({} в индексе, {} в таблице), сверяем по содержимому",
+                pendingQueueIndex.size(), pendingInTable);
+            reconcilePendingIndex();
+            indexMismatchSeen = false;
+        } else {
+            indexMismatchSeen = true;
+        }
+    }
+
+    /**
+     * Исправление индекса по списку идентификаторов ожидающих записей: лишние записи удаляются,
+     * из таблицы читаются только недостающие строки. Снимок индекса берется до запроса к таблице,
+     * чтобы не удалить запись, добавленную уже после него
+     */
+    private void reconcilePendingIndex() {
+        Set<Long> indexed = pendingQueueIndex.ids();
+        Set<Long> pendingIds = new HashSet<>(queueRepository.findIdsByStatus(QueueStatus.PENDING));
+
+        int removed = 0;
+        for (Long id : indexed) {
+            if (!pendingIds.contains(id)) {
+                pendingQueueIndex.remove(id);
+                removed++;
+            }
+        }
+
+        pendingIds.removeAll(indexed);
+        List<FileProcessingQueue> missing = queueRepository.findAllById(pendingIds).stream()
+            .filter(item -> item.getStatus() == QueueStatus.PENDING)
+            .toList();
+        missing.forEach(pendingQueueIndex::add);
+        log.info("Индекс очереди сверен с таблицей: удалено {}, добавлено {}", removed, missing.size());
+
+        // Найденные записи могли не дождаться события постановки - обработчик очереди запускается заново
+        if (!missing.isEmpty()) {
+            updatePendingByUser(refreshUserWeights());
+            eventPublisher.publishEvent(new FileQueuedEvent(this, missing.get(0).getFileId(), missing.get(0).getId()));
+        }
+    }
+
     /**
      * Добавляет файл в очередь обработки
      */
@@ -43,11 +220,49 @@ public class FileQueueService {
     public FileProcessingQueue addToQueue(String fileId, String originalFilename, 
                                         String filePath, long fileSizeBytes, User user) {
         
+        FileProcessingQueue queueItem = newQueueItem(fileId, originalFilename, filePath, fileSizeBytes, user);
+        FileProcessingQueue saved = queueRepository.save(queueItem);
+        updateUserWeight(user);
+        indexAdd(saved);
+        backlogAdd(user);
+        
+        log.info("Файл {} добавлен в очередь обработки. Приоритет: {}, потоков: {}, позиция в очереди: {}", 
+            originalFilename, saved.getPriority(), saved.getEstimatedThreads(), getQueuePosition(saved));
+        
+        return saved;
+    }
+
+    /**
+     * Добавляет документы пакета в очередь одной операцией, в переданном порядке.
+     * Позиции в очереди для каждого файла не вычисляются
+     */
+    @Transactional
+    public List<FileProcessingQueue> addBatchToQueue(String batchId, List<ProcessedDocument> documents) {
+        List<FileProcessingQueue> queueItems = new ArrayList<>(documents.size());
+        for (ProcessedDocument document : documents) {
+            FileProcessingQueue queueItem = newQueueItem(document.getFileId(), document.getOriginalFilename(),
+                document.getOriginalFilePath(), document.getOriginalSize(), document.getUser());
+            queueItem.setBatchId(batchId);
+            queueItems.add(queueItem);
+        }
+
+        List<FileProcessingQueue> saved = queueRepository.saveAll(queueItems);
+        if (!documents.isEmpty()) {
+            updateUserWeight(documents.get(0).getUser());
+            backlogAdd(documents.get(0).getUser());
+        }
+        saved.forEach(this::indexAdd);
+        log.info("Пакет {} добавлен в очередь обработки: {} файлов", batchId, saved.size());
+        return saved;
+    }
+
+    private FileProcessingQueue newQueueItem(String fileId, String originalFilename,
+                                             String filePath, long fileSizeBytes, User user) {
         // Определяем приоритет и количество потоков
         Priority priority = calculatePriority(fileSizeBytes);
         int estimatedThreads = calculateThreadsForFile(fileSizeBytes);
 
-        FileProcessingQueue queueItem = FileProcessingQueue.builder()
+        return FileProcessingQueue.builder()
             .fileId(fileId)
             .originalFilename(originalFilename)
             .filePath(filePath)
@@ -58,53 +273,259 @@ public class FileQueueService {
             .estimatedThreads(estimatedThreads)
             .retryCount(0)
             .build();
-
-        FileProcessingQueue saved = queueRepository.save(queueItem);
-        
-        log.info("Файл {} добавлен в очередь обработки. Приоритет: {}, потоков: {}, позиция в очереди: {}", 
-            originalFilename, priority, estimatedThreads, getQueuePosition(saved.getId()));
-        
-        return saved;
     }
 
     /**
-     * Получает следующий файл для обработки
+     * Получает следующий файл для обработки и берет его в аренду этим узлом.
+     * В режиме local порядок берется из индекса в памяти и из таблицы читается только выбранная запись;
+     * в режиме distributed запись захватывается блокировкой строки, которую другие узлы пропускают.
+     * admission вызывается до смены статуса записи и резервирует ресурсы узла под файл;
+     * если ресурсов не хватает, запись остается в очереди
      */
     @Transactional
-    public Optional<FileProcessingQueue> getNextForProcessing() {
-        List<FileProcessingQueue> pendingFiles = queueRepository
-            .findNextForProcessing(QueueStatus.PENDING);
-        
-        if (pendingFiles.isEmpty()) {
+    public Optional<FileProcessingQueue> getNextForProcessing(Predicate<FileProcessingQueue> admission) {
+        Optional<FileProcessingQueue> next = isDistributed() ? lockNextPending() : findNextPending();
+        if (next.isEmpty()) {
             return Optional.empty();
         }
 
-        // Проверяем, можем ли мы обработать файл (есть ли свободные ресурсы)
-        ProcessingMetricsService.GlobalMetrics metrics = metricsService.getGlobalMetrics();
-        FileProcessingQueue nextFile = pendingFiles.get(0);
-        
-        // Проверяем, хватит ли ресурсов для обработки этого файла
-        int requiredThreads = nextFile.getEstimatedThreads();
-        int availableCapacity = metrics.getMaxConcurrentFiles() - metrics.getActiveProcessings();
-        
-        if (availableCapacity > 0) {
-            // Начинаем обработку
-            nextFile.setStatus(QueueStatus.PROCESSING);
-            nextFile.setStartedAt(LocalDateTime.now());
-            
-            FileProcessingQueue updated = queueRepository.save(nextFile);
-            log.info("Файл {} взят из очереди для обработки. Потребуется потоков: {}", 
-                nextFile.getOriginalFilename(), requiredThreads);
-            
-            return Optional.of(updated);
+        FileProcessingQueue nextFile = next.get();
+        if (!admission.test(nextFile)) {
+            log.debug("Файл {} ожидает в очереди - недостаточно ресурсов", nextFile.getOriginalFilename());
+            return Optional.empty();
+        }
+
+        // Начинаем обработку
+        LocalDateTime now = LocalDateTime.now();
+        nextFile.setStatus(QueueStatus.PROCESSING);
+        nextFile.setStartedAt(now);
+        nextFile.setLeaseOwner(nodeId);
+        nextFile.setLeaseExpiresAt(now.plusSeconds(leaseSeconds));
+
+        FileProcessingQueue updated = queueRepository.save(nextFile);
+        indexRemove(updated.getId());
+        if (fairShare) {
+            Long userId = updated.getUser().getId();
+            int cost = updated.getEstimatedThreads();
+            afterCommit(() -> fairShareScheduler.charge(userId, cost));
+        }
+        log.info("Файл {} взят из очереди для обработки. Потребуется потоков: {}", 
+            nextFile.getOriginalFilename(), nextFile.getEstimatedThreads());
+
+        return Optional.of(updated);
+    }
+
+    private Optional<FileProcessingQueue> findNextPending() {
+        while (true) {
+            Optional<Long> nextId = fairShare
+                ? fairShareScheduler.currentUser(pendingQueueIndex.backloggedUsers()).flatMap(pendingQueueIndex::peekForUser)
+                : pendingQueueIndex.peek();
+            if (nextId.isEmpty()) {
+                return Optional.empty();
+            }
+
+            // Запись, изменившаяся в обход индекса (удалена, уже взята), из индекса убирается
+            Optional<FileProcessingQueue> candidate = queueRepository.findById(nextId.get());
+            if (candidate.isPresent() && candidate.get().getStatus() == QueueStatus.PENDING) {
+                return candidate;
+            }
+            pendingQueueIndex.remove(nextId.get());
+        }
+    }
+
+    private Optional<FileProcessingQueue> lockNextPending() {
+        return fairShare ? lockNextPendingFairShare() : lockNextPendingByPriority();
+    }
+
+    private Optional<FileProcessingQueue> lockNextPendingByPriority() {
+        for (Priority priority : PendingQueueIndex.DISPATCH_ORDER) {
+            Optional<FileProcessingQueue> locked = queueRepository.lockNextPending(priority.name());
+            if (locked.isPresent()) {
+                return locked;
+            }
         }
-        
-        log.debug("Файл {} ожидает в очереди - недостаточно ресурсов. Требуется: {}, доступно: {}", 
-            nextFile.getOriginalFilename(), requiredThreads, availableCapacity);
-        
         return Optional.empty();
     }
 
+    /**
+     * Захват файла пользователя, чей сейчас ход. Набор пользователей с ожидающими файлами обновляется
+     * из таблицы на такте опроса (refreshFairShareBacklog), так как файлы ставят и другие узлы.
+     * Если все файлы пользователя уже захвачены другими узлами, он убирается из набора до следующего
+     * обновления и берется файл следующего по кругу. Файлы пользователей, появившихся после
+     * обновления набора, берутся в общем порядке, чтобы узел не простаивал до следующего такта
+     */
+    private Optional<FileProcessingQueue> lockNextPendingFairShare() {
+        for (Long userId : fairShareScheduler.turnOrder(Set.copyOf(fairShareBacklog))) {
+            Optional<FileProcessingQueue> locked = queueRepository.lockNextPendingForUser(userId);
+            if (locked.isPresent()) {
+                return locked;
+            }
+            fairShareBacklog.remove(userId);
+        }
+        return lockNextPendingByPriority();
+    }
+
+    /**
+     * Обновление снимка ожидающих файлов по пользователям для оценки позиций при справедливой очереди;
+     * вызывается обработчиком очереди на такте опроса. В режиме local снимок строится по индексу
+     * без запросов к базе, в режиме distributed - одним запросом с группировкой, который заодно
+     * обновляет набор пользователей с ожидающими файлами и их веса
+     */
+    public void refreshFairShareBacklog() {
+        if (!fairShare) {
+            return;
+        }
+        if (!isDistributed()) {
+            Map<Long, Long> pending = pendingQueueIndex.pendingByUser();
+            Map<Long, Integer> weights = new HashMap<>();
+            pending.keySet().forEach(userId -> weights.put(userId, fairShareScheduler.weightOf(userId)));
+            updatePendingByUser(new FairShareBacklog(weights, pending));
+            return;
+        }
+        FairShareBacklog backlog = refreshUserWeights();
+        updatePendingByUser(backlog);
+        fairShareBacklog.retainAll(backlog.users());
+        fairShareBacklog.addAll(backlog.users());
+    }
+
+    /**
+     * Снимок для оценки позиций. На узле без обработчика очереди (веб-узел) такта опроса нет,
+     * поэтому устаревший больше чем на период опроса снимок обновляется при обращении -
+     * не чаще одного раза за период, сколько бы запросов позиции ни пришло
+     */
+    private FairShareBacklog fairShareSnapshot() {
+        if (pendingByUser.get() == null || System.currentTimeMillis() - pendingByUserUpdatedAt > pollMs) {
+            synchronized (pendingByUser) {
+                if (pendingByUser.get() == null || System.currentTimeMillis() - pendingByUserUpdatedAt > pollMs) {
+                    refreshFairShareBacklog();
+                }
+            }
+        }
+        return pendingByUser.get();
+    }
+
+    private void updatePendingByUser(FairShareBacklog backlog) {
+        pendingByUser.set(backlog);
+        pendingByUserUpdatedAt = System.currentTimeMillis();
+    }
+
+    private void backlogAdd(User user) {
+        if (isDistributed() && fairShare && user != null) {
+            Long userId = user.getId();
+            afterCommit(() -> fairShareBacklog.add(userId));
+        }
+    }
+
+    /**
+     * Изменения индекса ожидающих файлов; в режиме distributed индекс не ведется
+     */
+    private void indexAdd(FileProcessingQueue item) {
+        if (!isDistributed()) {
+            afterCommit(() -> pendingQueueIndex.add(item));
+        }
+    }
+
+    private void indexRemove(Long queueId) {
+        if (!isDistributed()) {
+            afterCommit(() -> pendingQueueIndex.remove(queueId));
+        }
+    }
+
+    /**
+     * Действие после фиксации текущей транзакции: откат не оставляет в индексе записей, которых нет
+     * в таблице, и обработчик очереди не выбирает запись, пока ее не видят другие транзакции.
+     * Вне транзакции действие выполняется сразу
+     */
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private void updateUserWeight(User user) {
+        if (user != null) {
+            fairShareScheduler.updateWeight(user.getId(), User.SubscriptionPlan.queueWeightOf(user.getSubscriptionPlan()));
+        }
+    }
+
+    /**
+     * Обновление весов пользователей с ожидающими файлами по их планам подписки.
+     * Возвращает число ожидающих файлов и вес каждого такого пользователя, прочитанные одним запросом
+     */
+    private FairShareBacklog refreshUserWeights() {
+        Map<Long, Integer> weights = new HashMap<>();
+        Map<Long, Long> pending = new HashMap<>();
+        for (Object[] row : queueRepository.countByStatusGroupByUser(QueueStatus.PENDING)) {
+            Long userId = (Long) row[0];
+            int weight = User.SubscriptionPlan.queueWeightOf((User.SubscriptionPlan) row[1]);
+            fairShareScheduler.updateWeight(userId, weight);
+            weights.put(userId, weight);
+            pending.put(userId, ((Number) row[2]).longValue());
+        }
+        return new FairShareBacklog(weights, pending);
+    }
+
+    /**
+     * Продление аренды файлов, которые обрабатывает этот узел
+     */
+    @Transactional
+    public void renewLeases(Collection<String> fileIds) {
+        if (fileIds.isEmpty()) {
+            return;
+        }
+
+        int renewed = queueRepository.renewLeases(nodeId, QueueStatus.PROCESSING, fileIds,
+            LocalDateTime.now().plusSeconds(leaseSeconds));
+        if (renewed < fileIds.size()) {
+            log.warn("Аренда продлена для {} из {} файлов: часть файлов возвращена в очередь другим узлом",
+                renewed, fileIds.size());
+        }
+    }
+
+    /**
+     * Возврат в очередь файлов, аренда которых истекла: узел, обрабатывавший их, остановился или завис.
+     * Возврат считается попыткой обработки; файлы, исчерпавшие попытки, помечаются как неуспешные
+     * и возвращаются вызывающему коду
+     */
+    @Transactional
+    public List<FileProcessingQueue> reclaimExpiredLeases() {
+        LocalDateTime now = LocalDateTime.now();
+        List<Long> expiredIds = queueRepository.findStuckProcessing(QueueStatus.PROCESSING, now).stream()
+            .map(FileProcessingQueue::getId)
+            .toList();
+
+        List<FileProcessingQueue> failed = new ArrayList<>();
+        for (Long id : expiredIds) {
+            // Условное обновление: запись возвращает только один узел
+            if (queueRepository.reclaimExpiredLease(id, QueueStatus.PENDING, QueueStatus.PROCESSING, now) == 0) {
+                continue;
+            }
+
+            queueRepository.findById(id).ifPresent(item -> {
+                if (item.getRetryCount() >= MAX_RETRIES) {
+                    item.setStatus(QueueStatus.FAILED);
+                    item.setErrorMessage("Обработка прервана: истек срок аренды узла");
+                    queueRepository.save(item);
+                    failed.add(item);
+                    log.error("Файл {} помечен как неуспешно обработанный: аренда истекла {} раз",
+                        item.getOriginalFilename(), item.getRetryCount());
+                } else {
+                    indexAdd(item);
+                    log.warn("Аренда файла {} истекла, файл возвращен в очередь. Попытка {}/{}",
+                        item.getOriginalFilename(), item.getRetryCount(), MAX_RETRIES);
+                }
+            });
+        }
+        return failed;
+    }
+
     /**
      * Отмечает файл как успешно обработанный
      */
@@ -114,7 +535,10 @@ public class FileQueueService {
         if (queueItem.isPresent()) {
             FileProcessingQueue item = queueItem.get();
             item.setStatus(QueueStatus.COMPLETED);
+            item.setLeaseOwner(null);
+            item.setLeaseExpiresAt(null);
             queueRepository.save(item);
+            indexRemove(item.getId());
             
             log.info("Файл {} успешно обработан и удален из очереди", item.getOriginalFilename());
         }
@@ -128,11 +552,21 @@ public class FileQueueService {
         Optional<FileProcessingQueue> queueItem = queueRepository.findByFileId(fileId);
         if (queueItem.isPresent()) {
             FileProcessingQueue item = queueItem.get();
+
+            // Аренда истекла и файл уже возвращен в очередь (или взят другим узлом) - попытка учтена там
+            if (item.getStatus() != QueueStatus.PROCESSING || !nodeId.equals(item.getLeaseOwner())) {
+                log.warn("Файл {} больше не арендован этим узлом, ошибка обработки не учитывается: {}",
+                    item.getOriginalFilename(), errorMessage);
+                return;
+            }
+
             item.setRetryCount(item.getRetryCount() + 1);
             item.setErrorMessage(errorMessage);
+            item.setLeaseOwner(null);
+            item.setLeaseExpiresAt(null);
             
             // Если превышено количество попыток - помечаем как failed
-            if (item.getRetryCount() >= 3) {
+            if (item.getRetryCount() >= MAX_RETRIES) {
                 item.setStatus(QueueStatus.FAILED);
                 log.error("Файл {} помечен как неуспешно обработанный после {} попыток: {}", 
                     item.getOriginalFilename(), item.getRetryCount(), errorMessage);
@@ -140,11 +574,16 @@ public class FileQueueService {
                 // Возвращаем в очередь для повторной попытки
                 item.setStatus(QueueStatus.PENDING);
                 item.setStartedAt(null);
-                log.warn("Файл {} возвращен в очередь для повторной обработки. Попытка {}/3. Ошибка: {}", 
-                    item.getOriginalFilename(), item.getRetryCount(), errorMessage);
+                log.warn("Файл {} возвращен в очередь для повторной обработки. Попытка {}/{}. Ошибка: {}", 
+                    item.getOriginalFilename(), item.getRetryCount(), MAX_RETRIES, errorMessage);
             }
             
             queueRepository.save(item);
+            if (item.getStatus() == QueueStatus.PENDING) {
+                indexAdd(item);
+            } else {
+                indexRemove(item.getId());
+            }
         }
     }
 
@@ -169,18 +608,113 @@ public class FileQueueService {
     }
 
     /**
-     * Получает позицию файла в очереди
+     * Получает позицию файла в очереди; -1, если файл не ожидает обработки.
+     * В режиме distributed позиция считается запросами к таблице, которую видят все узлы.
+     * При справедливой очереди номер файла среди файлов владельца считается точно, а очереди
+     * остальных пользователей берутся из снимка, обновляемого на такте опроса
      */
-    public int getQueuePosition(Long queueId) {
-        List<FileProcessingQueue> queue = queueRepository
-            .findNextForProcessing(QueueStatus.PENDING);
-        
-        for (int i = 0; i < queue.size(); i++) {
-            if (queue.get(i).getId().equals(queueId)) {
-                return i + 1;
+    public int getQueuePosition(FileProcessingQueue item) {
+        if (isDistributed()) {
+            if (item.getStatus() != QueueStatus.PENDING) {
+                return -1;
+            }
+            return fairShare && item.getUser() != null
+                ? fairSharePosition(item.getUser().getId(), userRankInTable(item))
+                : databasePosition(item);
+        }
+        if (!pendingQueueIndex.contains(item.getId())) {
+            if (item.getStatus() != QueueStatus.PENDING) {
+                return -1;
+            }
+            // Постановка еще не зафиксирована: запись попадет в индекс после фиксации транзакции
+            return fairShare && item.getUser() != null
+                ? fairSharePosition(item.getUser().getId(),
+                    pendingQueueIndex.projectedUserRank(item.getUser().getId(), item.getPriority()))
+                : pendingQueueIndex.projectedPosition(item.getPriority());
+        }
+        if (fairShare && item.getUser() != null) {
+            int rank = pendingQueueIndex.userRank(item.getId());
+            return rank > 0 ? fairSharePosition(item.getUser().getId(), rank) : -1;
+        }
+        return pendingQueueIndex.position(item.getId());
+    }
+
+    /**
+     * Позиции всех ожидающих файлов пользователя, по возрастанию позиции
+     */
+    public List<QueuePosition> getUserQueuePositions(Long userId) {
+        List<FileProcessingQueue> pending = new ArrayList<>(queueRepository
+            .findByUserIdAndStatusInOrderByCreatedAtDesc(userId, List.of(QueueStatus.PENDING)));
+
+        // При справедливой очереди в режиме distributed номер файла среди файлов пользователя
+        // известен из этого же списка
+        boolean fromTable = isDistributed() && fairShare;
+        pending.sort(Comparator.<FileProcessingQueue>comparingInt(item -> PendingQueueIndex.dispatchRank(item.getPriority()))
+            .thenComparing(FileProcessingQueue::getId));
+
+        List<QueuePosition> positions = new ArrayList<>(pending.size());
+        for (int i = 0; i < pending.size(); i++) {
+            FileProcessingQueue item = pending.get(i);
+            int position = fromTable ? fairSharePosition(userId, i + 1) : getQueuePosition(item);
+            if (position > 0) {
+                positions.add(QueuePosition.builder()
+                    .fileId(item.getFileId())
+                    .originalFilename(item.getOriginalFilename())
+                    .priority(item.getPriority())
+                    .position(position)
+                    .build());
             }
         }
-        return -1; // Не найден в очереди
+        positions.sort(Comparator.comparingInt(QueuePosition::getPosition));
+        return positions;
+    }
+
+    /**
+     * Число файлов, ожидающих обработки
+     */
+    public int getPendingCount() {
+        return isDistributed()
+            ? (int) queueRepository.countByStatus(QueueStatus.PENDING)
+            : pendingQueueIndex.size();
+    }
+
+    /**
+     * Позиция в общем порядке по таблице: более приоритетные записи и записи того же приоритета,
+     * поставленные раньше. Оба подсчета идут по индексу (status, priority, id)
+     */
+    private int databasePosition(FileProcessingQueue item) {
+        List<Priority> higher = higherPriorities(item.getPriority());
+        long ahead = queueRepository.countByStatusAndPriorityAndIdLessThan(
+            QueueStatus.PENDING, item.getPriority(), item.getId());
+        if (!higher.isEmpty()) {
+            ahead += queueRepository.countByStatusAndPriorityIn(QueueStatus.PENDING, higher);
+        }
+        return (int) Math.min(Integer.MAX_VALUE, ahead + 1);
+    }
+
+    /**
+     * Номер записи среди ожидающих файлов ее владельца по таблице
+     */
+    private int userRankInTable(FileProcessingQueue item) {
+        Long userId = item.getUser().getId();
+        List<Priority> higher = higherPriorities(item.getPriority());
+        long ahead = queueRepository.countByUserIdAndStatusAndPriorityAndIdLessThan(
+            userId, QueueStatus.PENDING, item.getPriority(), item.getId());
+        if (!higher.isEmpty()) {
+            ahead += queueRepository.countByUserIdAndStatusAndPriorityIn(userId, QueueStatus.PENDING, higher);
+        }
+        return (int) Math.min(Integer.MAX_VALUE, ahead + 1);
+    }
+
+    /**
+     * Оценка позиции при справедливой очереди для rank-го файла пользователя (FairShareBacklog)
+     */
+    private int fairSharePosition(Long userId, int rank) {
+        return fairShareSnapshot().position(userId, fairShareScheduler.weightOf(userId), rank);
+    }
+
+    private static List<Priority> higherPriorities(Priority priority) {
+        return Arrays.asList(PendingQueueIndex.DISPATCH_ORDER).subList(0, PendingQueueIndex.dispatchRank(priority));
     }
 
     /**
@@ -218,8 +752,9 @@ public class FileQueueService {
     }
 
     /**
-     * Очистка старых записей (можно вызывать по расписанию)
+     * Очистка старых записей очереди
      */
+    @Scheduled(fixedRate = 86400000, initialDelay = 600000) // Раз в сутки
     @Transactional
     public void cleanupOldRecords() {
         LocalDateTime cutoffDate = LocalDateTime.now().minusDays(7);
@@ -249,6 +784,15 @@ public class FileQueueService {
         }
     }
 
+    @lombok.Data
+    @lombok.Builder
+    public static class QueuePosition {
+        private String fileId;
+        private String originalFilename;
+        private Priority priority;
+        private int position;
+    }
+
     @lombok.Data
     @lombok.Builder
     public static class QueueStatistics {
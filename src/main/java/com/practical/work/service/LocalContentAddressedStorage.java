@@ -0,0 +1,290 @@
+package com.practical.work.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Локальное хранилище с адресацией по содержимому.
+ * Объект с ключом abcdef... лежит в {область}/ab/cd/abcdef....docx: два уровня по 256 каталогов
+ * держат число записей в каждом каталоге небольшим при любом объеме хранилища.
+ * Временные файлы пишутся в {область}/.tmp на той же файловой системе и переносятся
+ * атомарным переименованием.
+ * Холодный архив - отдельный каталог (по умолчанию {область}/cold, может быть другим томом)
+ * с той же раскладкой, объекты в нем сжаты gzip и распаковываются обратно при обращении
+ */
+@Service
+@Slf4j
+public class LocalContentAddressedStorage implements DocumentStorage {
+
+    private static final String TEMP_DIR = ".tmp";
+    private static final String EXTENSION = ".docx";
+    private static final String COLD_DIR = "cold";
+    private static final String COLD_EXTENSION = ".gz";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Временные файлы старше этого срока остались от прерванных записей
+    private static final Duration TEMP_FILE_MAX_AGE = Duration.ofHours(24);
+
+    @Value("${app.file.upload-dir:uploads}")
+    private String uploadDir;
+
+    @Value("${app.file.processed-dir:processed}")
+    private String processedDir;
+
+    // Каталог холодного архива; пусто - подкаталог cold в каждой области
+    @Value("${app.file.cold-dir:}")
+    private String coldDir;
+
+    @Override
+    public Path createTempFile(StorageArea area) throws IOException {
+        Path tempDirectory = areaRoot(area).resolve(TEMP_DIR);
+        Files.createDirectories(tempDirectory);
+        return Files.createTempFile(tempDirectory, "object-", ".tmp");
+    }
+
+    @Override
+    public Path commit(StorageArea area, Path tempFile, String contentHash) throws IOException {
+        Path target = resolve(area, contentHash);
+
+        if (Files.exists(target)) {
+            // Такое содержимое уже хранится - вторая копия не нужна
+            Files.deleteIfExists(tempFile);
+            log.debug("Объект {} уже есть в области {}, повторная копия не сохранена", contentHash, area);
+            return target;
+        }
+
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Тот же объект одновременно сохранен другим запросом
+            Files.deleteIfExists(tempFile);
+        }
+        return target;
+    }
+
+    @Override
+    public Path resolve(StorageArea area, String contentHash) {
+        if (!isValidKey(contentHash)) {
+            throw new IllegalArgumentException("Некорректный ключ объекта хранилища: " + contentHash);
+        }
+        return areaRoot(area)
+            .resolve(contentHash.substring(0, 2))
+            .resolve(contentHash.substring(2, 4))
+            .resolve(contentHash + EXTENSION)
+            .toAbsolutePath();
+    }
+
+    @Override
+    public boolean exists(StorageArea area, String contentHash) {
+        return Files.exists(resolve(area, contentHash)) || Files.exists(coldPath(area, contentHash));
+    }
+
+    @Override
+    public Optional<String> keyOf(StorageArea area, Path path) {
+        String name = path.getFileName().toString();
+        if (!name.endsWith(EXTENSION)) {
+            return Optional.empty();
+        }
+
+        String key = name.substring(0, name.length() - EXTENSION.length());
+        if (!isValidKey(key) || !resolve(area, key).normalize().equals(path.toAbsolutePath().normalize())) {
+            return Optional.empty();
+        }
+        return Optional.of(key);
+    }
+
+    @Override
+    public boolean isAvailable(StorageArea area, Path path) {
+        return Files.exists(path) || keyOf(area, path).map(key -> Files.exists(coldPath(area, key))).orElse(false);
+    }
+
+    @Override
+    public boolean archive(StorageArea area, String contentHash) throws IOException {
+        Path hot = resolve(area, contentHash);
+        if (!Files.exists(hot)) {
+            return false;
+        }
+
+        Path cold = coldPath(area, contentHash);
+        if (!Files.exists(cold)) {
+            Path tempFile = createColdTempFile(area);
+            try {
+                try (InputStream inputStream = Files.newInputStream(hot);
+                     OutputStream outputStream = new MaxCompressionGzipOutputStream(
+                         new BufferedOutputStream(Files.newOutputStream(tempFile), BUFFER_SIZE))) {
+                    inputStream.transferTo(outputStream);
+                }
+                Files.createDirectories(cold.getParent());
+                Files.move(tempFile, cold, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+
+        // Читатели, уже открывшие файл, дочитают его; новые обращения восстановят объект из архива
+        Files.delete(hot);
+        log.debug("Объект {} области {} перенесен в холодный архив", contentHash, area);
+        return true;
+    }
+
+    @Override
+    public Path restore(StorageArea area, Path path) throws IOException {
+        if (Files.exists(path)) {
+            return path;
+        }
+
+        String key = keyOf(area, path).orElseThrow(() -> new NoSuchFileException(path.toString()));
+        Path cold = coldPath(area, key);
+        Path tempFile = createTempFile(area);
+        try {
+            MessageDigest digest = createDigest();
+            try (InputStream inputStream = new DigestInputStream(new GZIPInputStream(
+                     new BufferedInputStream(Files.newInputStream(cold), BUFFER_SIZE), BUFFER_SIZE), digest);
+                 OutputStream outputStream = Files.newOutputStream(tempFile)) {
+                inputStream.transferTo(outputStream);
+            } catch (NoSuchFileException e) {
+                // Объект мог быть только что восстановлен параллельным обращением
+                if (Files.exists(path)) {
+                    return path;
+                }
+                throw new NoSuchFileException(path.toString());
+            }
+
+            if (!key.equals(HexFormat.of().formatHex(digest.digest()))) {
+                throw new IOException("Архивная копия объекта " + key + " повреждена");
+            }
+            commit(area, tempFile, key);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+
+        Files.deleteIfExists(cold);
+        log.info("Объект {} области {} восстановлен из холодного архива", key, area);
+        return path;
+    }
+
+    @Override
+    public boolean delete(StorageArea area, String contentHash) throws IOException {
+        boolean deletedHot = Files.deleteIfExists(resolve(area, contentHash));
+        boolean deletedCold = Files.deleteIfExists(coldPath(area, contentHash));
+        return deletedHot || deletedCold;
+    }
+
+    /**
+     * Удаление временных файлов прерванных записей
+     */
+    @Scheduled(fixedRate = 3600000) // Каждый час
+    public void cleanupTempFiles() {
+        FileTime threshold = FileTime.from(Instant.now().minus(TEMP_FILE_MAX_AGE));
+        for (StorageArea area : StorageArea.values()) {
+            for (Path tempDirectory : List.of(areaRoot(area).resolve(TEMP_DIR), coldRoot(area).resolve(TEMP_DIR))) {
+                cleanupTempFiles(tempDirectory, threshold);
+            }
+        }
+    }
+
+    private void cleanupTempFiles(Path tempDirectory, FileTime threshold) {
+        if (!Files.isDirectory(tempDirectory)) {
+            return;
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(tempDirectory)) {
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).compareTo(threshold) < 0) {
+                    Files.deleteIfExists(file);
+                    log.info("Удален незавершенный временный файл хранилища: {}", file);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Ошибка очистки временных файлов {}: {}", tempDirectory, e.getMessage());
+        }
+    }
+
+    private Path areaRoot(StorageArea area) {
+        return switch (area) {
+            case ORIGINALS -> Paths.get(uploadDir);
+            case OUTPUTS -> Paths.get(processedDir);
+        };
+    }
+
+    private Path coldRoot(StorageArea area) {
+        if (coldDir == null || coldDir.isBlank()) {
+            return areaRoot(area).resolve(COLD_DIR);
+        }
+        return Paths.get(coldDir, area.name().toLowerCase());
+    }
+
+    private Path coldPath(StorageArea area, String contentHash) {
+        Path hot = resolve(area, contentHash);
+        return coldRoot(area)
+            .resolve(contentHash.substring(0, 2))
+            .resolve(contentHash.substring(2, 4))
+            .resolve(hot.getFileName() + COLD_EXTENSION)
+            .toAbsolutePath();
+    }
+
+    private Path createColdTempFile(StorageArea area) throws IOException {
+        Path tempDirectory = coldRoot(area).resolve(TEMP_DIR);
+        Files.createDirectories(tempDirectory);
+        return Files.createTempFile(tempDirectory, "object-", ".tmp");
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    private static boolean isValidKey(String key) {
+        if (key == null || key.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Архив пишется редко, а хранится долго - сжатие максимальное
+     */
+    private static final class MaxCompressionGzipOutputStream extends GZIPOutputStream {
+        MaxCompressionGzipOutputStream(OutputStream outputStream) throws IOException {
+            super(outputStream, BUFFER_SIZE);
+            def.setLevel(Deflater.BEST_COMPRESSION);
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.practical.work.service;
+
+import com.practical.work.dto.ParagraphClassification;
+import org.springframework.stereotype.Component;
+
+/**
+ * Единый классификатор абзацев (заголовки, списки, обычный текст).
+ * Правила реализованы посимвольным разбором без регулярных выражений и
+ * промежуточных строк, так как классификатор вызывается для каждого абзаца
+ */
+@Component
+public class ParagraphClassifier {
+
+    // Заголовки длиннее этого порога считаются обычным текстом
+    private static final int MAX_HEADING_LENGTH = 100;
+
+    // Символы маркированных списков
+    private static final String BULLET_MARKERS = "•-*▪▫▬►◆○●–—";
+
+    // Знаки препинания для эвристики заголовков
+    private static final String PUNCTUATION = ",.;!?:";
+
+    // Знаки, которыми заканчиваются пункты списка, а не заголовки
+    private static final String SENTENCE_ENDINGS = ".;:,";
+
+    /**
+     * Классификация абзаца по тексту и стилю
+     */
+    public ParagraphClassification classify(String text, String styleId) {
+        if (text == null) {
+            return ParagraphClassification.EMPTY;
+        }
+
+        int start = firstNonWhitespace(text);
+        int end = lastNonWhitespace(text) + 1;
+        if (start >= end) {
+            return ParagraphClassification.EMPTY;
+        }
+
+        // Заголовок по стилю (Heading1, heading 2)
+        int styleLevel = headingLevelFromStyle(styleId);
+        if (styleLevel > 0) {
+            return ParagraphClassification.heading(styleLevel);
+        }
+
+        if (end - start < MAX_HEADING_LENGTH) {
+            // Короткие строки в верхнем регистре: "ВСТУП", "РОЗДІЛ 1. ..."
+            if (isUpperCaseText(text, start, end)) {
+                return ParagraphClassification.heading(Math.max(1, numberingDepth(text, start, end)));
+            }
+
+            // Нумерованные заголовки: "1. Вступ", "1.1 Аналіз", "2.1.3 Огляд"
+            int numberedLevel = numberedHeadingLevel(text, start, end);
+            if (numberedLevel > 0) {
+                return ParagraphClassification.heading(numberedLevel);
+            }
+
+            // Римская нумерация: "II. Методологія"
+            if (isRomanHeading(text, start, end)) {
+                return ParagraphClassification.heading(1);
+            }
+        }
+
+        if (isNumberedListItem(text, start, end)) {
+            return ParagraphClassification.NUMBERED_LIST;
+        }
+
+        if (BULLET_MARKERS.indexOf(text.charAt(start)) >= 0) {
+            return ParagraphClassification.BULLET_LIST;
+        }
+
+        return ParagraphClassification.PARAGRAPH;
+    }
+
+    /**
+     * Классификация текста без информации о стиле
+     */
+    public ParagraphClassification classify(String text) {
+        return classify(text, null);
+    }
+
+    /**
+     * Мягкая эвристика заголовка для fallback форматирования без модели:
+     * заголовок, если выполняется не менее 4 из 6 признаков
+     */
+    public boolean looksLikeHeading(String text) {
+        if (text == null) {
+            return false;
+        }
+
+        int start = firstNonWhitespace(text);
+        int end = lastNonWhitespace(text) + 1;
+        int length = end - start;
+
+        // Пустые и слишком длинные строки не заголовки
+        if (length <= 0 || length > 80) {
+            return false;
+        }
+
+        char first = text.charAt(start);
+        int punctuation = 0;
+        for (int i = start; i < end; i++) {
+            if (PUNCTUATION.indexOf(text.charAt(i)) >= 0) {
+                punctuation++;
+            }
+        }
+
+        int score = 0;
+        if (Character.isUpperCase(first)) score++;
+        if (text.charAt(end - 1) != '.') score++;
+        if (length < 50) score++;
+        if (punctuation < 3) score++;
+        if (!Character.isDigit(first)) score++;
+        if (first != '-' && first != '*' && first != '•') score++;
+
+        return score >= 4;
+    }
+
+    /**
+     * Уровень заголовка по идентификатору стиля (Heading1, heading 2 -> 1, 2)
+     */
+    private int headingLevelFromStyle(String styleId) {
+        if (styleId == null) {
+            return 0;
+        }
+
+        int index = indexOfIgnoreCase(styleId, "heading");
+        if (index < 0) {
+            return 0;
+        }
+
+        for (int i = index + "heading".length(); i < styleId.length(); i++) {
+            char c = styleId.charAt(i);
+            if (isAsciiDigit(c)) {
+                return c - '0';
+            }
+        }
+        return 1;
+    }
+
+    private boolean isUpperCaseText(String text, int start, int end) {
+        boolean hasUpperCase = false;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (Character.isLowerCase(c)) {
+                return false;
+            }
+            if (Character.isUpperCase(c)) {
+                hasUpperCase = true;
+            }
+        }
+        return hasUpperCase;
+    }
+
+    /**
+     * Уровень нумерованного заголовка или 0, если абзац им не является.
+     * Пункты списка ("1. Проаналізувати ... документів.") отсекаются по завершающему знаку
+     */
+    private int numberedHeadingLevel(String text, int start, int end) {
+        int depth = 0;
+        int i = start;
+        boolean endsWithDot = false;
+
+        while (i < end && isAsciiDigit(text.charAt(i))) {
+            while (i < end && isAsciiDigit(text.charAt(i))) {
+                i++;
+            }
+            depth++;
+            endsWithDot = i < end && text.charAt(i) == '.';
+            if (!endsWithDot) {
+                break;
+            }
+            i++;
+        }
+
+        // "1 Вступ" без точки - не заголовок, "1.1 Аналіз" - заголовок
+        if (depth == 0 || (depth == 1 && !endsWithDot)) {
+            return 0;
+        }
+
+        while (i < end && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+
+        if (i >= end || !Character.isUpperCase(text.charAt(i))) {
+            return 0;
+        }
+
+        return SENTENCE_ENDINGS.indexOf(text.charAt(end - 1)) >= 0 ? 0 : depth;
+    }
+
+    /**
+     * Глубина нумерации в начале строки ("2.1.3" -> 3), 0 если нумерации нет
+     */
+    private int numberingDepth(String text, int start, int end) {
+        int depth = 0;
+        int i = start;
+        while (i < end && isAsciiDigit(text.charAt(i))) {
+            while (i < end && isAsciiDigit(text.charAt(i))) {
+                i++;
+            }
+            depth++;
+            if (i >= end || text.charAt(i) != '.') {
+                break;
+            }
+            i++;
+        }
+        return depth;
+    }
+
+    private boolean isRomanHeading(String text, int start, int end) {
+        int i = start;
+        while (i < end && "IVXLCDM".indexOf(text.charAt(i)) >= 0) {
+            i++;
+        }
+        if (i == start || i >= end || text.charAt(i) != '.') {
+            return false;
+        }
+        i++;
+        while (i < end && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i < end && Character.isUpperCase(text.charAt(i));
+    }
+
+    /**
+     * Нумерованные списки: "1. ", "2) ", "а) ", "б. ", "i) ", "iv. "
+     */
+    private boolean isNumberedListItem(String text, int start, int end) {
+        int i = start;
+        char first = text.charAt(i);
+
+        if (isAsciiDigit(first)) {
+            while (i < end && isAsciiDigit(text.charAt(i))) {
+                i++;
+            }
+        } else if ("ivxlcdm".indexOf(first) >= 0) {
+            while (i < end && "ivxlcdm".indexOf(text.charAt(i)) >= 0) {
+                i++;
+            }
+        } else if (isCyrillicLowerCase(first)) {
+            i++;
+        } else {
+            return false;
+        }
+
+        if (i + 1 >= end) {
+            return false;
+        }
+        char marker = text.charAt(i);
+        return (marker == '.' || marker == ')') && Character.isWhitespace(text.charAt(i + 1));
+    }
+
+    private static boolean isCyrillicLowerCase(char c) {
+        return (c >= 'а' && c <= 'я') || c == 'і' || c == 'є' || c == 'ї' || c == 'ґ' || c == 'ё';
+    }
+
+    private static boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int firstNonWhitespace(String text) {
+        int i = 0;
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int lastNonWhitespace(String text) {
+        int i = text.length() - 1;
+        while (i >= 0 && Character.isWhitespace(text.charAt(i))) {
+            i--;
+        }
+        return i;
+    }
+
+    private static int indexOfIgnoreCase(String source, String target) {
+        int max = source.length() - target.length();
+        for (int i = 0; i <= max; i++) {
+            if (source.regionMatches(true, i, target, 0, target.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
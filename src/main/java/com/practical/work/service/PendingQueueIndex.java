@@ -0,0 +1,399 @@
+package com.practical.work.service;
+
+import com.practical.work.entity.FileProcessingQueue;
+import com.practical.work.entity.FileProcessingQueue.Priority;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Индекс ожидающих файлов очереди в памяти: по одной упорядоченной очереди на приоритет,
+ * внутри приоритета - в порядке постановки (FIFO по идентификатору записи, который
+ * выдается базой по возрастанию вместе с created_at).
+ * Источник истины - таблица file_processing_queue: индекс строится из нее при старте
+ * и обновляется FileQueueService после фиксации каждой смены статуса. Выбор следующего файла
+ * и позиция файла в порядке приоритетов - O(log n) без запроса всех ожидающих строк
+ * (добавление - O(log n), кроме редких перенумераций, см. RankCounter).
+ * Индекс используется только в режиме очереди local: в режиме distributed файлы ставят и берут
+ * другие узлы, поэтому порядок и позиции определяются запросами к таблице.
+ * Для справедливой очереди (FairShareScheduler) те же записи разложены по пользователям
+ * в такие же очереди по приоритетам: номер файла среди файлов пользователя - тоже O(log n)
+ */
+@Component
+public class PendingQueueIndex {
+
+    // Порядок выдачи: сначала маленькие файлы
+    static final Priority[] DISPATCH_ORDER = { Priority.HIGH, Priority.NORMAL, Priority.LOW };
+
+    private final PriorityQueues queues = new PriorityQueues();
+    private final Map<Long, Priority> priorities = new HashMap<>();
+    private final Map<Long, Long> owners = new HashMap<>();
+    private final Map<Long, PriorityQueues> userQueues = new HashMap<>();
+
+    // Сумма идентификаторов в индексе: вместе с размером сверяется с таблицей
+    private long idSum;
+
+    /**
+     * Полная замена содержимого индекса ожидающими записями из базы
+     */
+    public synchronized void rebuild(Collection<FileProcessingQueue> pendingItems) {
+        queues.clear();
+        priorities.clear();
+        owners.clear();
+        userQueues.clear();
+        idSum = 0;
+        pendingItems.forEach(this::add);
+    }
+
+    public synchronized void add(FileProcessingQueue item) {
+        remove(item.getId());
+
+        long id = item.getId();
+        priorities.put(id, item.getPriority());
+        idSum += id;
+        queues.add(id, item.getPriority());
+
+        if (item.getUser() != null) {
+            Long userId = item.getUser().getId();
+            owners.put(id, userId);
+            userQueues.computeIfAbsent(userId, key -> new PriorityQueues()).add(id, item.getPriority());
+        }
+    }
+
+    public synchronized void remove(Long queueId) {
+        Priority priority = priorities.remove(queueId);
+        if (priority == null) {
+            return;
+        }
+        idSum -= queueId;
+        queues.remove(queueId, priority);
+
+        Long userId = owners.remove(queueId);
+        if (userId != null) {
+            PriorityQueues userQueue = userQueues.get(userId);
+            userQueue.remove(queueId, priority);
+            if (userQueue.isEmpty()) {
+                userQueues.remove(userId);
+            }
+        }
+    }
+
+    /**
+     * Идентификатор записи, которая должна обрабатываться следующей
+     */
+    public synchronized Optional<Long> peek() {
+        return queues.first();
+    }
+
+    /**
+     * Пользователи, у которых есть ожидающие файлы
+     */
+    public synchronized Set<Long> backloggedUsers() {
+        return Set.copyOf(userQueues.keySet());
+    }
+
+    /**
+     * Число ожидающих файлов каждого пользователя с ожидающими файлами
+     */
+    public synchronized Map<Long, Long> pendingByUser() {
+        Map<Long, Long> pending = new HashMap<>();
+        userQueues.forEach((userId, userQueue) -> pending.put(userId, (long) userQueue.size()));
+        return pending;
+    }
+
+    /**
+     * Следующий файл пользователя: сначала более приоритетные, внутри приоритета - в порядке постановки
+     */
+    public synchronized Optional<Long> peekForUser(Long userId) {
+        PriorityQueues userQueue = userQueues.get(userId);
+        return userQueue == null ? Optional.empty() : userQueue.first();
+    }
+
+    /**
+     * Владелец ожидающей записи
+     */
+    public synchronized Optional<Long> userOf(Long queueId) {
+        return Optional.ofNullable(owners.get(queueId));
+    }
+
+    /**
+     * Номер записи среди ожидающих файлов ее владельца начиная с 1 в порядке его очереди;
+     * -1, если запись не ожидает обработки или у нее нет владельца
+     */
+    public synchronized int userRank(Long queueId) {
+        Long userId = owners.get(queueId);
+        if (userId == null) {
+            return -1;
+        }
+        return userQueues.get(userId).rank(queueId, priorities.get(queueId));
+    }
+
+    /**
+     * Номер среди файлов пользователя для записи, которая еще не добавлена в индекс
+     * (транзакция постановки не зафиксирована): новая запись встает последней среди файлов
+     * пользователя своего приоритета
+     */
+    public synchronized int projectedUserRank(Long userId, Priority priority) {
+        PriorityQueues userQueue = userQueues.get(userId);
+        return userQueue == null ? 1 : userQueue.projectedRank(priority);
+    }
+
+    /**
+     * Позиция записи в очереди начиная с 1; -1, если запись не ожидает обработки
+     */
+    public synchronized int position(Long queueId) {
+        Priority priority = priorities.get(queueId);
+        return priority == null ? -1 : queues.rank(queueId, priority);
+    }
+
+    /**
+     * Позиция записи, которая еще не добавлена в индекс: новая запись встает последней в своем приоритете
+     */
+    public synchronized int projectedPosition(Priority entryPriority) {
+        return queues.projectedRank(entryPriority);
+    }
+
+    public synchronized boolean contains(Long queueId) {
+        return priorities.containsKey(queueId);
+    }
+
+    public synchronized int size() {
+        return priorities.size();
+    }
+
+    public synchronized long idSum() {
+        return idSum;
+    }
+
+    /**
+     * Идентификаторы всех записей индекса на момент вызова
+     */
+    public synchronized Set<Long> ids() {
+        return Set.copyOf(priorities.keySet());
+    }
+
+    static int dispatchRank(Priority priority) {
+        for (int i = 0; i < DISPATCH_ORDER.length; i++) {
+            if (DISPATCH_ORDER[i] == priority) {
+                return i;
+            }
+        }
+        return DISPATCH_ORDER.length;
+    }
+
+    /**
+     * Очереди по приоритетам с подсчетом номера записи: общая очередь и очередь каждого пользователя
+     */
+    private static final class PriorityQueues {
+
+        private final Map<Priority, TreeSet<Long>> queues = new EnumMap<>(Priority.class);
+        private final Map<Priority, RankCounter> ranks = new EnumMap<>(Priority.class);
+        private int size;
+
+        void add(long id, Priority priority) {
+            TreeSet<Long> queue = queues.computeIfAbsent(priority, key -> new TreeSet<>());
+            if (!queue.add(id)) {
+                return;
+            }
+            size++;
+            RankCounter rank = ranks.computeIfAbsent(priority, key -> new RankCounter());
+            if (!rank.add(id)) {
+                rank.reset(queue);
+            }
+        }
+
+        void remove(long id, Priority priority) {
+            TreeSet<Long> queue = queues.get(priority);
+            if (queue != null && queue.remove(id)) {
+                size--;
+                ranks.get(priority).remove(id);
+            }
+        }
+
+        Optional<Long> first() {
+            for (Priority priority : DISPATCH_ORDER) {
+                TreeSet<Long> queue = queues.get(priority);
+                if (queue != null && !queue.isEmpty()) {
+                    return Optional.of(queue.first());
+                }
+            }
+            return Optional.empty();
+        }
+
+        /**
+         * Номер записи начиная с 1: все записи более приоритетных очередей и записи своего приоритета
+         * с меньшим идентификатором
+         */
+        int rank(long id, Priority entryPriority) {
+            int rank = 1;
+            for (Priority priority : DISPATCH_ORDER) {
+                if (priority == entryPriority) {
+                    return rank + ranks.get(priority).countBefore(id);
+                }
+                rank += sizeOf(priority);
+            }
+            return -1;
+        }
+
+        /**
+         * Номер, который получит новая запись в конце своего приоритета
+         */
+        int projectedRank(Priority entryPriority) {
+            int rank = 1;
+            for (Priority priority : DISPATCH_ORDER) {
+                rank += sizeOf(priority);
+                if (priority == entryPriority) {
+                    break;
+                }
+            }
+            return rank;
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            queues.clear();
+            ranks.clear();
+            size = 0;
+        }
+
+        private int sizeOf(Priority priority) {
+            TreeSet<Long> queue = queues.get(priority);
+            return queue == null ? 0 : queue.size();
+        }
+    }
+
+    /**
+     * Дерево Фенвика над плотными номерами записей одного приоритета: число ожидающих записей
+     * перед данной за O(log n). Номера выдаются по возрастанию идентификаторов при добавлении,
+     * поэтому размер дерева зависит от числа записей в очереди, а не от разброса их идентификаторов.
+     * Номер освобожденной записи сохраняется: повторная попытка той же записи возвращается на свой
+     * номер за O(log n). Запись с идентификатором меньше выданных, у которой номера нет (пришла
+     * из другого приоритета или появилась после перенумерации), хранится в отдельном упорядоченном
+     * массиве: поиск в нем O(log n), вставка сдвигает не больше n/8 элементов. Перенумерация всей
+     * очереди за O(n) выполняется только при исчерпании номеров или переполнении этого массива
+     */
+    private static final class RankCounter {
+
+        private static final int MIN_CAPACITY = 64;
+
+        private final Map<Long, Integer> slots = new HashMap<>();
+        private long[] slotIds = new long[MIN_CAPACITY]; // Идентификаторы номеров, по возрастанию
+        private int[] tree = new int[MIN_CAPACITY + 1]; // Элемент 0 не используется
+        private int nextSlot;
+
+        // Записи без собственного номера, по возрастанию идентификаторов
+        private long[] late = new long[MIN_CAPACITY];
+        private int lateCount;
+
+        /**
+         * Добавление записи; false, если нужна перенумерация
+         */
+        boolean add(long id) {
+            if (nextSlot == 0 || id > slotIds[nextSlot - 1]) {
+                if (nextSlot == slotIds.length) {
+                    return false;
+                }
+                slotIds[nextSlot] = id;
+                slots.put(id, nextSlot);
+                update(nextSlot, 1);
+                nextSlot++;
+                return true;
+            }
+
+            int slot = Arrays.binarySearch(slotIds, 0, nextSlot, id);
+            if (slot >= 0) {
+                if (slots.putIfAbsent(id, slot) == null) {
+                    update(slot, 1);
+                }
+                return true;
+            }
+
+            int index = Arrays.binarySearch(late, 0, lateCount, id);
+            if (index >= 0) {
+                return true;
+            }
+            if (lateCount >= Math.max(MIN_CAPACITY, nextSlot / 8)) {
+                return false;
+            }
+            index = -index - 1;
+            if (lateCount == late.length) {
+                late = Arrays.copyOf(late, late.length * 2);
+            }
+            System.arraycopy(late, index, late, index + 1, lateCount - index);
+            late[index] = id;
+            lateCount++;
+            return true;
+        }
+
+        void remove(long id) {
+            Integer slot = slots.remove(id);
+            if (slot != null) {
+                update(slot, -1);
+                return;
+            }
+            int index = Arrays.binarySearch(late, 0, lateCount, id);
+            if (index >= 0) {
+                System.arraycopy(late, index + 1, late, index, lateCount - index - 1);
+                lateCount--;
+            }
+        }
+
+        /**
+         * Число записей с идентификатором меньше id
+         */
+        int countBefore(long id) {
+            int count = 0;
+            for (int i = lowerBound(slotIds, nextSlot, id); i > 0; i -= i & -i) {
+                count += tree[i];
+            }
+            return count + lowerBound(late, lateCount, id);
+        }
+
+        void reset(TreeSet<Long> ids) {
+            int capacity = Math.max(MIN_CAPACITY, ids.size() * 2);
+            slots.clear();
+            slotIds = new long[capacity];
+            tree = new int[capacity + 1];
+            nextSlot = 0;
+            lateCount = 0;
+            for (long id : ids) {
+                slotIds[nextSlot] = id;
+                slots.put(id, nextSlot);
+                tree[nextSlot + 1] = 1;
+                nextSlot++;
+            }
+            // Построение дерева за O(n): каждый узел передает сумму родителю
+            for (int i = 1; i < tree.length; i++) {
+                int parent = i + (i & -i);
+                if (parent < tree.length) {
+                    tree[parent] += tree[i];
+                }
+            }
+        }
+
+        private void update(int slot, int delta) {
+            for (int i = slot + 1; i < tree.length; i += i & -i) {
+                tree[i] += delta;
+            }
+        }
+
+        private static int lowerBound(long[] sorted, int length, long id) {
+            int index = Arrays.binarySearch(sorted, 0, length, id);
+            return index >= 0 ? index : -index - 1;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.practical.work.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+/**
+ * Версия конвейера обработки: результат обработки одинакового файла можно
+ * переиспользовать только при совпадении версии. Версия складывается из номера
+ * app.pipeline.version (увеличивается при изменении логики форматирования),
+ * модели и хэша ai-prompts.yaml, поэтому правка промптов сама инвалидирует результаты
+ */
+@Service
+@Slf4j
+public class PipelineVersionService {
+
+    @Value("${app.pipeline.version:1}")
+    private String pipelineVersion;
+
+    @Value("${app.ai.model-name:mistral}")
+    private String modelName;
+
+    private String currentVersion;
+
+    @PostConstruct
+    public void init() {
+        currentVersion = "v" + pipelineVersion + "-" + modelName + "-" + promptsHash();
+        log.info("Версия конвейера обработки: {}", currentVersion);
+    }
+
+    public String getCurrentVersion() {
+        return currentVersion;
+    }
+
+    private String promptsHash() {
+        try (InputStream inputStream = getClass().getClassLoader().getResourceAsStream("ai-prompts.yaml")) {
+            if (inputStream == null) {
+                return "noprompts";
+            }
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(inputStream.readAllBytes());
+            return HexFormat.of().formatHex(digest, 0, 6);
+        } catch (Exception e) {
+            throw new IllegalStateException("Не удалось вычислить хэш ai-prompts.yaml", e);
+        }
+    }
+}
@@ -10,6 +10,7 @@ import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.time.Duration;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -25,6 +26,9 @@ public class ProcessingMetricsService {
     
     @Autowired
     private ProcessedDocumentRepository documentRepository;
+
+    @Autowired
+    private ResourceManager resourceManager;
     
     /**
      * Обработчик события обновления количества чанков
@@ -230,7 +234,9 @@ public class ProcessingMetricsService {
             .activeProcessings(activeFiles)
             .averageProcessingTimeMs(avgProcessingTime)
             .systemLoad(systemLoad)
-            .maxConcurrentFiles(3) // До 3 файлов одновременно (зависит от размера)
+            // Каждому файлу на всю обработку нужен хотя бы один слот модели; слот CPU - только на разбор и запись
+            .maxConcurrentFiles(resourceManager.getCapacity(ResourceManager.Resource.INFERENCE))
+            .resources(resourceManager.getUtilization())
             .build();
     }
 
@@ -273,5 +279,6 @@ public class ProcessingMetricsService {
         private double averageProcessingTimeMs;
         private String systemLoad;
         private int maxConcurrentFiles;
+        private Map<ResourceManager.Resource, ResourceManager.Utilization> resources;
     }
 } 
\ No newline at end of file
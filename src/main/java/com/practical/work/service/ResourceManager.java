@@ -0,0 +1,253 @@
+package com.practical.work.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Ресурсы узла обработки с весовыми разрешениями. Каждый ресурс учитывается отдельно:
+ * слоты CPU (разбор и запись DOCX), слоты обращений к модели и бюджет памяти на открытые документы.
+ * Работа получает все нужные ей при запуске разрешения сразу или не получает ни одного, поэтому выбор
+ * следующего файла соответствует реальной свободной мощности узла без перегрузки одного из ресурсов.
+ * Ресурсы отдельных этапов работы (слот CPU на время разбора и записи) берутся через acquireWithin.
+ * Запрос больше емкости ресурса урезается до емкости - такая работа выполняется единолично
+ */
+@Component
+@Slf4j
+public class ResourceManager {
+
+    public enum Resource {
+        CPU,
+        INFERENCE,
+        MEMORY_MB
+    }
+
+    // Одновременно разбираемых и записываемых документов; 0 - по числу ядер
+    @Value("${app.resources.cpu-slots:0}")
+    private int cpuSlots;
+
+    // Одновременных потоков обращений к модели (сумма потоков обрабатываемых файлов)
+    @Value("${app.resources.inference-slots:6}")
+    private int inferenceSlots;
+
+    // Общий бюджет памяти на одновременно открытые документы
+    @Value("${app.docx.memory-budget-mb:1024}")
+    private int memoryBudgetMb;
+
+    private final Map<Resource, Integer> capacity = new EnumMap<>(Resource.class);
+    private final Map<Resource, Integer> used = new EnumMap<>(Resource.class);
+
+    // Резервы работ по владельцу (идентификатору файла): открытие документа берет память в счет резерва работы
+    private final Map<String, Reservation> reservationsByOwner = new HashMap<>();
+
+    @PostConstruct
+    public void init() {
+        capacity.put(Resource.CPU, cpuSlots > 0 ? cpuSlots : Runtime.getRuntime().availableProcessors());
+        capacity.put(Resource.INFERENCE, Math.max(1, inferenceSlots));
+        capacity.put(Resource.MEMORY_MB, Math.max(1, memoryBudgetMb));
+        for (Resource resource : Resource.values()) {
+            used.put(resource, 0);
+        }
+
+        log.info("Ресурсы узла: CPU {} слотов, модель {} слотов, память {} MB",
+            capacity.get(Resource.CPU), capacity.get(Resource.INFERENCE), capacity.get(Resource.MEMORY_MB));
+    }
+
+    /**
+     * Резерв всех ресурсов работы без ожидания; пусто, если хотя бы одного ресурса не хватает
+     */
+    public synchronized Optional<Reservation> tryAcquire(String owner, Map<Resource, Integer> demand) {
+        Map<Resource, Integer> amounts = normalize(demand);
+        if (!fits(amounts)) {
+            return Optional.empty();
+        }
+        return Optional.of(take(owner, amounts));
+    }
+
+    /**
+     * Резерв одного ресурса в счет резерва работы owner: свободная часть резерва работы
+     * используется без нового ожидания, недостающая часть ожидается из общего запаса
+     */
+    public synchronized Reservation acquireWithin(String owner, Resource resource, int amount)
+            throws InterruptedException {
+        int requested = Math.min(Math.max(amount, 0), capacity.get(resource));
+        Reservation parent = owner != null ? reservationsByOwner.get(owner) : null;
+
+        int borrowed = parent != null ? parent.lend(resource, requested) : 0;
+        Map<Resource, Integer> remainder = new EnumMap<>(Resource.class);
+        remainder.put(resource, requested - borrowed);
+        try {
+            while (!fits(remainder)) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            if (borrowed > 0) {
+                giveBack(parent, resource, borrowed);
+                notifyAll();
+            }
+            throw e;
+        }
+
+        Reservation child = take(null, remainder);
+        child.borrowFrom(parent, resource, borrowed);
+        return child;
+    }
+
+    /**
+     * Хватает ли свободных ресурсов на работу с указанными потребностями
+     */
+    public synchronized boolean canFit(Map<Resource, Integer> demand) {
+        return fits(normalize(demand));
+    }
+
+    public synchronized int getCapacity(Resource resource) {
+        return capacity.get(resource);
+    }
+
+    public synchronized int getUsed(Resource resource) {
+        return used.get(resource);
+    }
+
+    public synchronized int getAvailable(Resource resource) {
+        return capacity.get(resource) - used.get(resource);
+    }
+
+    /**
+     * Загрузка каждого ресурса узла
+     */
+    public synchronized Map<Resource, Utilization> getUtilization() {
+        Map<Resource, Utilization> utilization = new EnumMap<>(Resource.class);
+        for (Resource resource : Resource.values()) {
+            int total = capacity.get(resource);
+            int inUse = used.get(resource);
+            utilization.put(resource, Utilization.builder()
+                .capacity(total)
+                .used(inUse)
+                .available(total - inUse)
+                .percent(total > 0 ? inUse * 100.0 / total : 0)
+                .build());
+        }
+        return utilization;
+    }
+
+    private Map<Resource, Integer> normalize(Map<Resource, Integer> demand) {
+        Map<Resource, Integer> amounts = new EnumMap<>(Resource.class);
+        demand.forEach((resource, amount) -> amounts.put(resource, Math.min(Math.max(amount, 0), capacity.get(resource))));
+        return amounts;
+    }
+
+    private boolean fits(Map<Resource, Integer> amounts) {
+        for (Map.Entry<Resource, Integer> entry : amounts.entrySet()) {
+            if (used.get(entry.getKey()) + entry.getValue() > capacity.get(entry.getKey())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Reservation take(String owner, Map<Resource, Integer> amounts) {
+        amounts.forEach((resource, amount) -> used.merge(resource, amount, Integer::sum));
+        Reservation reservation = new Reservation(owner, amounts);
+        if (owner != null) {
+            reservationsByOwner.put(owner, reservation);
+        }
+        return reservation;
+    }
+
+    private synchronized void release(Reservation reservation) {
+        // Часть, одолженная еще не закрытым вложенным резервам, освобождается вместе с ними
+        reservation.amounts.forEach((resource, amount) ->
+            used.merge(resource, -(amount - reservation.lent.getOrDefault(resource, 0)), Integer::sum));
+        if (reservation.owner != null) {
+            reservationsByOwner.remove(reservation.owner, reservation);
+        }
+        if (reservation.parent != null) {
+            giveBack(reservation.parent, reservation.borrowedResource, reservation.borrowed);
+        }
+        notifyAll();
+    }
+
+    private void giveBack(Reservation parent, Resource resource, int amount) {
+        if (parent.released) {
+            used.merge(resource, -amount, Integer::sum);
+        } else {
+            parent.returnLent(resource, amount);
+        }
+    }
+
+    /**
+     * Зарезервированные ресурсы; освобождаются один раз, повторный close() ничего не делает
+     */
+    public final class Reservation implements AutoCloseable {
+
+        private final String owner;
+        private final Map<Resource, Integer> amounts;
+        private final Map<Resource, Integer> lent = new EnumMap<>(Resource.class);
+
+        // Часть, взятая из резерва работы, а не из общего запаса
+        private Reservation parent;
+        private Resource borrowedResource;
+        private int borrowed;
+
+        private boolean released;
+
+        private Reservation(String owner, Map<Resource, Integer> amounts) {
+            this.owner = owner;
+            this.amounts = amounts;
+        }
+
+        public int get(Resource resource) {
+            synchronized (ResourceManager.this) {
+                return amounts.getOrDefault(resource, 0) + (resource == borrowedResource ? borrowed : 0);
+            }
+        }
+
+        private int lend(Resource resource, int amount) {
+            if (released) {
+                return 0;
+            }
+            int free = amounts.getOrDefault(resource, 0) - lent.getOrDefault(resource, 0);
+            int granted = Math.max(0, Math.min(free, amount));
+            lent.merge(resource, granted, Integer::sum);
+            return granted;
+        }
+
+        private void returnLent(Resource resource, int amount) {
+            lent.merge(resource, -amount, Integer::sum);
+        }
+
+        private void borrowFrom(Reservation parent, Resource resource, int amount) {
+            if (parent != null && amount > 0) {
+                this.parent = parent;
+                this.borrowedResource = resource;
+                this.borrowed = amount;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (ResourceManager.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                release(this);
+            }
+        }
+    }
+
+    @lombok.Data
+    @lombok.Builder
+    public static class Utilization {
+        private int capacity;
+        private int used;
+        private int available;
+        private double percent;
+    }
+}
@@ -0,0 +1,208 @@
+package com.practical.work.service;
+
+import com.practical.work.model.ProcessedDocument;
+import com.practical.work.repository.ProcessedDocumentRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Уровни хранения файлов документов.
+ * Документы, к которым не обращались coldAfterDays дней, переносятся в холодный архив со сжатием;
+ * по истечении purgeAfterDays дней файлы удаляются, а документ получает статус EXPIRED.
+ * Скачивание результата восстанавливает файл из архива прозрачно для клиента.
+ * Одинаковые файлы общие для нескольких документов, поэтому файл удаляется только
+ * после истечения срока у всех документов, которые на него ссылаются
+ */
+@Service
+@Slf4j
+public class RetentionService {
+
+    private static final List<ProcessedDocument.ProcessingStatus> FINISHED_STATUSES = List.of(
+        ProcessedDocument.ProcessingStatus.COMPLETED,
+        ProcessedDocument.ProcessingStatus.FAILED
+    );
+
+    // Время последнего обращения обновляется не чаще, чем раз в час, чтобы не писать в базу при каждом скачивании
+    private static final long ACCESS_UPDATE_INTERVAL_MINUTES = 60;
+
+    // Дней без обращений до переноса файлов в холодный архив (0 - не переносить)
+    @Value("${app.retention.cold-after-days:30}")
+    private int coldAfterDays;
+
+    // Дней без обращений до удаления файлов (0 - не удалять)
+    @Value("${app.retention.purge-after-days:365}")
+    private int purgeAfterDays;
+
+    // Документов за один запрос к базе
+    @Value("${app.retention.batch-size:200}")
+    private int batchSize;
+
+    @Autowired
+    private ProcessedDocumentRepository documentRepository;
+
+    @Autowired
+    private DocumentStorage documentStorage;
+
+    @Autowired
+    private RevisionResultStore revisionResultStore;
+
+    /**
+     * Файл результата для скачивания: восстанавливается из архива при необходимости,
+     * обращение продлевает срок хранения документа
+     */
+    public File openProcessedFile(ProcessedDocument document) throws IOException {
+        Path path = documentStorage.restore(StorageArea.OUTPUTS, Paths.get(document.getProcessedFilePath()));
+        markAccessed(List.of(document));
+        return path.toFile();
+    }
+
+    /**
+     * Отметка обращения к документам
+     */
+    public void markAccessed(Collection<ProcessedDocument> documents) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime threshold = now.minusMinutes(ACCESS_UPDATE_INTERVAL_MINUTES);
+
+        List<ProcessedDocument> changed = new ArrayList<>();
+        for (ProcessedDocument document : documents) {
+            if (document.getLastAccessedAt() == null || document.getLastAccessedAt().isBefore(threshold)) {
+                document.setLastAccessedAt(now);
+                document.setArchivedAt(null);
+                changed.add(document);
+            }
+        }
+
+        if (!changed.isEmpty()) {
+            documentRepository.saveAll(changed);
+        }
+    }
+
+    @Scheduled(fixedRate = 86400000, initialDelay = 600000) // Раз в сутки
+    public void applyRetention() {
+        if (coldAfterDays > 0) {
+            archiveInactiveDocuments();
+        }
+        if (purgeAfterDays > 0) {
+            purgeExpiredDocuments();
+        }
+    }
+
+    /**
+     * Перенос файлов давно не использовавшихся документов в холодный архив
+     */
+    public void archiveInactiveDocuments() {
+        long startTime = System.currentTimeMillis();
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(coldAfterDays);
+        int archived = 0;
+        long afterId = 0;
+
+        List<ProcessedDocument> documents;
+        do {
+            documents = documentRepository.findArchiveCandidates(
+                FINISHED_STATUSES, cutoff, afterId, PageRequest.of(0, batchSize));
+
+            for (ProcessedDocument document : documents) {
+                afterId = document.getId();
+                try {
+                    archiveFile(StorageArea.ORIGINALS, document.getOriginalFilePath());
+                    archiveFile(StorageArea.OUTPUTS, document.getProcessedFilePath());
+                    document.setArchivedAt(LocalDateTime.now());
+                    documentRepository.save(document);
+                    archived++;
+                } catch (IOException e) {
+                    log.warn("Не удалось перенести в архив файлы документа {}: {}", document.getFileId(), e.getMessage());
+                }
+            }
+        } while (documents.size() == batchSize);
+
+        if (archived > 0) {
+            log.info("В холодный архив перенесены файлы {} документов ({}ms)",
+                archived, System.currentTimeMillis() - startTime);
+        }
+    }
+
+    /**
+     * Удаление файлов документов, срок хранения которых истек
+     */
+    public void purgeExpiredDocuments() {
+        long startTime = System.currentTimeMillis();
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(purgeAfterDays);
+        int purged = 0;
+        long afterId = 0;
+
+        List<ProcessedDocument> documents;
+        do {
+            documents = documentRepository.findPurgeCandidates(
+                FINISHED_STATUSES, cutoff, afterId, PageRequest.of(0, batchSize));
+
+            for (ProcessedDocument document : documents) {
+                afterId = document.getId();
+                document.setStatus(ProcessedDocument.ProcessingStatus.EXPIRED);
+                document.setArchivedAt(null);
+                documentRepository.save(document);
+
+                // Статус сохранен до подсчета ссылок: документ больше не держит свои файлы
+                String originalPath = document.getOriginalFilePath();
+                if (originalPath != null && documentRepository.countByOriginalFilePathAndStatusNot(
+                        originalPath, ProcessedDocument.ProcessingStatus.EXPIRED) == 0) {
+                    deleteFile(StorageArea.ORIGINALS, originalPath);
+                }
+
+                String processedPath = document.getProcessedFilePath();
+                if (processedPath != null && documentRepository.countByProcessedFilePathAndStatusNot(
+                        processedPath, ProcessedDocument.ProcessingStatus.EXPIRED) == 0) {
+                    deleteFile(StorageArea.OUTPUTS, processedPath);
+                    revisionResultStore.delete(processedPath);
+                }
+                purged++;
+            }
+        } while (documents.size() == batchSize);
+
+        if (purged > 0) {
+            log.info("Истек срок хранения {} документов, файлы удалены ({}ms)",
+                purged, System.currentTimeMillis() - startTime);
+        }
+    }
+
+    /**
+     * Файлы старой раскладки (вне хранилища по содержимому) остаются на месте до удаления
+     */
+    private void archiveFile(StorageArea area, String filePath) throws IOException {
+        if (filePath == null) {
+            return;
+        }
+        Optional<String> key = documentStorage.keyOf(area, Paths.get(filePath));
+        if (key.isPresent()) {
+            documentStorage.archive(area, key.get());
+        }
+    }
+
+    private void deleteFile(StorageArea area, String filePath) {
+        Path path = Paths.get(filePath);
+        try {
+            Optional<String> key = documentStorage.keyOf(area, path);
+            if (key.isPresent()) {
+                documentStorage.delete(area, key.get());
+            } else {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            log.warn("Не удалось удалить файл {}: {}", filePath, e.getMessage());
+        }
+    }
+}
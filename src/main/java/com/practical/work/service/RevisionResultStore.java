@@ -0,0 +1,122 @@
+package com.practical.work.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.practical.work.dto.FormattingResult;
+import com.practical.work.dto.IndexedFormattingResult;
+import com.practical.work.dto.ParagraphResultsSnapshot;
+import com.practical.work.dto.TextChunk;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Хранение результатов форматирования по абзацам для инкрементальной обработки
+ * новых версий документа. Результаты записываются в JSON рядом с обработанным файлом
+ * и привязаны к версии конвейера: после смены промптов или модели они не используются
+ */
+@Service
+@Slf4j
+public class RevisionResultStore {
+
+    private static final String SNAPSHOT_SUFFIX = ".paragraphs.json";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Autowired
+    private PipelineVersionService pipelineVersionService;
+
+    /**
+     * Ключ абзаца: результат модели зависит только от текста и типа абзаца
+     */
+    public String paragraphKey(TextChunk chunk) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.valueOf(chunk.getClassification()).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(chunk.getText().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest(), 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    /**
+     * Сохранение успешных результатов обработки рядом с файлом результата
+     */
+    public void save(String processedFilePath, List<TextChunk> chunks, List<IndexedFormattingResult> formattingResults) {
+        Map<String, TextChunk> chunksById = new HashMap<>();
+        for (TextChunk chunk : chunks) {
+            chunksById.put(chunk.getParagraphId(), chunk);
+        }
+
+        Map<String, FormattingResult> results = new HashMap<>();
+        for (IndexedFormattingResult result : formattingResults) {
+            TextChunk chunk = chunksById.get(result.getParagraphId());
+            if (chunk != null && result.isSuccess() && result.getFormattingResult() != null) {
+                results.put(paragraphKey(chunk), result.getFormattingResult());
+            }
+        }
+
+        ParagraphResultsSnapshot snapshot = ParagraphResultsSnapshot.builder()
+            .pipelineVersion(pipelineVersionService.getCurrentVersion())
+            .results(results)
+            .build();
+
+        try {
+            objectMapper.writeValue(snapshotFile(processedFilePath), snapshot);
+        } catch (IOException e) {
+            // Без снимка следующая версия документа просто обработается полностью
+            log.warn("Не удалось сохранить результаты абзацев для {}: {}", processedFilePath, e.getMessage());
+        }
+    }
+
+    /**
+     * Результаты предыдущей версии документа, если они получены текущей версией конвейера
+     */
+    public Map<String, FormattingResult> load(String processedFilePath) {
+        File file = snapshotFile(processedFilePath);
+        if (!file.exists()) {
+            return Map.of();
+        }
+
+        try {
+            ParagraphResultsSnapshot snapshot = objectMapper.readValue(file, ParagraphResultsSnapshot.class);
+            if (!pipelineVersionService.getCurrentVersion().equals(snapshot.getPipelineVersion())
+                    || snapshot.getResults() == null) {
+                log.info("Результаты {} получены другой версией конвейера ({}), повторно не используются",
+                    processedFilePath, snapshot.getPipelineVersion());
+                return Map.of();
+            }
+            return snapshot.getResults();
+        } catch (IOException e) {
+            log.warn("Не удалось прочитать результаты абзацев для {}: {}", processedFilePath, e.getMessage());
+            return Map.of();
+        }
+    }
+
+    /**
+     * Удаление результатов по абзацам вместе с файлом результата
+     */
+    public void delete(String processedFilePath) {
+        try {
+            Files.deleteIfExists(snapshotFile(processedFilePath).toPath());
+        } catch (IOException e) {
+            log.warn("Не удалось удалить результаты абзацев для {}: {}", processedFilePath, e.getMessage());
+        }
+    }
+
+    private File snapshotFile(String processedFilePath) {
+        return new File(processedFilePath + SNAPSHOT_SUFFIX);
+    }
+}
@@ -0,0 +1,188 @@
+package com.practical.work.service;
+
+import com.practical.work.dto.RunNormalizationStats;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.xwpf.usermodel.*;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.impl.xb.xmlschema.SpaceAttribute;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTP;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTR;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTText;
+import org.springframework.stereotype.Component;
+import org.w3c.dom.Node;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Нормализация фрагментов текста перед форматированием.
+ * Проверка орфографии и история правок оставляют в абзацах сотни мелких фрагментов
+ * с одинаковыми свойствами: соседние фрагменты объединяются, пустые и отметки
+ * проверки правописания (w:proofErr) удаляются, атрибуты rsid очищаются
+ */
+@Component
+@Slf4j
+public class RunNormalizer {
+
+    private static final String WORDPROCESSING_NS = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+
+    public RunNormalizationStats normalize(XWPFDocument document) {
+        return normalize(document, paragraph -> true);
+    }
+
+    /**
+     * Нормализация только отобранных абзацев: абзацы, фрагменты которых все равно
+     * будут заменены результатом форматирования, пропускаются
+     */
+    public RunNormalizationStats normalize(XWPFDocument document, Predicate<XWPFParagraph> filter) {
+        RunNormalizationStats stats = new RunNormalizationStats();
+        normalizeBodyElements(document.getBodyElements(), filter, stats);
+
+        log.info("Нормализация фрагментов: {} -> {}, удалено отметок правописания: {}",
+            stats.getRunsBefore(), stats.getRunsAfter(), stats.getProofingMarksRemoved());
+
+        return stats;
+    }
+
+    private void normalizeBodyElements(List<IBodyElement> elements, Predicate<XWPFParagraph> filter,
+                                       RunNormalizationStats stats) {
+        for (IBodyElement element : elements) {
+            if (element instanceof XWPFParagraph paragraph) {
+                if (filter.test(paragraph)) {
+                    normalizeParagraph(paragraph, stats);
+                }
+            } else if (element instanceof XWPFTable table) {
+                for (XWPFTableRow row : table.getRows()) {
+                    for (XWPFTableCell cell : row.getTableCells()) {
+                        normalizeBodyElements(cell.getBodyElements(), filter, stats);
+                    }
+                }
+            }
+        }
+    }
+
+    private void normalizeParagraph(XWPFParagraph paragraph, RunNormalizationStats stats) {
+        CTP ctp = paragraph.getCTP();
+        clearParagraphRsids(ctp);
+
+        // Отметки правописания разрывают последовательность фрагментов
+        int proofErrors = ctp.sizeOfProofErrArray();
+        for (int i = proofErrors - 1; i >= 0; i--) {
+            ctp.removeProofErr(i);
+        }
+        stats.setProofingMarksRemoved(stats.getProofingMarksRemoved() + proofErrors);
+
+        List<XWPFRun> runs = paragraph.getRuns();
+        stats.setRunsBefore(stats.getRunsBefore() + runs.size());
+
+        Node paragraphNode = ctp.getDomNode();
+        XWPFRun previous = null;
+        int i = 0;
+
+        while (i < runs.size()) {
+            XWPFRun run = runs.get(i);
+            clearRunRsids(run.getCTR());
+
+            if (!isPlainTextRun(run, paragraphNode)) {
+                previous = null;
+                i++;
+                continue;
+            }
+
+            String text = textOf(run.getCTR());
+            if (text.isEmpty()) {
+                paragraph.removeRun(i);
+                continue;
+            }
+
+            if (previous != null && isNextSibling(previous, run) && haveSameProperties(previous, run)) {
+                appendText(previous.getCTR(), text);
+                paragraph.removeRun(i);
+                continue;
+            }
+
+            previous = run;
+            i++;
+        }
+
+        stats.setRunsAfter(stats.getRunsAfter() + runs.size());
+    }
+
+    /**
+     * Простой фрагмент: непосредственно в абзаце (не в гиперссылке, поле или правке)
+     * и содержит только свойства и не более одного w:t
+     */
+    private boolean isPlainTextRun(XWPFRun run, Node paragraphNode) {
+        if (run.getClass() != XWPFRun.class) {
+            return false;
+        }
+
+        CTR ctr = run.getCTR();
+        if (ctr.getDomNode().getParentNode() != paragraphNode || ctr.sizeOfTArray() > 1) {
+            return false;
+        }
+
+        try (XmlCursor cursor = ctr.newCursor()) {
+            if (!cursor.toFirstChild()) {
+                return true;
+            }
+            do {
+                String namespace = cursor.getName().getNamespaceURI();
+                String name = cursor.getName().getLocalPart();
+                if (!WORDPROCESSING_NS.equals(namespace) || !("rPr".equals(name) || "t".equals(name))) {
+                    return false;
+                }
+            } while (cursor.toNextSibling());
+        }
+        return true;
+    }
+
+    /**
+     * Фрагменты можно объединить, только если между ними в XML нет других элементов
+     * (закладок, комментариев)
+     */
+    private boolean isNextSibling(XWPFRun previous, XWPFRun run) {
+        try (XmlCursor cursor = previous.getCTR().newCursor()) {
+            return cursor.toNextSibling() && cursor.getDomNode() == run.getCTR().getDomNode();
+        }
+    }
+
+    private boolean haveSameProperties(XWPFRun first, XWPFRun second) {
+        CTR firstRun = first.getCTR();
+        CTR secondRun = second.getCTR();
+
+        if (!firstRun.isSetRPr() || !secondRun.isSetRPr()) {
+            return firstRun.isSetRPr() == secondRun.isSetRPr();
+        }
+        return firstRun.getRPr().xmlText().equals(secondRun.getRPr().xmlText());
+    }
+
+    private String textOf(CTR ctr) {
+        return ctr.sizeOfTArray() == 0 ? "" : ctr.getTArray(0).getStringValue();
+    }
+
+    private void appendText(CTR ctr, String text) {
+        CTText ctText = ctr.getTArray(0);
+        String merged = ctText.getStringValue() + text;
+        ctText.setStringValue(merged);
+
+        // Пробелы на границах объединенного текста должны сохраниться
+        if (!merged.equals(merged.strip())) {
+            ctText.setSpace(SpaceAttribute.Space.PRESERVE);
+        }
+    }
+
+    private void clearParagraphRsids(CTP ctp) {
+        if (ctp.isSetRsidR()) ctp.unsetRsidR();
+        if (ctp.isSetRsidRPr()) ctp.unsetRsidRPr();
+        if (ctp.isSetRsidRDefault()) ctp.unsetRsidRDefault();
+        if (ctp.isSetRsidP()) ctp.unsetRsidP();
+        if (ctp.isSetRsidDel()) ctp.unsetRsidDel();
+    }
+
+    private void clearRunRsids(CTR ctr) {
+        if (ctr.isSetRsidR()) ctr.unsetRsidR();
+        if (ctr.isSetRsidRPr()) ctr.unsetRsidRPr();
+        if (ctr.isSetRsidDel()) ctr.unsetRsidDel();
+    }
+}
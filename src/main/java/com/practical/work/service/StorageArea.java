@@ -0,0 +1,9 @@
+package com.practical.work.service;
+
+/**
+ * Области хранилища документов
+ */
+public enum StorageArea {
+    ORIGINALS,   // Загруженные исходные документы
+    OUTPUTS      // Результаты обработки
+}
@@ -0,0 +1,351 @@
+package com.practical.work.service;
+
+import com.practical.work.dto.DocumentUploadResponse;
+import com.practical.work.entity.UploadSession;
+import com.practical.work.exception.UploadOffsetConflictException;
+import com.practical.work.model.User;
+import com.practical.work.repository.UploadSessionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FilenameUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Возобновляемая загрузка файлов частями.
+ * Части дописываются в один файл сессии строго по порядку; принятое смещение хранится в базе,
+ * поэтому после обрыва клиент запрашивает его и продолжает с этого места, не передавая файл заново.
+ * Собранный файл переносится в хранилище переименованием и проходит обычную регистрацию.
+ * Тело части принимается без транзакции; строка сессии блокируется в базе только на время дозаписи
+ * принятой части в файл сессии, поэтому запросы одной сессии могут приходить на разные веб-узлы.
+ * Каталог app.file.upload-dir при этом должен быть общим для узлов
+ */
+@Service
+@Slf4j
+public class UploadSessionService {
+
+    private static final String SESSIONS_DIR = "sessions";
+    private static final String CHUNK_EXTENSION = ".chunk";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MB = 1024 * 1024;
+
+    @Value("${app.file.upload-dir:uploads}")
+    private String uploadDir;
+
+    @Value("${app.upload.max-size-mb:50}")
+    private long maxSizeMb;
+
+    // Время жизни незавершенной сессии с момента последней принятой части
+    @Value("${app.upload.session-ttl-hours:24}")
+    private long sessionTtlHours;
+
+    @Autowired
+    private UploadSessionRepository uploadSessionRepository;
+
+    @Autowired
+    private DocumentUploadService documentUploadService;
+
+    @Autowired
+    private DocumentProcessingService documentProcessingService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * Создание сессии загрузки файла известного размера
+     */
+    public UploadSession createSession(User user, String originalFilename, long totalSize, String previousFileId)
+            throws IOException {
+        String fileName = FilenameUtils.getName(originalFilename);
+        if (fileName == null || fileName.isBlank() || !documentProcessingService.isValidWordDocument(fileName)) {
+            throw new IllegalArgumentException("Неподдерживаемый тип файла. Поддерживаются только документы .docx");
+        }
+        if (totalSize <= 0) {
+            throw new IllegalArgumentException("Файл пустой");
+        }
+        if (totalSize > maxSizeMb * MB) {
+            throw new IllegalArgumentException("Файл слишком большой, максимальный размер: " + maxSizeMb + "MB");
+        }
+        if (user.getPoints() < 1) {
+            throw new IllegalArgumentException("Недостаточно поинтов для обработки документа");
+        }
+
+        Path sessionsDirectory = Path.of(uploadDir, SESSIONS_DIR);
+        Files.createDirectories(sessionsDirectory);
+
+        String sessionId = UUID.randomUUID().toString();
+        Path partFile = sessionsDirectory.resolve(sessionId + ".part");
+        Files.createFile(partFile);
+
+        UploadSession session = UploadSession.builder()
+            .sessionId(sessionId)
+            .user(user)
+            .originalFilename(fileName)
+            .previousFileId(previousFileId != null && !previousFileId.isBlank() ? previousFileId : null)
+            .partFilePath(partFile.toAbsolutePath().toString())
+            .totalSize(totalSize)
+            .build();
+
+        uploadSessionRepository.save(session);
+        log.info("Создана сессия загрузки {} для файла {} ({} байт) пользователем {}",
+            sessionId, fileName, totalSize, user.getEmail());
+        return session;
+    }
+
+    public Optional<UploadSession> getSession(String sessionId) {
+        return uploadSessionRepository.findBySessionId(sessionId);
+    }
+
+    /**
+     * Прием части файла со смещения offset. Смещение должно совпадать с уже принятым объемом.
+     * Если передана контрольная сумма (SHA-256 части, hex), часть принимается только при совпадении.
+     * Тело части пишется в отдельный файл попытки без транзакции и блокировок; в файл сессии она
+     * дописывается короткой транзакцией фиксации. Повтор после обрыва не ждет зависшую попытку:
+     * фиксируется только последняя начатая попытка, более ранняя получает конфликт смещения
+     */
+    public UploadSession appendChunk(String sessionId, long offset, InputStream body, String checksum)
+            throws IOException {
+        String token = UUID.randomUUID().toString();
+        UploadSession session = claimChunk(sessionId, offset, token);
+
+        Path chunkFile = Path.of(session.getPartFilePath()).resolveSibling(sessionId + "." + token + CHUNK_EXTENSION);
+        try {
+            MessageDigest digest = createDigest();
+            long written;
+            try (FileChannel channel = FileChannel.open(chunkFile, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                written = appendBody(body, channel, digest, session.getTotalSize() - offset);
+            }
+
+            if (checksum != null && !checksum.isBlank()
+                    && !checksum.trim().equalsIgnoreCase(HexFormat.of().formatHex(digest.digest()))) {
+                throw new IllegalArgumentException("Контрольная сумма части не совпадает");
+            }
+
+            UploadSession committed = commitChunk(sessionId, offset, token, chunkFile, written);
+            log.debug("Сессия {}: принято {} байт, всего {}/{}",
+                sessionId, written, committed.getCommittedOffset(), committed.getTotalSize());
+            return committed;
+        } finally {
+            Files.deleteIfExists(chunkFile);
+        }
+    }
+
+    /**
+     * Завершение загрузки: собранный файл регистрируется как обычный загруженный документ.
+     * Сессия переводится в COMPLETING до переноса файла, поэтому части после этого не принимаются,
+     * а повторное завершение не начнется, пока идет первое. Перенос файла и регистрация идут
+     * вне транзакции сессии: если файл уже перенесен, а регистрация не удалась, сессия отмечается
+     * FAILED, а не остается активной без файла
+     */
+    public DocumentUploadResponse complete(String sessionId, User user) {
+        UploadSession session = uploadSessionRepository.findBySessionId(sessionId)
+            .orElseThrow(() -> new IllegalArgumentException("Сессия загрузки не найдена"));
+
+        if (uploadSessionRepository.startCompleting(sessionId, UploadSession.SessionStatus.ACTIVE,
+                UploadSession.SessionStatus.COMPLETING, LocalDateTime.now()) == 0) {
+            UploadSession current = uploadSessionRepository.findBySessionId(sessionId).orElse(session);
+            checkActive(current);
+            throw new UploadOffsetConflictException("Файл загружен не полностью", current.getCommittedOffset());
+        }
+
+        File partFile = new File(session.getPartFilePath());
+        DocumentUploadResponse response = documentUploadService.uploadAssembledFile(
+            partFile, session.getOriginalFilename(), user, session.getPreviousFileId());
+
+        if (response.isSuccess()) {
+            session.setStatus(UploadSession.SessionStatus.COMPLETED);
+            session.setFileId(response.getFileId());
+        } else if (!partFile.exists()) {
+            // Файл уже перенесен и не прошел проверку или регистрацию
+            session.setStatus(UploadSession.SessionStatus.FAILED);
+        } else {
+            // Файл на месте (например, не хватило поинтов) - завершение можно повторить
+            session.setStatus(UploadSession.SessionStatus.ACTIVE);
+        }
+        session.setCommittedOffset(session.getTotalSize());
+        session.setUploadToken(null);
+        session.setUpdatedAt(LocalDateTime.now());
+        uploadSessionRepository.save(session);
+
+        return response;
+    }
+
+    /**
+     * Удаление частей брошенных сессий, в том числе сессий, завершение которых прервалось
+     */
+    @Scheduled(fixedRate = 3600000) // Каждый час
+    public void cleanupExpiredSessions() {
+        LocalDateTime threshold = LocalDateTime.now().minusHours(sessionTtlHours);
+        List<UploadSession> expired = uploadSessionRepository.findByStatusInAndUpdatedAtBefore(
+            List.of(UploadSession.SessionStatus.ACTIVE, UploadSession.SessionStatus.COMPLETING), threshold);
+
+        int removed = 0;
+        for (UploadSession session : expired) {
+            try {
+                // Условное обновление: сессия, получившая часть после выборки, не удаляется
+                if (uploadSessionRepository.expireIfIdle(session.getId(), session.getStatus(),
+                        UploadSession.SessionStatus.EXPIRED, threshold, LocalDateTime.now()) == 0) {
+                    continue;
+                }
+                Files.deleteIfExists(Path.of(session.getPartFilePath()));
+                removed++;
+            } catch (IOException | RuntimeException e) {
+                log.warn("Не удалось удалить части сессии {}: {}", session.getSessionId(), e.getMessage());
+            }
+        }
+
+        removeStaleChunkFiles(threshold);
+
+        if (removed > 0) {
+            log.info("Удалено незавершенных сессий загрузки: {}", removed);
+        }
+    }
+
+    /**
+     * Начало попытки передачи части: короткое условное обновление без удержания блокировки
+     */
+    private UploadSession claimChunk(String sessionId, long offset, String token) {
+        int claimed = uploadSessionRepository.claimForUpload(sessionId, token, offset,
+            UploadSession.SessionStatus.ACTIVE, LocalDateTime.now());
+
+        UploadSession session = uploadSessionRepository.findBySessionId(sessionId)
+            .orElseThrow(() -> new IllegalArgumentException("Сессия загрузки не найдена"));
+        if (claimed == 0) {
+            checkActive(session);
+            throw new UploadOffsetConflictException(
+                "Неверное смещение части, ожидается " + session.getCommittedOffset(), session.getCommittedOffset());
+        }
+        return session;
+    }
+
+    /**
+     * Фиксация части: под блокировкой строки сессии часть дописывается в файл сессии и сохраняется
+     * новое смещение. Блокировка держится только на время копирования уже принятой части с диска
+     */
+    private UploadSession commitChunk(String sessionId, long offset, String token, Path chunkFile, long written)
+            throws IOException {
+        try {
+            return transactionTemplate.execute(status -> {
+                UploadSession session = uploadSessionRepository.lockBySessionId(sessionId)
+                    .orElseThrow(() -> new IllegalArgumentException("Сессия загрузки не найдена"));
+                checkActive(session);
+                if (!token.equals(session.getUploadToken()) || session.getCommittedOffset() != offset) {
+                    throw new UploadOffsetConflictException(
+                        "Часть заменена более поздней попыткой загрузки", session.getCommittedOffset());
+                }
+
+                appendChunkFile(Path.of(session.getPartFilePath()), offset, chunkFile, written);
+
+                session.setCommittedOffset(offset + written);
+                session.setUploadToken(null);
+                session.setUpdatedAt(LocalDateTime.now());
+                return uploadSessionRepository.save(session);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void appendChunkFile(Path partFile, long offset, Path chunkFile, long written) {
+        try (FileChannel part = FileChannel.open(partFile, StandardOpenOption.WRITE);
+             FileChannel chunk = FileChannel.open(chunkFile, StandardOpenOption.READ)) {
+            // Хвост, записанный до сбоя предыдущей фиксации, не подтвержден и отбрасывается
+            part.truncate(offset);
+
+            long transferred = 0;
+            while (transferred < written) {
+                long count = part.transferFrom(chunk, offset + transferred, written - transferred);
+                if (count <= 0) {
+                    throw new IOException("Файл части " + chunkFile.getFileName() + " короче принятого объема");
+                }
+                transferred += count;
+            }
+            part.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void checkActive(UploadSession session) {
+        if (session.getStatus() == UploadSession.SessionStatus.COMPLETING) {
+            throw new IllegalStateException("Сессия загрузки уже завершается");
+        }
+        if (session.getStatus() != UploadSession.SessionStatus.ACTIVE) {
+            throw new IllegalStateException("Сессия загрузки уже завершена");
+        }
+    }
+
+    /**
+     * Файлы попыток, оставшиеся после остановки узла посреди приема части
+     */
+    private void removeStaleChunkFiles(LocalDateTime threshold) {
+        Path sessionsDirectory = Path.of(uploadDir, SESSIONS_DIR);
+        if (!Files.isDirectory(sessionsDirectory)) {
+            return;
+        }
+        long thresholdMillis = threshold.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        try (DirectoryStream<Path> chunkFiles = Files.newDirectoryStream(sessionsDirectory, "*" + CHUNK_EXTENSION)) {
+            for (Path chunkFile : chunkFiles) {
+                if (Files.getLastModifiedTime(chunkFile).toMillis() < thresholdMillis) {
+                    Files.deleteIfExists(chunkFile);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Не удалось удалить файлы прерванных частей: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Запись тела запроса в файл попытки с подсчетом SHA-256; объем ограничен оставшимся размером файла
+     */
+    private long appendBody(InputStream body, FileChannel channel, MessageDigest digest, long remaining)
+            throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long written = 0;
+        int read;
+
+        while ((read = body.read(buffer)) != -1) {
+            written += read;
+            if (written > remaining) {
+                throw new IllegalArgumentException("Часть выходит за пределы объявленного размера файла");
+            }
+
+            digest.update(buffer, 0, read);
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+            while (byteBuffer.hasRemaining()) {
+                channel.write(byteBuffer);
+            }
+        }
+        return written;
+    }
+
+    private MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.practical.work.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DocxPackageWriterTest {
+
+    private static final int BLOCK_SIZE = DocxPackageWriter.BLOCK_SIZE;
+
+    private DocxPackageWriter writer;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        writer = new DocxPackageWriter();
+        ReflectionTestUtils.setField(writer, "compressionExecutor", executor);
+        ReflectionTestUtils.setField(writer, "compressionLevel", 6);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void emptyPartIsValidStream() throws DataFormatException {
+        assertRoundTrip(new byte[0]);
+    }
+
+    @Test
+    void singleBlockPart() throws DataFormatException {
+        assertRoundTrip(xml(1));
+        assertRoundTrip(xml(BLOCK_SIZE - 1));
+        assertRoundTrip(xml(BLOCK_SIZE));
+    }
+
+    @Test
+    void multiBlockPartIsOneContinuousStream() throws DataFormatException {
+        assertRoundTrip(xml(BLOCK_SIZE + 1));
+        assertRoundTrip(xml(3 * BLOCK_SIZE + 17));
+        assertRoundTrip(xml(4 * BLOCK_SIZE));
+    }
+
+    @Test
+    void incompressibleBlocks() throws DataFormatException {
+        byte[] data = new byte[2 * BLOCK_SIZE + 1000];
+        new Random(35).nextBytes(data);
+        assertRoundTrip(data);
+    }
+
+    @Test
+    void everyCompressionLevel() throws DataFormatException {
+        byte[] data = xml(2 * BLOCK_SIZE + 500);
+        for (int level = 0; level <= 9; level++) {
+            ReflectionTestUtils.setField(writer, "compressionLevel", level);
+            assertRoundTrip(data);
+        }
+    }
+
+    @Test
+    void dictionaryCarriesRepetitionAcrossBlocks() throws DataFormatException {
+        // Один и тот же случайный фрагмент повторяется в каждом блоке: без словаря предыдущего
+        // блока каждый блок был бы несжимаемым
+        byte[] fragment = new byte[16 * 1024];
+        new Random(36).nextBytes(fragment);
+        byte[] data = new byte[4 * BLOCK_SIZE];
+        for (int offset = 0; offset < data.length; offset += fragment.length) {
+            System.arraycopy(fragment, 0, data, offset, fragment.length);
+        }
+
+        DocxPackageWriter.CompressedEntry entry = assertRoundTrip(data);
+        assertTrue(entry.getData().length < 2 * fragment.length, "compressed " + entry.getData().length);
+    }
+
+    private DocxPackageWriter.CompressedEntry assertRoundTrip(byte[] data) throws DataFormatException {
+        DocxPackageWriter.CompressedEntry entry = writer.compressAsync(data).join();
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        assertEquals(data.length, entry.getSize());
+        assertEquals(crc.getValue(), entry.getCrc());
+        assertArrayEquals(data, inflate(entry.getData()), "length " + data.length);
+        return entry;
+    }
+
+    /**
+     * Распаковка как у читателя ZIP: DEFLATE без заголовка должен закончиться финальным блоком
+     * ровно в конце сжатых данных
+     */
+    private byte[] inflate(byte[] compressed) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        try {
+            // Для режима без заголовка zlib требует лишний байт после данных
+            inflater.setInput(Arrays.copyOf(compressed, compressed.length + 1));
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                output.write(buffer, 0, length);
+            }
+
+            assertTrue(inflater.finished(), "stream has no final block");
+            assertEquals(compressed.length, inflater.getBytesRead());
+            return output.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] xml(int length) {
+        StringBuilder text = new StringBuilder(length + 100);
+        Random random = new Random(length);
+        while (text.length() < length) {
+            text.append("<w:p><w:r><w:t>Абзац ").append(random.nextInt(100_000)).append("</w:t></w:r></w:p>");
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        return Arrays.copyOf(bytes, length);
+    }
+}
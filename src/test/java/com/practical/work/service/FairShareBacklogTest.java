@@ -0,0 +1,73 @@
+package com.practical.work.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FairShareBacklogTest {
+
+    @Test
+    void fairShareAheadIsProportionalToWeightAndCappedByBacklog() {
+        assertEquals(1, FairShareBacklog.fairShareAhead(1, 1, 1, 10));
+        assertEquals(3, FairShareBacklog.fairShareAhead(3, 1, 1, 10));
+        assertEquals(3, FairShareBacklog.fairShareAhead(1, 1, 3, 10));
+        assertEquals(2, FairShareBacklog.fairShareAhead(1, 1, 3, 2));
+        assertEquals(1, FairShareBacklog.fairShareAhead(1, 3, 1, 10));
+        assertEquals(2, FairShareBacklog.fairShareAhead(4, 3, 1, 10));
+        assertEquals(0, FairShareBacklog.fairShareAhead(5, 1, 1, 0));
+    }
+
+    @Test
+    void positionInterleavesOtherUsers() {
+        FairShareBacklog backlog = new FairShareBacklog(Map.of(), Map.of(1L, 3L, 2L, 10L, 3L, 1L));
+
+        assertEquals(3, backlog.position(1L, 1, 1));
+        assertEquals(7, backlog.position(1L, 1, 3));
+        // Файлы второго пользователя, которых у третьего уже нет, не ждут его
+        assertEquals(14, backlog.position(2L, 1, 10));
+
+        // Второй пользователь с весом 3 успевает взять по три файла на каждый файл первого
+        FairShareBacklog weighted = new FairShareBacklog(Map.of(2L, 3), Map.of(1L, 3L, 2L, 10L, 3L, 1L));
+        assertEquals(5, weighted.position(1L, 1, 1));
+    }
+
+    @Test
+    void userMissingFromSnapshotWaitsForEveryone() {
+        FairShareBacklog backlog = new FairShareBacklog(Map.of(), Map.of(1L, 3L, 2L, 10L));
+
+        // Первый файл нового пользователя ждет по одному файлу каждого из остальных
+        assertEquals(3, backlog.position(3L, 1, 1));
+        assertEquals(1, new FairShareBacklog(Map.of(), Map.of()).position(3L, 1, 1));
+    }
+
+    @Test
+    void groupedEstimateMatchesSumOverUsers() {
+        Random random = new Random(50);
+        for (int round = 0; round < 200; round++) {
+            Map<Long, Integer> weights = new HashMap<>();
+            Map<Long, Long> pending = new HashMap<>();
+            int users = random.nextInt(30) + 1;
+            for (long userId = 1; userId <= users; userId++) {
+                weights.put(userId, random.nextInt(5));
+                pending.put(userId, (long) random.nextInt(20) + 1);
+            }
+            FairShareBacklog backlog = new FairShareBacklog(weights, pending);
+
+            long userId = random.nextInt(users + 2) + 1;
+            int ownWeight = random.nextInt(4) + 1;
+            long rank = random.nextInt(25) + 1;
+            long expected = rank;
+            for (Map.Entry<Long, Long> entry : pending.entrySet()) {
+                if (entry.getKey() != userId) {
+                    int weight = Math.max(1, weights.get(entry.getKey()));
+                    expected += FairShareBacklog.fairShareAhead(rank, ownWeight, weight, entry.getValue());
+                }
+            }
+            assertEquals(expected, backlog.position(userId, ownWeight, rank), "round " + round);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.practical.work.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FairShareSchedulerTest {
+
+    private static final long ALICE = 1L;
+    private static final long BOB = 2L;
+    private static final long CAROL = 3L;
+
+    private FairShareScheduler scheduler;
+
+    // Ожидающие файлы пользователей (стоимость каждого файла) в порядке появления пользователей
+    private Map<Long, ArrayDeque<Integer>> backlog;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = new FairShareScheduler();
+        backlog = new LinkedHashMap<>();
+    }
+
+    @Test
+    void emptyBacklogHasNoTurn() {
+        assertEquals(Optional.empty(), scheduler.currentUser(Set.of()));
+        assertEquals(List.of(), scheduler.turnOrder(Set.of()));
+    }
+
+    @Test
+    void equalWeightsTakeTurnsByQuantum() {
+        upload(ALICE, 10, 1);
+        upload(BOB, 10, 1);
+
+        assertEquals(List.of(ALICE, ALICE, ALICE, BOB, BOB, BOB, ALICE, ALICE, ALICE, BOB), dispatch(10));
+    }
+
+    @Test
+    void turnOrderStartsWithCurrentUser() {
+        upload(ALICE, 10, 1);
+        upload(BOB, 10, 1);
+        upload(CAROL, 10, 1);
+
+        assertEquals(List.of(ALICE, BOB, CAROL), scheduler.turnOrder(backlogged()));
+        dispatch(3);
+        assertEquals(List.of(BOB, CAROL, ALICE), scheduler.turnOrder(backlogged()));
+        assertEquals(Optional.of(BOB), scheduler.currentUser(backlogged()));
+    }
+
+    @Test
+    void weightScalesCredit() {
+        scheduler.updateWeight(ALICE, 2);
+        upload(ALICE, 20, 1);
+        upload(BOB, 20, 1);
+
+        List<Long> order = dispatch(18);
+
+        assertEquals(12, order.stream().filter(userId -> userId == ALICE).count());
+        assertEquals(6, order.stream().filter(userId -> userId == BOB).count());
+        assertEquals(List.of(ALICE, ALICE, ALICE, ALICE, ALICE, ALICE, BOB, BOB, BOB), order.subList(0, 9));
+    }
+
+    @Test
+    void nonPositiveWeightCountsAsOne() {
+        scheduler.updateWeight(ALICE, 0);
+
+        assertEquals(1, scheduler.weightOf(ALICE));
+        assertEquals(1, scheduler.weightOf(BOB));
+    }
+
+    @Test
+    void overspentCreditCarriesToNextTurn() {
+        upload(ALICE, 10, 2);
+        upload(BOB, 10, 1);
+
+        // Кредит 3: два файла по 2 уводят Алису в -1, в следующий ход у нее 2 - хватает на один файл
+        assertEquals(List.of(ALICE, ALICE, BOB, BOB, BOB, ALICE, BOB, BOB, BOB, ALICE, ALICE), dispatch(11));
+    }
+
+    @Test
+    void sharesFollowWorkNotFileCount() {
+        upload(ALICE, 100, 3);
+        upload(BOB, 100, 1);
+
+        List<Long> order = dispatch(40);
+
+        long aliceWork = order.stream().filter(userId -> userId == ALICE).count() * 3;
+        long bobWork = order.stream().filter(userId -> userId == BOB).count();
+        assertEquals(aliceWork, bobWork);
+    }
+
+    @Test
+    void drainedUserStartsOverWithoutSavedCredit() {
+        upload(ALICE, 1, 1);
+        upload(BOB, 10, 1);
+
+        // Алиса берет единственный файл с остатком кредита 2 и выходит из кольца
+        assertEquals(List.of(ALICE, BOB), dispatch(2));
+
+        // Вернувшись, встает за Бобом и получает обычный кредит 3, а не 3 + 2
+        upload(ALICE, 10, 1);
+        assertEquals(List.of(BOB, BOB, ALICE, ALICE, ALICE, BOB), dispatch(6));
+    }
+
+    @Test
+    void chargeOfUserOutsideRingIsIgnored() {
+        upload(ALICE, 10, 1);
+        scheduler.charge(BOB, 100);
+        upload(BOB, 10, 1);
+
+        assertEquals(List.of(ALICE, ALICE, ALICE, BOB, BOB, BOB), dispatch(6));
+    }
+
+    private void upload(long userId, int files, int cost) {
+        ArrayDeque<Integer> queue = backlog.computeIfAbsent(userId, key -> new ArrayDeque<>());
+        for (int i = 0; i < files; i++) {
+            queue.add(cost);
+        }
+    }
+
+    private Set<Long> backlogged() {
+        return new LinkedHashSet<>(backlog.keySet());
+    }
+
+    /**
+     * Выдача count файлов так же, как FileQueueService: файл пользователя, чей ход, и списание его стоимости
+     */
+    private List<Long> dispatch(int count) {
+        List<Long> order = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Long userId = scheduler.currentUser(backlogged()).orElseThrow();
+            ArrayDeque<Integer> queue = backlog.get(userId);
+            scheduler.charge(userId, queue.poll());
+            if (queue.isEmpty()) {
+                backlog.remove(userId);
+            }
+            order.add(userId);
+        }
+        return order;
+    }
+}
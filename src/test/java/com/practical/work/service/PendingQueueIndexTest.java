@@ -0,0 +1,348 @@
+package com.practical.work.service;
+
+import com.practical.work.entity.FileProcessingQueue;
+import com.practical.work.entity.FileProcessingQueue.Priority;
+import com.practical.work.model.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PendingQueueIndexTest {
+
+    private PendingQueueIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new PendingQueueIndex();
+    }
+
+    @Test
+    void peekFollowsPriorityThenQueueOrder() {
+        index.add(item(5, Priority.LOW, 1));
+        index.add(item(3, Priority.NORMAL, 1));
+        index.add(item(7, Priority.HIGH, 2));
+        index.add(item(4, Priority.NORMAL, 2));
+
+        assertEquals(Optional.of(7L), index.peek());
+        index.remove(7L);
+        assertEquals(Optional.of(3L), index.peek());
+        index.remove(3L);
+        assertEquals(Optional.of(4L), index.peek());
+        index.remove(4L);
+        assertEquals(Optional.of(5L), index.peek());
+        index.remove(5L);
+        assertEquals(Optional.empty(), index.peek());
+    }
+
+    @Test
+    void readdingEntryReplacesPreviousPriority() {
+        index.add(item(1, Priority.LOW, 1));
+        index.add(item(2, Priority.NORMAL, 1));
+        index.add(item(1, Priority.HIGH, 1));
+
+        assertEquals(2, index.size());
+        assertEquals(3L, index.idSum());
+        assertEquals(Optional.of(1L), index.peek());
+        assertEquals(1, index.position(1L));
+        assertEquals(2, index.position(2L));
+    }
+
+    @Test
+    void removingUnknownEntryChangesNothing() {
+        index.add(item(1, Priority.NORMAL, 1));
+        index.remove(42L);
+
+        assertEquals(1, index.size());
+        assertEquals(1L, index.idSum());
+        assertEquals(-1, index.position(42L));
+        assertFalse(index.contains(42L));
+    }
+
+    @Test
+    void peekForUserFollowsPriorityThenQueueOrder() {
+        index.add(item(1, Priority.LOW, 1));
+        index.add(item(2, Priority.NORMAL, 1));
+        index.add(item(3, Priority.NORMAL, 1));
+        index.add(item(4, Priority.HIGH, 2));
+
+        assertEquals(Optional.of(2L), index.peekForUser(1L));
+        index.remove(2L);
+        assertEquals(Optional.of(3L), index.peekForUser(1L));
+        index.remove(3L);
+        assertEquals(Optional.of(1L), index.peekForUser(1L));
+        index.remove(1L);
+        assertEquals(Optional.empty(), index.peekForUser(1L));
+        assertEquals(Set.of(2L), index.backloggedUsers());
+    }
+
+    @Test
+    void rebuildReplacesContent() {
+        index.add(item(1, Priority.HIGH, 1));
+        index.add(item(2, Priority.HIGH, 2));
+
+        index.rebuild(List.of(item(10, Priority.LOW, 3), item(11, Priority.NORMAL, 3)));
+
+        assertEquals(Set.of(10L, 11L), index.ids());
+        assertEquals(21L, index.idSum());
+        assertEquals(Set.of(3L), index.backloggedUsers());
+        assertEquals(Optional.empty(), index.userOf(1L));
+        assertEquals(Optional.of(11L), index.peek());
+        assertEquals(2, index.position(10L));
+    }
+
+    @Test
+    void projectedPositionMatchesPositionAfterAdd() {
+        index.add(item(1, Priority.HIGH, 1));
+        index.add(item(2, Priority.NORMAL, 1));
+        index.add(item(3, Priority.LOW, 2));
+
+        for (Priority priority : Priority.values()) {
+            int projected = index.projectedPosition(priority);
+            index.add(item(100, priority, 3));
+            assertEquals(projected, index.position(100L), priority.name());
+            index.remove(100L);
+        }
+    }
+
+    @Test
+    void randomOperationsKeepIndexConsistent() {
+        Random random = new Random(45);
+        Map<Long, FileProcessingQueue> pending = new HashMap<>();
+
+        for (int step = 0; step < 5000; step++) {
+            long id = random.nextInt(300) + 1;
+            if (random.nextInt(3) == 0) {
+                index.remove(id);
+                pending.remove(id);
+            } else {
+                FileProcessingQueue item = item(id, Priority.values()[random.nextInt(3)], random.nextInt(5) + 1);
+                index.add(item);
+                pending.put(id, item);
+            }
+            if (step % 50 == 0) {
+                assertMatches(pending);
+            }
+        }
+        assertMatches(pending);
+
+        index.rebuild(new ArrayList<>(pending.values()));
+        assertMatches(pending);
+    }
+
+    @Test
+    void positionsFollowRemovalsInsideQueue() {
+        for (long id = 1; id <= 200; id++) {
+            index.add(item(id, Priority.NORMAL, 1));
+        }
+        for (long id = 2; id <= 200; id += 2) {
+            index.remove(id);
+        }
+
+        for (long id = 1; id <= 200; id += 2) {
+            assertEquals((int) (id + 1) / 2, index.position(id));
+        }
+        assertEquals(-1, index.position(2L));
+    }
+
+    @Test
+    void retriedEntryTakesItsPlaceByIdentifier() {
+        for (long id = 10; id <= 100; id += 10) {
+            index.add(item(id, Priority.NORMAL, 1));
+        }
+        // Повторная попытка: запись с меньшим идентификатором возвращается в очередь
+        index.add(item(35, Priority.NORMAL, 2));
+        index.add(item(5, Priority.NORMAL, 2));
+
+        assertEquals(1, index.position(5L));
+        assertEquals(2, index.position(10L));
+        assertEquals(5, index.position(35L));
+        assertEquals(6, index.position(40L));
+        assertEquals(12, index.position(100L));
+    }
+
+    @Test
+    void entriesMovedFromOtherPriorityKeepOrderByIdentifier() {
+        Map<Long, FileProcessingQueue> pending = new HashMap<>();
+        for (long id = 1; id <= 400; id++) {
+            FileProcessingQueue item = item(id, id % 2 == 0 ? Priority.HIGH : Priority.LOW, 1);
+            index.add(item);
+            pending.put(id, item);
+        }
+        assertMatches(pending);
+
+        // Повторные попытки меняют приоритет: в HIGH приходят записи с меньшими идентификаторами,
+        // которых там раньше не было - больше, чем помещается без перенумерации
+        for (long id = 399; id >= 1; id -= 2) {
+            index.remove(id);
+            FileProcessingQueue item = item(id, Priority.HIGH, 1);
+            index.add(item);
+            pending.put(id, item);
+            if (id % 50 == 1) {
+                assertMatches(pending);
+            }
+        }
+        assertMatches(pending);
+    }
+
+    @Test
+    void positionsDoNotDependOnIdentifierGaps() {
+        long[] ids = { 1L, 3_000_000_000L, 3_000_000_001L, 9_000_000_000_000L, Long.MAX_VALUE - 1 };
+        for (long id : ids) {
+            index.add(item(id, Priority.LOW, 1));
+        }
+        index.add(item(2L, Priority.LOW, 1));
+
+        assertEquals(1, index.position(1L));
+        assertEquals(2, index.position(2L));
+        assertEquals(3, index.position(3_000_000_000L));
+        assertEquals(6, index.position(Long.MAX_VALUE - 1));
+
+        index.remove(3_000_000_000L);
+        assertEquals(3, index.position(3_000_000_001L));
+        assertEquals(5, index.position(Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    void positionsMatchSortedOrderUnderChurn() {
+        Random random = new Random(46);
+        Map<Long, FileProcessingQueue> pending = new HashMap<>();
+        List<Long> finished = new ArrayList<>();
+        long nextId = 1;
+
+        for (int step = 0; step < 20000; step++) {
+            int action = random.nextInt(10);
+            if (action < 5) {
+                // Новая загрузка, иногда после большого разрыва идентификаторов
+                nextId += random.nextInt(20) == 0 ? 1_000_000_000L : 1;
+                FileProcessingQueue item = item(nextId, Priority.values()[random.nextInt(3)], random.nextInt(4) + 1);
+                index.add(item);
+                pending.put(nextId, item);
+            } else if (action < 8 && !pending.isEmpty()) {
+                // Файл взят в обработку: обычно первый в очереди, иногда отмена из середины
+                Long id = random.nextBoolean()
+                    ? index.peek().orElseThrow()
+                    : new ArrayList<>(pending.keySet()).get(random.nextInt(pending.size()));
+                index.remove(id);
+                pending.remove(id);
+                finished.add(id);
+            } else if (!finished.isEmpty()) {
+                // Повторная попытка ранее взятого файла со старым идентификатором
+                Long id = finished.remove(random.nextInt(finished.size()));
+                FileProcessingQueue item = item(id, Priority.values()[random.nextInt(3)], random.nextInt(4) + 1);
+                index.add(item);
+                pending.put(id, item);
+            }
+            if (step % 500 == 0) {
+                assertMatches(pending);
+            }
+        }
+        assertMatches(pending);
+    }
+
+    @Test
+    void userRankCountsOnlyOwnFiles() {
+        for (long id = 1; id <= 3; id++) {
+            index.add(item(id, Priority.NORMAL, 1));
+        }
+        for (long id = 10; id < 20; id++) {
+            index.add(item(id, Priority.NORMAL, 2));
+        }
+        index.add(item(30, Priority.NORMAL, 3));
+
+        assertEquals(1, index.userRank(1L));
+        assertEquals(3, index.userRank(3L));
+        assertEquals(10, index.userRank(19L));
+        assertEquals(1, index.userRank(30L));
+        assertEquals(-1, index.userRank(99L));
+        assertEquals(Map.of(1L, 3L, 2L, 10L, 3L, 1L), index.pendingByUser());
+
+        index.remove(2L);
+        assertEquals(2, index.userRank(3L));
+        assertEquals(Map.of(1L, 2L, 2L, 10L, 3L, 1L), index.pendingByUser());
+    }
+
+    @Test
+    void userRankFollowsPriority() {
+        index.add(item(1, Priority.LOW, 1));
+        index.add(item(2, Priority.HIGH, 1));
+        index.add(item(3, Priority.NORMAL, 2));
+
+        assertEquals(1, index.userRank(2L));
+        assertEquals(2, index.userRank(1L));
+        assertEquals(1, index.userRank(3L));
+    }
+
+    @Test
+    void projectedUserRankMatchesRankAfterAdd() {
+        index.add(item(1, Priority.HIGH, 1));
+        index.add(item(2, Priority.LOW, 1));
+        for (long id = 10; id < 15; id++) {
+            index.add(item(id, Priority.NORMAL, 2));
+        }
+
+        for (Priority priority : Priority.values()) {
+            int projected = index.projectedUserRank(1L, priority);
+            index.add(item(100, priority, 1));
+            assertEquals(projected, index.userRank(100L), priority.name());
+            index.remove(100L);
+        }
+        assertEquals(1, index.projectedUserRank(3L, Priority.LOW));
+    }
+
+    private void assertMatches(Map<Long, FileProcessingQueue> pending) {
+        List<FileProcessingQueue> expected = dispatchOrder(pending.values());
+
+        assertEquals(pending.size(), index.size());
+        assertEquals(pending.keySet(), index.ids());
+        assertEquals(pending.keySet().stream().mapToLong(Long::longValue).sum(), index.idSum());
+        assertEquals(expected.isEmpty() ? Optional.empty() : Optional.of(expected.get(0).getId()), index.peek());
+
+        Map<Long, Long> userCounts = new HashMap<>();
+        for (int i = 0; i < expected.size(); i++) {
+            FileProcessingQueue item = expected.get(i);
+            Long userId = item.getUser().getId();
+            assertTrue(index.contains(item.getId()));
+            assertEquals(i + 1, index.position(item.getId()));
+            assertEquals(Optional.of(userId), index.userOf(item.getId()));
+            long userRank = userCounts.merge(userId, 1L, Long::sum);
+            // Порядок файлов пользователя совпадает с их порядком в общей очереди
+            assertEquals(userRank, index.userRank(item.getId()));
+            if (userRank == 1) {
+                assertEquals(Optional.of(item.getId()), index.peekForUser(userId));
+            }
+        }
+        assertEquals(userCounts.keySet(), index.backloggedUsers());
+        assertEquals(userCounts, index.pendingByUser());
+    }
+
+    static List<FileProcessingQueue> dispatchOrder(Iterable<FileProcessingQueue> items) {
+        List<FileProcessingQueue> ordered = new ArrayList<>();
+        items.forEach(ordered::add);
+        ordered.sort((a, b) -> {
+            int byPriority = Integer.compare(
+                PendingQueueIndex.dispatchRank(a.getPriority()), PendingQueueIndex.dispatchRank(b.getPriority()));
+            return byPriority != 0 ? byPriority : Long.compare(a.getId(), b.getId());
+        });
+        return ordered;
+    }
+
+    static FileProcessingQueue item(long id, Priority priority, long userId) {
+        return FileProcessingQueue.builder()
+            .id(id)
+            .priority(priority)
+            .status(FileProcessingQueue.QueueStatus.PENDING)
+            .user(User.builder().id(userId).build())
+            .build();
+    }
+}